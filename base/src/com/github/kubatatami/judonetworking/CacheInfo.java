@@ -8,6 +8,7 @@ import java.io.Serializable;
 public class CacheInfo implements Serializable{
     public boolean isCached;
     public Long dataTime;
+    public boolean isStale;
 
     public CacheInfo() {
     }
@@ -16,4 +17,10 @@ public class CacheInfo implements Serializable{
         this.isCached = isCached;
         this.dataTime = dataTime;
     }
+
+    public CacheInfo(boolean isCached, Long dataTime, boolean isStale) {
+        this.isCached = isCached;
+        this.dataTime = dataTime;
+        this.isStale = isStale;
+    }
 }
@@ -2,6 +2,8 @@ package com.github.kubatatami.judonetworking;
 
 
 import com.github.kubatatami.judonetworking.batches.Batch;
+import com.github.kubatatami.judonetworking.caches.CacheCodec;
+import com.github.kubatatami.judonetworking.internals.stats.CacheStats;
 import com.github.kubatatami.judonetworking.caches.DiskCache;
 import com.github.kubatatami.judonetworking.caches.MemoryCache;
 import com.github.kubatatami.judonetworking.clonners.Clonner;
@@ -127,9 +129,71 @@ public interface Endpoint extends EndpointBase {
 
     public DiskCache getDiskCache();
 
+    /**
+     * @param diskCache Disk cache implementation used by LocalCache and ServerCache.
+     */
+    public void setDiskCache(DiskCache diskCache);
 
     public MemoryCache getMemoryCache();
 
+    /**
+     * @param memoryCache Memory cache implementation used by LocalCache.
+     */
+    public void setMemoryCache(MemoryCache memoryCache);
+
+    public CacheCodec getCacheCodec();
+
+    /**
+     * @param cacheCodec Codec used by disk cache, default clonner and time profiler statistics.
+     */
+    public void setCacheCodec(CacheCodec cacheCodec);
+
+    /**
+     * Disk cache entries encoded by the cache codec to at least minSize bytes are stored deflated.
+     * Entries stored with other settings are still read. Default is 16 KB.
+     *
+     * @param minSize Size in bytes, 0 disables compression.
+     */
+    public void setCacheCompressionMinSize(int minSize);
+
+    /**
+     * @return Number of requests which weren't sent because an identical @Coalesce request was in flight.
+     */
+    public long getCoalescedRequestCount();
+
+    /**
+     * @return Cache hits, misses, evictions, expirations, load time and stored bytes per method and cache level.
+     * Use {@link CacheStats#snapshot()} or {@link CacheStats#snapshotAndReset()} to read them.
+     */
+    public CacheStats getCacheStats();
+
+    /**
+     * Loads disk cache entries of the api used in the previous session into memory cache
+     * on a low priority thread, so first calls are memory hits. Call it at startup.
+     *
+     * @param api        Api interface with @LocalCache(cacheLevel = DISK_*) methods.
+     * @param maxEntries Max number of loaded entries.
+     */
+    public void prewarmCache(Class<?> api, int maxEntries);
+
+    public void prewarmCache(Class<?> api);
+
+    /**
+     * Removes LocalCache entries tagged with the tag by @CacheTags from memory and disk cache.
+     * Disk entries of previous sessions are found through a journal, cache directories aren't scanned.
+     *
+     * @param tag Tag with resolved arguments, e.g. "user:42".
+     * @return Number of removed entries.
+     */
+    public int invalidateTag(String tag);
+
+    /**
+     * Removes LocalCache entries with any @CacheTags tag starting with the prefix, e.g. "user:".
+     *
+     * @return Number of removed entries.
+     */
+    public int invalidateTagPrefix(String prefix);
+
     public void setThreadPoolSizer(ThreadPoolSizer threadPoolSizer);
 
     public void setUrl(String url);
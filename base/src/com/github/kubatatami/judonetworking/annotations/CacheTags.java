@@ -0,0 +1,20 @@
+package com.github.kubatatami.judonetworking.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Tags of LocalCache entries of the method, used to invalidate entries of many methods at once
+ * by {@link com.github.kubatatami.judonetworking.Endpoint#invalidateTag(String)}.
+ * <code>{n}</code> in a tag is replaced with n-th argument of the call, e.g. <code>@CacheTags("user:{0}")</code>.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface CacheTags {
+
+    public String[] value();
+
+    public boolean enabled() default true;
+}
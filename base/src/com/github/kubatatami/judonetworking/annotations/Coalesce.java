@@ -0,0 +1,17 @@
+package com.github.kubatatami.judonetworking.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Identical calls (same method and arguments) made while one is already in flight
+ * don't send their own request but wait for the result of the first one.
+ * Every call still gets its own callback.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.METHOD, ElementType.TYPE})
+public @interface Coalesce {
+    boolean enabled() default true;
+}
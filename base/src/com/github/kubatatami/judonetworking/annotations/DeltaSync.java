@@ -0,0 +1,30 @@
+package com.github.kubatatami.judonetworking.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Requests only changes of a list since the cached copy. Works with {@link ServerCache} and
+ * {@link LocalCache#revalidate()}, the ETag of the cached copy is its version.
+ * The conditional request gets an <code>A-IM: judo-delta</code> header (RFC 3229). A server which
+ * can compute the changes responds with 226 status, <code>IM: judo-delta</code> header, ETag of the new
+ * version and a diff envelope:
+ * <pre>{"inserts": [items], "updates": [items], "deletes": [keys]}</pre>
+ * The protocol controller applies it to the cached list, which is then stored as a regular response.
+ * Any other response is handled as usual.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.METHOD, ElementType.TYPE})
+public @interface DeltaSync {
+
+    public static final String INSTANCE_MANIPULATION = "judo-delta";
+
+    boolean enabled() default true;
+
+    /**
+     * Field of list items which identifies them in the diff envelope.
+     */
+    String keyField() default "id";
+}
@@ -24,8 +24,28 @@ public @interface LocalCache {
 
     public int size() default 0;
 
+    /**
+     * Time in ms after lifeTime expiration in which the expired value is still returned
+     * while a fresh one is requested in the background. Works only with lifeTime set.
+     *
+     * @see com.github.kubatatami.judonetworking.callbacks.RevalidateCallback
+     */
+    public int staleWhileRevalidate() default 0;
+
     public OnlyOnError onlyOnError() default OnlyOnError.NO;
 
+    /**
+     * Disk levels store the response body as received and parse it again on a cache hit,
+     * so result models don't have to be serializable. Memory cache still keeps parsed objects.
+     */
+    public boolean rawResponse() default false;
+
+    /**
+     * Keeps expired disk entries with their ETag and Last-Modified, so the next request is conditional
+     * and a 304 response only renews the entry. Works only with lifeTime set and a disk cache level.
+     */
+    public boolean revalidate() default false;
+
 
     /**
      * Created with IntelliJ IDEA.
@@ -0,0 +1,24 @@
+package com.github.kubatatami.judonetworking.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Failed calls are remembered in memory (apart from memory cache), identical calls made within lifeTime
+ * fail with the same exception without a connection. Fallback to LocalCache (onlyOnError) still applies.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.METHOD, ElementType.TYPE})
+public @interface NegativeCache {
+
+    public boolean enabled() default true;
+
+    public int lifeTime() default 30000;
+
+    /**
+     * HttpException or ProtocolException codes which are cached. Empty means every code.
+     */
+    public int[] onCodes() default {};
+}
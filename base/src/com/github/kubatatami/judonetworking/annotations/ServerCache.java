@@ -18,12 +18,21 @@ public @interface ServerCache {
 
     public boolean enabled() default true;
 
+    /**
+     * Returns the cached response on error. Without it the cached response is still returned
+     * while the server allows it with Cache-Control stale-if-error.
+     */
     boolean useOldOnError() default false;
 
     public int size() default 0;
 
     public CacheLevel cacheLevel() default CacheLevel.DISK_CACHE;
 
+    /**
+     * Stores the response body as received and parses it again only when the cached result is used.
+     */
+    public boolean rawResponse() default false;
+
     /**
      * Created with IntelliJ IDEA.
      * User: jbogacki
@@ -0,0 +1,18 @@
+package com.github.kubatatami.judonetworking.caches;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Converts cached objects to bytes and back.
+ * Used by disk caches, the default {@link com.github.kubatatami.judonetworking.clonners.Clonner}
+ * and the time profiler statistics file. Implementations must not close the given streams.
+ */
+public interface CacheCodec {
+
+    public void encode(Object object, OutputStream outputStream) throws IOException;
+
+    public Object decode(InputStream inputStream) throws IOException;
+
+}
@@ -0,0 +1,130 @@
+package com.github.kubatatami.judonetworking.caches;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+
+/**
+ * {@link CacheCodec} which deflates entries encoded by another codec when they are larger than a threshold.
+ * Compressed entries start with a header, entries without it are decoded by the wrapped codec directly,
+ * so entries written before compression was enabled are still read.
+ * Entries which don't get smaller are stored uncompressed.
+ */
+public class CompressedCacheCodec implements CacheCodec {
+
+    public static final int DEFAULT_MIN_SIZE = 16 * 1024;
+    protected static final byte[] HEADER = {'J', 'D', 'Z', 1};
+    /**
+     * Entries declaring a larger size in their header are treated as corrupted.
+     */
+    public static final int MAX_SIZE = 64 * 1024 * 1024;
+
+    protected final CacheCodec codec;
+    protected final int minSize;
+
+    public CompressedCacheCodec(CacheCodec codec) {
+        this(codec, DEFAULT_MIN_SIZE);
+    }
+
+    /**
+     * @param minSize entries smaller than minSize bytes are stored uncompressed
+     */
+    public CompressedCacheCodec(CacheCodec codec, int minSize) {
+        this.codec = codec;
+        this.minSize = minSize;
+    }
+
+    @Override
+    public void encode(Object object, OutputStream outputStream) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        codec.encode(object, bytes);
+        if (bytes.size() < minSize) {
+            bytes.writeTo(outputStream);
+            return;
+        }
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.size() / 4);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            DeflaterOutputStream deflaterStream = new DeflaterOutputStream(compressed, deflater);
+            bytes.writeTo(deflaterStream);
+            deflaterStream.finish();
+        } finally {
+            deflater.end();
+        }
+        if (compressed.size() + HEADER.length + 8 >= bytes.size()) {
+            bytes.writeTo(outputStream);
+            return;
+        }
+        DataOutputStream dataStream = new DataOutputStream(outputStream);
+        dataStream.write(HEADER);
+        dataStream.writeInt(bytes.size());
+        dataStream.writeInt(compressed.size());
+        compressed.writeTo(dataStream);
+        dataStream.flush();
+    }
+
+    @Override
+    public Object decode(InputStream inputStream) throws IOException {
+        PushbackInputStream pushbackStream = new PushbackInputStream(inputStream, HEADER.length);
+        byte[] header = new byte[HEADER.length];
+        int read = 0;
+        while (read < header.length) {
+            int count = pushbackStream.read(header, read, header.length - read);
+            if (count == -1) {
+                break;
+            }
+            read += count;
+        }
+        if (read < header.length || !Arrays.equals(header, HEADER)) {
+            pushbackStream.unread(header, 0, read);
+            return codec.decode(pushbackStream);
+        }
+        DataInputStream dataStream = new DataInputStream(pushbackStream);
+        int size = dataStream.readInt();
+        int compressedSize = dataStream.readInt();
+        //entries are compressed only when they get smaller
+        if (size < 0 || size > MAX_SIZE || compressedSize < 0 || compressedSize >= size) {
+            throw new IOException("Corrupted cache entry: invalid sizes " + size + "/" + compressedSize + ".");
+        }
+        byte[] bytes = new byte[size];
+        byte[] compressed = new byte[compressedSize];
+        dataStream.readFully(compressed);
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            int length = 0;
+            while (length < bytes.length && !inflater.finished()) {
+                int count = inflater.inflate(bytes, length, bytes.length - length);
+                if (count == 0 && inflater.needsInput()) {
+                    throw new IOException("Compressed cache entry is truncated.");
+                }
+                length += count;
+            }
+        } catch (DataFormatException e) {
+            IOException exception = new IOException("Corrupted cache entry: " + e.getMessage());
+            exception.initCause(e);
+            throw exception;
+        } finally {
+            inflater.end();
+        }
+        return codec.decode(new ByteArrayInputStream(bytes));
+    }
+
+    public CacheCodec getCodec() {
+        return codec;
+    }
+
+    public int getMinSize() {
+        return minSize;
+    }
+}
@@ -0,0 +1,247 @@
+package com.github.kubatatami.judonetworking.caches;
+
+import android.content.Context;
+
+import com.github.kubatatami.judonetworking.Endpoint;
+import com.github.kubatatami.judonetworking.internals.cache.CacheMethod;
+import com.github.kubatatami.judonetworking.internals.cache.RequestFingerprint;
+import com.github.kubatatami.judonetworking.internals.cache.TrimLevel;
+import com.github.kubatatami.judonetworking.internals.results.CacheResult;
+import com.github.kubatatami.judonetworking.internals.stats.CacheStats;
+import com.github.kubatatami.judonetworking.logs.JudoLogger;
+
+import java.lang.reflect.Method;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Memory cache for endpoints used by many pool threads.
+ * Cache hits take no locks: entries live in lock-striped {@link ConcurrentHashMap}s
+ * and hits are recorded in a bounded buffer, which drops accesses when it's full.
+ * Puts lock their method, replay the buffer into an access-ordered map and evict
+ * least recently used entries above the <code>size</code> of
+ * {@link com.github.kubatatami.judonetworking.annotations.LocalCache} in constant time.
+ * Expired entries are removed by the get which finds them.
+ */
+public class ConcurrentMemoryCache implements MemoryCache {
+
+    protected static final int MAX_PENDING_ACCESSES = 128;
+
+    private volatile int debugFlags;
+    private volatile CacheStats cacheStats;
+    private final ConcurrentMap<Integer, MethodCache> cache = new ConcurrentHashMap<>();
+
+    protected Context context;
+
+    public ConcurrentMemoryCache(Context context) {
+        this.context = context;
+    }
+
+    @Override
+    public CacheResult get(RequestFingerprint fingerprint, int cacheLifeTime, int cacheSize) {
+        CacheResult result = new CacheResult();
+        int methodId = fingerprint.getMethodId();
+        MethodCache methodCache = cache.get(methodId);
+        if (methodCache != null) {
+            if ((debugFlags & Endpoint.CACHE_DEBUG) > 0) {
+                JudoLogger.log("Search for " + methodId + " with hash:" + fingerprint.toHex());
+            }
+            CacheObject cacheObject = methodCache.entries.get(fingerprint);
+            if (cacheObject != null) {
+                if (cacheLifeTime == 0 || System.currentTimeMillis() - cacheObject.createTime < cacheLifeTime) {
+                    methodCache.recordAccess(fingerprint);
+                    if ((debugFlags & Endpoint.CACHE_DEBUG) > 0) {
+                        JudoLogger.log("Cache(" + methodId + "): Get from memory cache object with hash:" + fingerprint.toHex());
+                    }
+                    result.object = cacheObject.object;
+                    result.time = cacheObject.createTime;
+                    result.createTime = cacheObject.createTime;
+                    result.result = true;
+                    return result;
+                } else if (methodCache.entries.remove(fingerprint, cacheObject)) {
+                    methodCache.recordRemoval(fingerprint);
+                    if (cacheStats != null) {
+                        cacheStats.recordExpiration(methodId, CacheStats.Level.MEMORY);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void put(RequestFingerprint fingerprint, Object object, int cacheSize) {
+        put(fingerprint, object, cacheSize, System.currentTimeMillis());
+    }
+
+    @Override
+    public void put(RequestFingerprint fingerprint, Object object, int cacheSize, long createTime) {
+        int methodId = fingerprint.getMethodId();
+        MethodCache methodCache = getMethodCache(methodId);
+        synchronized (methodCache) {
+            CacheObject cacheObject = new CacheObject(createTime, object);
+            methodCache.entries.put(fingerprint, cacheObject);
+            methodCache.drainAccesses();
+            methodCache.order.put(fingerprint, cacheObject);
+            while (cacheSize > 0 && methodCache.entries.size() > cacheSize && !methodCache.order.isEmpty()) {
+                evictEldest(methodCache);
+            }
+        }
+        if ((debugFlags & Endpoint.CACHE_DEBUG) > 0) {
+            JudoLogger.log("Cache(" + methodId + "): Saved in memory cache with hash:" + fingerprint.toHex());
+        }
+    }
+
+    protected MethodCache getMethodCache(int methodId) {
+        MethodCache methodCache = cache.get(methodId);
+        if (methodCache == null) {
+            MethodCache newMethodCache = new MethodCache();
+            methodCache = cache.putIfAbsent(methodId, newMethodCache);
+            if (methodCache == null) {
+                methodCache = newMethodCache;
+            }
+        }
+        return methodCache;
+    }
+
+    /**
+     * Removes the least recently used entry, the method cache has to be locked.
+     */
+    protected void evictEldest(MethodCache methodCache) {
+        Iterator<Map.Entry<RequestFingerprint, CacheObject>> iterator = methodCache.order.entrySet().iterator();
+        Map.Entry<RequestFingerprint, CacheObject> eldest = iterator.next();
+        iterator.remove();
+        //entries removed without the lock are still ordered
+        if (methodCache.entries.remove(eldest.getKey(), eldest.getValue()) && cacheStats != null) {
+            cacheStats.recordEviction(eldest.getKey().getMethodId(), CacheStats.Level.MEMORY);
+        }
+    }
+
+    @Override
+    public void clearCache() {
+        cache.clear();
+    }
+
+    @Override
+    public void clearCache(Method method) {
+        clearCache(CacheMethod.getMethodId(method));
+    }
+
+    @Override
+    public void clearCache(Method method, Object... params) {
+        clearCache(CacheMethod.getMethodId(method), params);
+    }
+
+    @Override
+    public void clearCache(int methodId) {
+        cache.remove(methodId);
+    }
+
+    @Override
+    public void clearCache(int methodId, Object... params) {
+        clearCache(RequestFingerprint.create(methodId, params));
+    }
+
+    @Override
+    public void clearCache(RequestFingerprint fingerprint) {
+        MethodCache methodCache = cache.get(fingerprint.getMethodId());
+        if (methodCache != null && methodCache.entries.remove(fingerprint) != null) {
+            methodCache.recordRemoval(fingerprint);
+        }
+    }
+
+    @Override
+    public void trimMemory(int level) {
+        float retained = TrimLevel.getRetainedFraction(level);
+        if (retained >= 1) {
+            return;
+        }
+        for (MethodCache methodCache : cache.values()) {
+            synchronized (methodCache) {
+                methodCache.drainAccesses();
+                int retainedSize = (int) (methodCache.entries.size() * retained);
+                while (methodCache.entries.size() > retainedSize && !methodCache.order.isEmpty()) {
+                    evictEldest(methodCache);
+                }
+            }
+        }
+    }
+
+    @Override
+    public int getDebugFlags() {
+        return debugFlags;
+    }
+
+    @Override
+    public void setDebugFlags(int debugFlags) {
+        this.debugFlags = debugFlags;
+    }
+
+    @Override
+    public CacheStats getCacheStats() {
+        return cacheStats;
+    }
+
+    @Override
+    public void setCacheStats(CacheStats cacheStats) {
+        this.cacheStats = cacheStats;
+    }
+
+    static class MethodCache {
+        final ConcurrentMap<RequestFingerprint, CacheObject> entries = new ConcurrentHashMap<>();
+        /**
+         * Entries in access order, guarded by the method cache lock.
+         */
+        final LinkedHashMap<RequestFingerprint, CacheObject> order = new LinkedHashMap<>(16, 0.75f, true);
+        final ConcurrentLinkedQueue<RequestFingerprint> accesses = new ConcurrentLinkedQueue<>();
+        final AtomicInteger pendingAccesses = new AtomicInteger();
+
+        /**
+         * Records a hit without locking, it's dropped when the buffer is full.
+         */
+        void recordAccess(RequestFingerprint fingerprint) {
+            if (pendingAccesses.get() < MAX_PENDING_ACCESSES) {
+                pendingAccesses.incrementAndGet();
+                accesses.offer(fingerprint);
+            }
+        }
+
+        /**
+         * Records a removal without locking, removals are never dropped so the order map doesn't grow.
+         */
+        void recordRemoval(RequestFingerprint fingerprint) {
+            pendingAccesses.incrementAndGet();
+            accesses.offer(fingerprint);
+        }
+
+        /**
+         * Replays recorded accesses, the method cache has to be locked.
+         */
+        void drainAccesses() {
+            RequestFingerprint fingerprint;
+            while ((fingerprint = accesses.poll()) != null) {
+                pendingAccesses.decrementAndGet();
+                if (entries.containsKey(fingerprint)) {
+                    order.get(fingerprint);
+                } else {
+                    order.remove(fingerprint);
+                }
+            }
+        }
+    }
+
+    static class CacheObject {
+        final long createTime;
+        final Object object;
+
+        CacheObject(long createTime, Object object) {
+            this.createTime = createTime;
+            this.object = object;
+        }
+    }
+}
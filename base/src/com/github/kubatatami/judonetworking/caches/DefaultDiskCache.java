@@ -3,93 +3,223 @@ package com.github.kubatatami.judonetworking.caches;
 import android.content.Context;
 
 import com.github.kubatatami.judonetworking.internals.cache.CacheMethod;
+import com.github.kubatatami.judonetworking.internals.cache.RequestFingerprint;
 import com.github.kubatatami.judonetworking.internals.results.CacheResult;
+import com.github.kubatatami.judonetworking.internals.stats.CacheStats;
 import com.github.kubatatami.judonetworking.Endpoint;
 import com.github.kubatatami.judonetworking.logs.JudoLogger;
 import com.github.kubatatami.judonetworking.annotations.LocalCache;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.util.Arrays;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Created with IntelliJ IDEA.
  * User: jbogacki
  * Date: 07.03.2013
  * Time: 08:05
+ * <p/>
+ * Entry sizes and access order of every cache level are tracked by {@link Usage} index,
+ * so the least recently used entries of any method are removed when the byte limit
+ * of the level ({@link #setMaxSize(LocalCache.CacheLevel, long)}) is exceeded.
+ * <p/>
+ * Payloads larger than {@link #setBlobMinSize(int)} are stored once per content digest
+ * in the <code>blobs</code> directory and entries keep a {@link BlobReference}.
+ * A blob is deleted when the last entry referencing it is removed or evicted.
+ * Smaller payloads are kept in the entry itself.
  */
 public class DefaultDiskCache implements DiskCache {
+
+    protected static final String USAGE_FILE = "usage";
+    protected static final int USAGE_VERSION = 2;
+    protected static final String BLOBS_DIR = "blobs/";
+    public static final int DEFAULT_BLOB_MIN_SIZE = 4096;
+    protected static final long USAGE_SAVE_DELAY = 5000;
+
     private int debugFlags;
+    private CacheStats cacheStats;
+    private CacheCodec codec = new SerializableCacheCodec();
+    private volatile long maxCacheSize;
+    private volatile long maxDataSize;
+    private volatile int blobMinSize = DEFAULT_BLOB_MIN_SIZE;
+    private final Map<LocalCache.CacheLevel, Usage> usages = new HashMap<>();
 
     protected Context context;
 
     public DefaultDiskCache(Context context) {
+        this(context, 20 * 1024 * 1024, 0);
+    }
+
+    /**
+     * @param maxCacheSize byte limit of DISK_CACHE level, 0 means no limit
+     * @param maxDataSize  byte limit of DISK_DATA level, 0 means no limit
+     */
+    public DefaultDiskCache(Context context, long maxCacheSize, long maxDataSize) {
         this.context = context;
+        this.maxCacheSize = maxCacheSize;
+        this.maxDataSize = maxDataSize;
     }
 
 
     @Override
-    public CacheResult get(CacheMethod method, String hash, int cacheLifeTime) {
-        return loadObject(method, hash, cacheLifeTime);
+    public CacheResult get(CacheMethod method, RequestFingerprint fingerprint, int cacheLifeTime) {
+        return loadObject(method, fingerprint, cacheLifeTime);
     }
 
     @Override
-    public void put(CacheMethod method, String hash, Object object, int cacheSize) {
-
+    public void put(CacheMethod method, RequestFingerprint fingerprint, Object object, int cacheSize) {
+        put(method, fingerprint, object, cacheSize, System.currentTimeMillis());
+    }
 
+    @Override
+    public void put(CacheMethod method, RequestFingerprint fingerprint, Object object, int cacheSize, long createTime) {
+        Usage usage = getUsage(method.getCacheLevel());
+        String digest = null;
         try {
             File dir = getCacheDir(method);
-            File file = new File(getCacheDir(method), hash + "");
-            if (cacheSize > 0) {
-                trimToSize(dir, cacheSize);
-            }
-            ObjectOutputStream os = new ObjectOutputStream(new FileOutputStream(file));
-            os.writeObject(new CacheResult(object, true, method.getTime(), method.getHash()));
-            os.flush();
-            os.close();
+            File file = new File(dir, fingerprint.toHex());
+            CacheResult cacheResult = new CacheResult(object, true, method.getTime(), method.getHash());
+            cacheResult.key = fingerprint.getKey();
+            cacheResult.createTime = createTime;
+            cacheResult.expireTime = method.getExpireTime();
+            cacheResult.staleIfErrorTime = method.getStaleIfErrorTime();
+            byte[] payload = encodePayload(object);
+            if (payload != null) {
+                digest = putBlob(usage, payload);
+                if (digest != null) {
+                    cacheResult.object = new BlobReference(digest);
+                }
+            }
+            OutputStream os = new BufferedOutputStream(new FileOutputStream(file));
+            try {
+                codec.encode(cacheResult, os);
+            } finally {
+                os.close();
+            }
+            long fileSize = file.length();
+            if (cacheStats != null) {
+                cacheStats.recordBytes(method.getMethodId(), CacheStats.Level.of(method.getCacheLevel()), fileSize);
+            }
+            usage.put(getEntryName(method, fingerprint), method.getMethodKey(), fileSize, cacheSize, digest);
             if ((debugFlags & Endpoint.CACHE_DEBUG) > 0) {
-                JudoLogger.log("Cache(" + method + "): Saved in disk cache " + file.getAbsolutePath() + ".");
+                JudoLogger.log("Cache(" + method + "): Saved in disk cache " + file.getAbsolutePath() + (digest != null ? " with blob " + digest : "") + ".");
             }
         } catch (IOException e) {
+            if (digest != null) {
+                usage.releaseBlob(digest);
+            }
             JudoLogger.log(e);
         }
 
     }
 
-    private void trimToSize(File dir, int cacheSize) {
-        File[] files = dir.listFiles();
-        if (files != null && files.length > cacheSize) {
-            Arrays.sort(files, new Comparator<File>() {
-                public int compare(File f1, File f2) {
-                    return Long.valueOf(f1.lastModified()).compareTo(f2.lastModified());
+    /**
+     * Payloads smaller than blobMinSize are encoded again with their entry, so only small objects are encoded twice
+     * and every hit decodes the object once.
+     *
+     * @return encoded payload or null if blobs are disabled and the object should be encoded with its entry
+     */
+    protected byte[] encodePayload(Object object) throws IOException {
+        if (blobMinSize <= 0 || object == null) {
+            return null;
+        }
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        codec.encode(object, payload);
+        return payload.toByteArray();
+    }
+
+    /**
+     * Stores the encoded payload as a blob if it's large enough. Blob reference is owned by the caller.
+     * The blob file is complete when this method returns, also if another entry is still writing it.
+     *
+     * @return digest of the blob or null if the payload should be stored in the entry
+     */
+    protected String putBlob(Usage usage, byte[] bytes) throws IOException {
+        if (bytes.length < blobMinSize) {
+            return null;
+        }
+        String digest = digest(bytes);
+        File blobFile = usage.getBlobFile(digest);
+        if (usage.retainBlob(digest, bytes.length) || !blobFile.exists()) {
+            File tmpFile = new File(blobFile.getPath() + ".tmp" + Thread.currentThread().getId());
+            try {
+                blobFile.getParentFile().mkdirs();
+                OutputStream os = new FileOutputStream(tmpFile);
+                try {
+                    os.write(bytes);
+                } finally {
+                    os.close();
                 }
-            });
-            for (int i = 0; i < files.length - cacheSize; i++) {
-                files[i].delete();
+                if (!tmpFile.renameTo(blobFile)) {
+                    throw new IOException("Failed to rename " + tmpFile + " to " + blobFile);
+                }
+            } catch (IOException e) {
+                tmpFile.delete();
+                usage.releaseBlob(digest);
+                throw e;
+            }
+        }
+        return digest;
+    }
+
+    protected static String digest(byte[] bytes) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(bytes);
+            StringBuilder builder = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                builder.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
             }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
         }
     }
 
     @Override
     public void clearTests() {
+        getUsage(LocalCache.CacheLevel.DISK_CACHE).removeIf("tests/");
         File file = getTestDir();
         delete(file);
     }
 
     @Override
     public void clearTest(String name) {
+        getUsage(LocalCache.CacheLevel.DISK_CACHE).removeIf("tests/" + name + "/");
         File file = getTestDir(name);
         delete(file);
     }
 
     @Override
     public void clearCache() {
+        for (LocalCache.CacheLevel level : new LocalCache.CacheLevel[]{LocalCache.CacheLevel.DISK_CACHE, LocalCache.CacheLevel.DISK_DATA}) {
+            Usage usage = getUsage(level);
+            usage.removeIf("local/");
+            usage.removeIf("dynamic/");
+        }
         File file = getLocalCacheDir(LocalCache.CacheLevel.DISK_CACHE);
         delete(file);
         file = getDynamicCacheDir(LocalCache.CacheLevel.DISK_CACHE);
@@ -102,15 +232,57 @@ public class DefaultDiskCache implements DiskCache {
 
     @Override
     public void clearCache(CacheMethod method) {
+        getUsage(method.getCacheLevel()).removeIf(method.getMethodKey());
         File file = getCacheDir(method);
         delete(file);
     }
 
     @Override
     public void clearCache(CacheMethod method, Object... params) {
-        Integer hash = Arrays.deepHashCode(params);
+        RequestFingerprint fingerprint = RequestFingerprint.create(method.getMethodId(), params);
+        getUsage(method.getCacheLevel()).remove(getEntryName(method, fingerprint));
         File file = getCacheDir(method);
-        delete(new File(file, hash.toString()));
+        delete(new File(file, fingerprint.toHex()));
+    }
+
+    @Override
+    public void clearCache(CacheMethod method, RequestFingerprint fingerprint) {
+        getUsage(method.getCacheLevel()).remove(getEntryName(method, fingerprint));
+        new File(getCacheDir(method), fingerprint.toHex()).delete();
+    }
+
+    /**
+     * @param cacheLevel DISK_CACHE or DISK_DATA
+     * @param maxSize    byte limit of the level, 0 means no limit
+     */
+    public void setMaxSize(LocalCache.CacheLevel cacheLevel, long maxSize) {
+        if (cacheLevel == LocalCache.CacheLevel.DISK_DATA) {
+            maxDataSize = maxSize;
+        } else {
+            maxCacheSize = maxSize;
+        }
+        getUsage(cacheLevel).trimToSize();
+    }
+
+    /**
+     * @param blobMinSize payloads encoded to at least blobMinSize bytes are shared by entries with identical content,
+     *                    0 stores every payload in its entry
+     */
+    public void setBlobMinSize(int blobMinSize) {
+        this.blobMinSize = blobMinSize;
+    }
+
+    public int getBlobMinSize() {
+        return blobMinSize;
+    }
+
+    public long getMaxSize(LocalCache.CacheLevel cacheLevel) {
+        return cacheLevel == LocalCache.CacheLevel.DISK_DATA ? maxDataSize : maxCacheSize;
+    }
+
+    @Override
+    public long getSize(LocalCache.CacheLevel cacheLevel) {
+        return getUsage(cacheLevel).getSize();
     }
 
 
@@ -123,6 +295,16 @@ public class DefaultDiskCache implements DiskCache {
             throw new RuntimeException(new FileNotFoundException("Failed to delete file: " + f));
     }
 
+    @Override
+    public CacheCodec getCodec() {
+        return codec;
+    }
+
+    @Override
+    public void setCodec(CacheCodec codec) {
+        this.codec = codec;
+    }
+
     @Override
     public int getDebugFlags() {
         return debugFlags;
@@ -133,40 +315,68 @@ public class DefaultDiskCache implements DiskCache {
         this.debugFlags = debugFlags;
     }
 
+    @Override
+    public CacheStats getCacheStats() {
+        return cacheStats;
+    }
+
+    @Override
+    public void setCacheStats(CacheStats cacheStats) {
+        this.cacheStats = cacheStats;
+    }
 
-    private CacheResult loadObject(CacheMethod method, String hash, int cacheLifeTime) {
+
+    private CacheResult loadObject(CacheMethod method, RequestFingerprint fingerprint, int cacheLifeTime) {
         CacheResult result;
-        ObjectInputStream os = null;
-        FileInputStream fileStream;
-        File file = new File(getCacheDir(method), hash + "");
+        InputStream os = null;
+        File file = new File(getCacheDir(method), fingerprint.toHex());
 
         if ((debugFlags & Endpoint.CACHE_DEBUG) > 0) {
             JudoLogger.log("Cache(" + method + "): Search in disk cache " + file.getAbsolutePath() + ".");
         }
 
-        if (file.exists()) {
-            if (cacheLifeTime == 0 || System.currentTimeMillis() - file.lastModified() < cacheLifeTime) {
-                try {
-                    fileStream = new FileInputStream(file);
-                    os = new ObjectInputStream(fileStream);
-                    result = (CacheResult) os.readObject();
+        //expired entries are removed by the sweeper, so a missing file is the common miss and no stat calls are needed
+        boolean expired = false;
+        try {
+            os = new BufferedInputStream(new FileInputStream(file));
+            result = (CacheResult) codec.decode(os);
+            if (result.createTime == 0) {
+                result.createTime = file.lastModified();
+            }
+            if (cacheLifeTime == 0 || System.currentTimeMillis() - result.createTime < cacheLifeTime) {
+                if (fingerprint.getKey().equals(result.key)) {
+                    if (result.object instanceof BlobReference) {
+                        result.object = loadBlob(method, fingerprint, (BlobReference) result.object);
+                    }
                     if ((debugFlags & Endpoint.CACHE_DEBUG) > 0) {
                         JudoLogger.log("Cache(" + method + "): Get from disk cache " + file.getAbsolutePath() + ".");
                     }
+                    getUsage(method.getCacheLevel()).touch(getEntryName(method, fingerprint));
                     return result;
-                } catch (Exception e) {
-                    JudoLogger.log(e);
-                } finally {
-                    if (os != null) {
-                        try {
-                            os.close();
-                        } catch (IOException e) {
-                            JudoLogger.log(e);
-                        }
-                    }
                 }
             } else {
-                file.delete();
+                expired = true;
+            }
+        } catch (FileNotFoundException e) {
+            //cache miss
+        } catch (BlobNotFoundException e) {
+            //cache miss, the entry is kept until it's stored again or evicted
+        } catch (Exception e) {
+            JudoLogger.log(e);
+        } finally {
+            if (os != null) {
+                try {
+                    os.close();
+                } catch (IOException e) {
+                    JudoLogger.log(e);
+                }
+            }
+        }
+        if (expired) {
+            getUsage(method.getCacheLevel()).remove(getEntryName(method, fingerprint));
+            file.delete();
+            if (cacheStats != null) {
+                cacheStats.recordExpiration(method.getMethodId(), CacheStats.Level.of(method.getCacheLevel()));
             }
         }
         result = new CacheResult();
@@ -175,6 +385,20 @@ public class DefaultDiskCache implements DiskCache {
     }
 
 
+    protected Object loadBlob(CacheMethod method, RequestFingerprint fingerprint, BlobReference reference) throws IOException {
+        InputStream is;
+        try {
+            is = new BufferedInputStream(new FileInputStream(getUsage(method.getCacheLevel()).getBlobFile(reference.digest)));
+        } catch (FileNotFoundException e) {
+            throw new BlobNotFoundException();
+        }
+        try {
+            return codec.decode(is);
+        } finally {
+            is.close();
+        }
+    }
+
     private File getLocalCacheDir(LocalCache.CacheLevel cacheLevel) {
         File file = new File(getRootDir(cacheLevel) + "/cache/local/");
         file.mkdirs();
@@ -205,23 +429,594 @@ public class DefaultDiskCache implements DiskCache {
     }
 
     private File getCacheDir(CacheMethod method) {
-        String name = getRootDir(method.getCacheLevel()) + "/cache/";
-        if (method.isDynamic()) {
-            name += "dynamic/";
-        } else {
-            if (method.getTest() != null) {
-                name += "tests/" + method.getTest() + "/" + method.getTestRevision() + "/";
-            } else {
-                name += "local/";
-            }
-        }
-        name += method.getInterfaceName() + "/";
-        name += method.getUrl().hashCode() + "/";
-        name += method.getMethodId() + "/";
-
-        File file = new File(name);
+        File file = new File(getRootDir(method.getCacheLevel()) + "/cache/" + method.getMethodKey());
         file.mkdirs();
         return file;
     }
 
+    protected String getEntryName(CacheMethod method, RequestFingerprint fingerprint) {
+        return method.getMethodKey() + fingerprint.toHex();
+    }
+
+    protected synchronized Usage getUsage(LocalCache.CacheLevel cacheLevel) {
+        if (cacheLevel == LocalCache.CacheLevel.MEMORY_ONLY) {
+            cacheLevel = LocalCache.CacheLevel.DISK_CACHE;
+        }
+        Usage usage = usages.get(cacheLevel);
+        if (usage == null) {
+            usage = new Usage(new File(getRootDir(cacheLevel) + "/cache/"), cacheLevel);
+            usages.put(cacheLevel, usage);
+        }
+        return usage;
+    }
+
+    /**
+     * Payload of an entry stored in a blob shared by entries with identical content.
+     */
+    public static class BlobReference implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        public String digest;
+
+        public BlobReference() {
+        }
+
+        public BlobReference(String digest) {
+            this.digest = digest;
+        }
+    }
+
+    static class BlobNotFoundException extends IOException {
+    }
+
+    static class Entry {
+        final String name;
+        final String methodKey;
+        final long size;
+        final String digest;
+
+        Entry(String name, String methodKey, long size, String digest) {
+            this.name = name;
+            this.methodKey = methodKey;
+            this.size = size;
+            this.digest = digest;
+        }
+    }
+
+    static class Blob {
+        final long size;
+        int references;
+
+        Blob(long size) {
+            this.size = size;
+        }
+    }
+
+    /**
+     * Sizes of entries of a cache level in access order and reference counts of blobs.
+     * The index is read once and saved in the background after structural changes, access order alone
+     * is saved with the next one. A stale marker exists while changes aren't saved yet, so an index
+     * left by a killed process is recognized. Only when the index is missing, corrupt or stale, cache directories
+     * are listed in the background: untracked files are counted, entries whose files are gone are dropped
+     * and blobs referenced by no entry are deleted. Files of removed entries and blobs are deleted
+     * after the index lock is released.
+     */
+    protected class Usage {
+        private final File dir;
+        private final File file;
+        private final File staleFile;
+        private final LocalCache.CacheLevel cacheLevel;
+        private final CacheStats.Level statsLevel;
+        private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private final Map<String, LinkedHashMap<String, Entry>> methods = new HashMap<>();
+        private final Map<String, Blob> blobs = new HashMap<>();
+        private List<String> deletedEntries = new ArrayList<>();
+        private List<String> deletedBlobs = new ArrayList<>();
+        private long size;
+        private boolean loaded;
+        private boolean dirty;
+        private boolean reconciling;
+        private Thread saveThread;
+
+        Usage(File dir, LocalCache.CacheLevel cacheLevel) {
+            this.dir = dir;
+            this.file = new File(dir, USAGE_FILE);
+            this.staleFile = new File(dir, USAGE_FILE + ".stale");
+            this.cacheLevel = cacheLevel;
+            this.statsLevel = CacheStats.Level.of(cacheLevel);
+        }
+
+        synchronized void touch(String name) {
+            load();
+            Entry entry = entries.get(name);
+            if (entry != null) {
+                methods.get(entry.methodKey).get(name);
+            }
+        }
+
+        File getBlobFile(String digest) {
+            return new File(dir, BLOBS_DIR + digest);
+        }
+
+        /**
+         * Adds a reference to the blob, the reference is passed to the entry by {@link #put}.
+         *
+         * @return true if the blob doesn't exist yet and has to be written
+         */
+        synchronized boolean retainBlob(String digest, long blobSize) {
+            load();
+            Blob blob = blobs.get(digest);
+            if (blob != null) {
+                blob.references++;
+                return false;
+            }
+            blob = new Blob(blobSize);
+            blob.references = 1;
+            blobs.put(digest, blob);
+            size += blobSize;
+            changed();
+            return true;
+        }
+
+        void releaseBlob(String digest) {
+            synchronized (this) {
+                release(digest);
+            }
+            deleteFiles();
+        }
+
+        /**
+         * @param digest blob retained by the caller or null
+         */
+        void put(String name, String methodKey, long fileSize, int cacheSize, String digest) {
+            synchronized (this) {
+                load();
+                Entry oldEntry = entries.get(name);
+                if (oldEntry != null) {
+                    removeEntry(oldEntry);
+                }
+                Entry entry = new Entry(name, methodKey, fileSize, digest);
+                addEntry(entry);
+                LinkedHashMap<String, Entry> methodEntries = methods.get(methodKey);
+                while (cacheSize > 0 && methodEntries.size() > cacheSize) {
+                    evict(methodEntries.values().iterator().next());
+                }
+                trim();
+                changed();
+            }
+            deleteFiles();
+        }
+
+        void remove(String name) {
+            synchronized (this) {
+                load();
+                Entry entry = entries.get(name);
+                if (entry != null) {
+                    removeEntry(entry);
+                    changed();
+                }
+            }
+            deleteFiles();
+        }
+
+        /**
+         * Removes entries from the index only, files are deleted by the caller.
+         */
+        void removeIf(String prefix) {
+            synchronized (this) {
+                load();
+                Iterator<Map.Entry<String, LinkedHashMap<String, Entry>>> iterator = methods.entrySet().iterator();
+                while (iterator.hasNext()) {
+                    Map.Entry<String, LinkedHashMap<String, Entry>> method = iterator.next();
+                    if (method.getKey().startsWith(prefix)) {
+                        for (Entry entry : method.getValue().values()) {
+                            entries.remove(entry.name);
+                            size -= entry.size;
+                            if (entry.digest != null) {
+                                release(entry.digest);
+                            }
+                        }
+                        iterator.remove();
+                        changed();
+                    }
+                }
+            }
+            deleteFiles();
+        }
+
+        synchronized long getSize() {
+            load();
+            return size;
+        }
+
+        void trimToSize() {
+            synchronized (this) {
+                load();
+                trim();
+            }
+            deleteFiles();
+        }
+
+        private void trim() {
+            long maxSize = getMaxSize(cacheLevel);
+            while (maxSize > 0 && size > maxSize && !entries.isEmpty()) {
+                evict(entries.values().iterator().next());
+            }
+        }
+
+        private void evict(Entry entry) {
+            removeEntry(entry);
+            deletedEntries.add(entry.name);
+            changed();
+            if (cacheStats != null) {
+                cacheStats.recordEviction(CacheMethod.parseMethodId(entry.methodKey), statsLevel);
+            }
+            if ((debugFlags & Endpoint.CACHE_DEBUG) > 0) {
+                JudoLogger.log("Cache: Evicted from disk cache " + entry.name + " (" + size + "/" + getMaxSize(cacheLevel) + ").");
+            }
+        }
+
+        private void release(String digest) {
+            Blob blob = blobs.get(digest);
+            if (blob != null && --blob.references <= 0) {
+                blobs.remove(digest);
+                size -= blob.size;
+                deletedBlobs.add(digest);
+                changed();
+            }
+        }
+
+        /**
+         * Deletes files of evicted entries and released blobs, unless they were stored again in the meantime.
+         */
+        private void deleteFiles() {
+            List<File> files = new ArrayList<>();
+            synchronized (this) {
+                if (deletedEntries.isEmpty() && deletedBlobs.isEmpty()) {
+                    return;
+                }
+                for (String name : deletedEntries) {
+                    if (!entries.containsKey(name)) {
+                        files.add(new File(dir, name));
+                    }
+                }
+                for (String digest : deletedBlobs) {
+                    if (!blobs.containsKey(digest)) {
+                        files.add(getBlobFile(digest));
+                    }
+                }
+                deletedEntries = new ArrayList<>();
+                deletedBlobs = new ArrayList<>();
+            }
+            for (File deletedFile : files) {
+                deletedFile.delete();
+            }
+        }
+
+        private void addEntry(Entry entry) {
+            entries.put(entry.name, entry);
+            LinkedHashMap<String, Entry> methodEntries = methods.get(entry.methodKey);
+            if (methodEntries == null) {
+                methodEntries = new LinkedHashMap<>(16, 0.75f, true);
+                methods.put(entry.methodKey, methodEntries);
+            }
+            methodEntries.put(entry.name, entry);
+            size += entry.size;
+        }
+
+        private void removeEntry(Entry entry) {
+            entries.remove(entry.name);
+            LinkedHashMap<String, Entry> methodEntries = methods.get(entry.methodKey);
+            methodEntries.remove(entry.name);
+            if (methodEntries.isEmpty()) {
+                methods.remove(entry.methodKey);
+            }
+            size -= entry.size;
+            if (entry.digest != null) {
+                release(entry.digest);
+            }
+        }
+
+        private void changed() {
+            dirty = true;
+            if (saveThread == null) {
+                saveThread = new SaveThread();
+                saveThread.start();
+            }
+            notifyAll();
+        }
+
+        private void load() {
+            if (loaded) {
+                return;
+            }
+            loaded = true;
+            boolean valid = file.exists() && read();
+            if (!valid || staleFile.exists()) {
+                reconciling = true;
+                new ReconcileThread(new ArrayList<>(entries.values())).start();
+            }
+        }
+
+        /**
+         * @return false if the index is corrupt
+         */
+        private boolean read() {
+            DataInputStream inputStream = null;
+            try {
+                inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+                int version = inputStream.readInt();
+                if (version != 1 && version != USAGE_VERSION) {
+                    return false;
+                }
+                if (version == USAGE_VERSION) {
+                    int blobCount = inputStream.readInt();
+                    for (int i = 0; i < blobCount; i++) {
+                        String digest = inputStream.readUTF();
+                        Blob blob = new Blob(inputStream.readLong());
+                        blobs.put(digest, blob);
+                        size += blob.size;
+                    }
+                }
+                int count = inputStream.readInt();
+                for (int i = 0; i < count; i++) {
+                    String name = inputStream.readUTF();
+                    long entrySize = inputStream.readLong();
+                    String digest = version == USAGE_VERSION && inputStream.readBoolean() ? inputStream.readUTF() : null;
+                    Blob blob = digest != null ? blobs.get(digest) : null;
+                    if (blob != null) {
+                        blob.references++;
+                    } else {
+                        digest = null;
+                    }
+                    addEntry(new Entry(name, name.substring(0, name.lastIndexOf('/') + 1), entrySize, digest));
+                }
+                return true;
+            } catch (EOFException e) {
+                JudoLogger.log("Disk cache usage index is truncated.");
+                return false;
+            } catch (IOException e) {
+                JudoLogger.log(e);
+                return false;
+            } finally {
+                try {
+                    if (inputStream != null) {
+                        inputStream.close();
+                    }
+                } catch (IOException ex) {
+                    ex.printStackTrace();
+                }
+            }
+        }
+
+        /**
+         * Merges the listing of cache directories made without the lock. Entries and blobs stored
+         * or removed in the meantime are left as they are.
+         *
+         * @param indexed   entries read from the index
+         * @param names     names of entry files
+         * @param untracked entry files missing in the index, oldest first, with digests of their blobs
+         * @param blobFiles blob files by name
+         */
+        private synchronized void reconcile(List<Entry> indexed, Set<String> names, LinkedHashMap<File, String> untracked,
+                                            Map<String, File> blobFiles) {
+            int rootLength = dir.getAbsolutePath().length() + 1;
+            Set<Blob> missingBlobs = new HashSet<>();
+            for (Map.Entry<String, Blob> blob : blobs.entrySet()) {
+                if (!blobFiles.containsKey(blob.getKey())) {
+                    missingBlobs.add(blob.getValue());
+                }
+            }
+            for (Entry entry : indexed) {
+                if (entries.get(entry.name) != entry) {
+                    continue;
+                }
+                if (!names.contains(entry.name)) {
+                    removeEntry(entry);
+                } else if (entry.digest != null && missingBlobs.contains(blobs.get(entry.digest))) {
+                    removeEntry(entry);
+                    deletedEntries.add(entry.name);
+                }
+            }
+            for (Map.Entry<File, String> child : untracked.entrySet()) {
+                String name = child.getKey().getAbsolutePath().substring(rootLength);
+                if (entries.containsKey(name)) {
+                    continue;
+                }
+                String digest = child.getValue();
+                if (digest != null) {
+                    Blob blob = blobs.get(digest);
+                    if (blob == null && blobFiles.containsKey(digest)) {
+                        blob = new Blob(blobFiles.get(digest).length());
+                        blobs.put(digest, blob);
+                        size += blob.size;
+                    }
+                    if (blob == null) {
+                        deletedEntries.add(name);
+                        continue;
+                    }
+                    blob.references++;
+                }
+                addEntry(new Entry(name, name.substring(0, name.lastIndexOf('/') + 1), child.getKey().length(), digest));
+            }
+            for (String blobName : blobFiles.keySet()) {
+                //temporary files of blobs being written are kept
+                int tmpIndex = blobName.indexOf(".tmp");
+                if (!blobs.containsKey(tmpIndex == -1 ? blobName : blobName.substring(0, tmpIndex))) {
+                    deletedBlobs.add(blobName);
+                    if ((debugFlags & Endpoint.CACHE_DEBUG) > 0) {
+                        JudoLogger.log("Cache: Deleted orphaned blob " + blobName + ".");
+                    }
+                }
+            }
+            if ((debugFlags & Endpoint.CACHE_DEBUG) > 0) {
+                JudoLogger.log("Cache: Disk cache usage index reconciled, " + untracked.size() + " untracked files.");
+            }
+            reconciling = false;
+            trim();
+            changed();
+        }
+
+        private String readBlobDigest(File entryFile) {
+            try {
+                InputStream is = new BufferedInputStream(new FileInputStream(entryFile));
+                try {
+                    Object object = ((CacheResult) codec.decode(is)).object;
+                    return object instanceof BlobReference ? ((BlobReference) object).digest : null;
+                } finally {
+                    is.close();
+                }
+            } catch (Exception e) {
+                return null;
+            }
+        }
+
+        private void scan(File current, List<File> files) {
+            File[] children = current.listFiles();
+            if (children != null) {
+                for (File child : children) {
+                    if (child.isDirectory()) {
+                        scan(child, files);
+                    } else {
+                        files.add(child);
+                    }
+                }
+            }
+        }
+
+        protected void save(List<Entry> snapshot, Map<String, Blob> blobsSnapshot) throws IOException {
+            File tmpFile = new File(file.getPath() + ".tmp");
+            DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+            try {
+                outputStream.writeInt(USAGE_VERSION);
+                outputStream.writeInt(blobsSnapshot.size());
+                for (Map.Entry<String, Blob> blob : blobsSnapshot.entrySet()) {
+                    outputStream.writeUTF(blob.getKey());
+                    outputStream.writeLong(blob.getValue().size);
+                }
+                outputStream.writeInt(snapshot.size());
+                for (Entry entry : snapshot) {
+                    outputStream.writeUTF(entry.name);
+                    outputStream.writeLong(entry.size);
+                    outputStream.writeBoolean(entry.digest != null);
+                    if (entry.digest != null) {
+                        outputStream.writeUTF(entry.digest);
+                    }
+                }
+            } finally {
+                outputStream.close();
+            }
+            if (!tmpFile.renameTo(file)) {
+                throw new IOException("Can't replace " + file);
+            }
+        }
+
+        protected class SaveThread extends Thread {
+
+            public SaveThread() {
+                super("JudoNetworking DiskUsage");
+                setPriority(Thread.MIN_PRIORITY);
+                setDaemon(true);
+            }
+
+            @Override
+            public void run() {
+                android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_BACKGROUND);
+                boolean stale = staleFile.exists();
+                while (true) {
+                    List<Entry> snapshot;
+                    Map<String, Blob> blobsSnapshot;
+                    try {
+                        synchronized (Usage.this) {
+                            while (!dirty) {
+                                Usage.this.wait();
+                            }
+                        }
+                        if (!stale) {
+                            try {
+                                staleFile.createNewFile();
+                                stale = true;
+                            } catch (IOException e) {
+                                JudoLogger.log(e);
+                            }
+                        }
+                        Thread.sleep(USAGE_SAVE_DELAY);
+                        synchronized (Usage.this) {
+                            dirty = false;
+                            snapshot = new ArrayList<>(entries.values());
+                            blobsSnapshot = new HashMap<>(blobs);
+                        }
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    try {
+                        save(snapshot, blobsSnapshot);
+                        synchronized (Usage.this) {
+                            stale = dirty || reconciling;
+                        }
+                        if (!stale) {
+                            staleFile.delete();
+                        }
+                    } catch (IOException e) {
+                        JudoLogger.log(e);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Lists cache directories and reads blob digests of untracked entries without holding the lock.
+         */
+        protected class ReconcileThread extends Thread {
+            private final List<Entry> indexed;
+
+            public ReconcileThread(List<Entry> indexed) {
+                super("JudoNetworking DiskUsageReconcile");
+                this.indexed = indexed;
+                setPriority(Thread.MIN_PRIORITY);
+                setDaemon(true);
+            }
+
+            @Override
+            public void run() {
+                android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_BACKGROUND);
+                Set<String> indexedNames = new HashSet<>();
+                for (Entry entry : indexed) {
+                    indexedNames.add(entry.name);
+                }
+                List<File> files = new ArrayList<>();
+                for (String kind : new String[]{"local", "dynamic", "tests"}) {
+                    scan(new File(dir, kind), files);
+                }
+                int rootLength = dir.getAbsolutePath().length() + 1;
+                Set<String> names = new HashSet<>();
+                List<File> untrackedFiles = new ArrayList<>();
+                for (File child : files) {
+                    String name = child.getAbsolutePath().substring(rootLength);
+                    names.add(name);
+                    if (!indexedNames.contains(name)) {
+                        untrackedFiles.add(child);
+                    }
+                }
+                Collections.sort(untrackedFiles, new Comparator<File>() {
+                    public int compare(File f1, File f2) {
+                        return Long.valueOf(f1.lastModified()).compareTo(f2.lastModified());
+                    }
+                });
+                LinkedHashMap<File, String> untracked = new LinkedHashMap<>();
+                for (File child : untrackedFiles) {
+                    untracked.put(child, readBlobDigest(child));
+                }
+                Map<String, File> blobFiles = new HashMap<>();
+                File[] blobList = new File(dir, BLOBS_DIR).listFiles();
+                if (blobList != null) {
+                    for (File blobFile : blobList) {
+                        blobFiles.put(blobFile.getName(), blobFile);
+                    }
+                }
+                reconcile(indexed, names, untracked, blobFiles);
+                deleteFiles();
+            }
+        }
+    }
 }
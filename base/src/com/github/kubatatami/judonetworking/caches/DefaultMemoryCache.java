@@ -4,14 +4,18 @@ import android.content.Context;
 import android.support.v4.util.LruCache;
 
 import com.github.kubatatami.judonetworking.internals.cache.CacheMethod;
+import com.github.kubatatami.judonetworking.internals.cache.RequestFingerprint;
+import com.github.kubatatami.judonetworking.internals.cache.TrimLevel;
 import com.github.kubatatami.judonetworking.internals.results.CacheResult;
+import com.github.kubatatami.judonetworking.internals.stats.CacheStats;
 import com.github.kubatatami.judonetworking.Endpoint;
 import com.github.kubatatami.judonetworking.logs.JudoLogger;
 
 import java.lang.reflect.Method;
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -22,8 +26,9 @@ import java.util.Map;
  */
 public class DefaultMemoryCache implements MemoryCache {
     private int debugFlags;
-    private Map<Integer, LruCache<Integer, CacheObject>> cache
-            = Collections.synchronizedMap(new HashMap<Integer, LruCache<Integer, CacheObject>>());
+    private CacheStats cacheStats;
+    private Map<Integer, LruCache<RequestFingerprint, CacheObject>> cache
+            = Collections.synchronizedMap(new HashMap<Integer, LruCache<RequestFingerprint, CacheObject>>());
 
 
     protected Context context;
@@ -33,21 +38,22 @@ public class DefaultMemoryCache implements MemoryCache {
     }
 
     @Override
-    public CacheResult get(int methodId, Object params[], int cacheLifeTime, int cacheSize) {
+    public CacheResult get(RequestFingerprint fingerprint, int cacheLifeTime, int cacheSize) {
         CacheResult result = new CacheResult();
-        Integer hash = Arrays.deepHashCode(params);
+        int methodId = fingerprint.getMethodId();
         if (cache.containsKey(methodId)) {
             if ((debugFlags & Endpoint.CACHE_DEBUG) > 0) {
-                JudoLogger.log("Search for " + methodId + " with hash:" + hash);
+                JudoLogger.log("Search for " + methodId + " with hash:" + fingerprint.toHex());
             }
-            CacheObject cacheObject = cache.get(methodId).get(hash);
+            CacheObject cacheObject = cache.get(methodId).get(fingerprint);
             if (cacheObject != null) {
                 if (cacheLifeTime == 0 || System.currentTimeMillis() - cacheObject.createTime < cacheLifeTime) {
                     if ((debugFlags & Endpoint.CACHE_DEBUG) > 0) {
-                        JudoLogger.log("Cache(" + methodId + "): Get from memory cache object with hash:" + hash);
+                        JudoLogger.log("Cache(" + methodId + "): Get from memory cache object with hash:" + fingerprint.toHex());
                     }
                     result.object = cacheObject.getObject();
                     result.time=cacheObject.createTime;
+                    result.createTime=cacheObject.createTime;
                     result.result = true;
                     return result;
                 }
@@ -58,21 +64,33 @@ public class DefaultMemoryCache implements MemoryCache {
     }
 
     @Override
-    public void put(int methodId, Object params[], Object object, int cacheSize) {
+    public void put(RequestFingerprint fingerprint, Object object, int cacheSize) {
+        put(fingerprint, object, cacheSize, System.currentTimeMillis());
+    }
+
+    @Override
+    public void put(RequestFingerprint fingerprint, Object object, int cacheSize, long createTime) {
+        int methodId = fingerprint.getMethodId();
         if (!cache.containsKey(methodId)) {
-            cache.put(methodId, new LruCache<Integer, CacheObject>(cacheSize != 0 ? cacheSize : Integer.MAX_VALUE));
+            cache.put(methodId, new LruCache<RequestFingerprint, CacheObject>(cacheSize != 0 ? cacheSize : Integer.MAX_VALUE) {
+                @Override
+                protected void entryRemoved(boolean evicted, RequestFingerprint key, CacheObject oldValue, CacheObject newValue) {
+                    if (evicted && cacheStats != null) {
+                        cacheStats.recordEviction(key.getMethodId(), CacheStats.Level.MEMORY);
+                    }
+                }
+            });
         }
-        Integer hash = Arrays.deepHashCode(params);
-        cache.get(methodId).put(hash, new CacheObject(System.currentTimeMillis(), object));
+        cache.get(methodId).put(fingerprint, new CacheObject(createTime, object));
         if ((debugFlags & Endpoint.CACHE_DEBUG) > 0) {
-            JudoLogger.log("Cache(" + methodId + "): Saved in memory cache with hash:" + hash);
+            JudoLogger.log("Cache(" + methodId + "): Saved in memory cache with hash:" + fingerprint.toHex());
         }
     }
 
 
     @Override
     public void clearCache() {
-        cache = Collections.synchronizedMap(new HashMap<Integer, LruCache<Integer, CacheObject>>());
+        cache = Collections.synchronizedMap(new HashMap<Integer, LruCache<RequestFingerprint, CacheObject>>());
 
     }
 
@@ -97,10 +115,35 @@ public class DefaultMemoryCache implements MemoryCache {
 
     @Override
     public void clearCache(int methodId, Object... params) {
-        if (cache.containsKey(methodId)) {
-            Integer paramHash = Arrays.deepHashCode(params);
-            if (cache.get(methodId).get(paramHash) != null) {
-                cache.get(methodId).remove(paramHash);
+        clearCache(RequestFingerprint.create(methodId, params));
+    }
+
+    @Override
+    public void clearCache(RequestFingerprint fingerprint) {
+        LruCache<RequestFingerprint, CacheObject> methodCache = cache.get(fingerprint.getMethodId());
+        if (methodCache != null) {
+            methodCache.remove(fingerprint);
+        }
+    }
+
+    /**
+     * Evicts least recently used entries of every method, limits of methods aren't changed.
+     */
+    @Override
+    public void trimMemory(int level) {
+        float retained = TrimLevel.getRetainedFraction(level);
+        if (retained >= 1) {
+            return;
+        }
+        List<LruCache<RequestFingerprint, CacheObject>> methodCaches;
+        synchronized (cache) {
+            methodCaches = new ArrayList<>(cache.values());
+        }
+        for (LruCache<RequestFingerprint, CacheObject> methodCache : methodCaches) {
+            if (retained == 0) {
+                methodCache.evictAll();
+            } else {
+                methodCache.trimToSize((int) (methodCache.size() * retained));
             }
         }
     }
@@ -115,6 +158,16 @@ public class DefaultMemoryCache implements MemoryCache {
         this.debugFlags = debugFlags;
     }
 
+    @Override
+    public CacheStats getCacheStats() {
+        return cacheStats;
+    }
+
+    @Override
+    public void setCacheStats(CacheStats cacheStats) {
+        this.cacheStats = cacheStats;
+    }
+
     /**
      * Created with IntelliJ IDEA.
      * User: jbogacki
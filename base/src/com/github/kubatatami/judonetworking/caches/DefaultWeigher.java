@@ -0,0 +1,122 @@
+package com.github.kubatatami.judonetworking.caches;
+
+import com.github.kubatatami.judonetworking.utils.ReflectionCache;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Default {@link Weigher}. Byte arrays and strings are weighed by their length,
+ * collections, maps and arrays by walking their elements and other objects by walking their fields.
+ * The walk stops at {@link #maxDepth} and counts every object only once.
+ */
+public class DefaultWeigher implements Weigher {
+
+    protected static final int OBJECT_HEADER = 16;
+    protected static final int REFERENCE = 4;
+    protected static final int ENTRY = 32;
+
+    protected int maxDepth = 8;
+
+    public DefaultWeigher() {
+    }
+
+    public DefaultWeigher(int maxDepth) {
+        this.maxDepth = maxDepth;
+    }
+
+    @Override
+    public int weigh(Object object) {
+        long size = weigh(object, new IdentityHashMap<Object, Boolean>(), 0);
+        return (int) Math.min(size, Integer.MAX_VALUE);
+    }
+
+    protected long weigh(Object object, IdentityHashMap<Object, Boolean> visited, int depth) {
+        if (object == null || visited.put(object, true) != null) {
+            return 0;
+        }
+        if (object instanceof String) {
+            return OBJECT_HEADER * 2 + ((String) object).length() * 2;
+        }
+        if (object instanceof byte[]) {
+            return OBJECT_HEADER + ((byte[]) object).length;
+        }
+        if (object instanceof Number || object instanceof Boolean || object instanceof Character || object instanceof Enum) {
+            return OBJECT_HEADER;
+        }
+        Class<?> clazz = object.getClass();
+        if (clazz.isArray()) {
+            int length = Array.getLength(object);
+            if (clazz.getComponentType().isPrimitive()) {
+                return OBJECT_HEADER + length * primitiveSize(clazz.getComponentType());
+            }
+            long size = OBJECT_HEADER + length * REFERENCE;
+            if (depth < maxDepth) {
+                for (Object element : (Object[]) object) {
+                    size += weigh(element, visited, depth + 1);
+                }
+            }
+            return size;
+        }
+        if (object instanceof Collection) {
+            Collection<?> collection = (Collection<?>) object;
+            long size = OBJECT_HEADER * 2 + collection.size() * ENTRY;
+            if (depth < maxDepth) {
+                for (Object element : collection) {
+                    size += weigh(element, visited, depth + 1);
+                }
+            }
+            return size;
+        }
+        if (object instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) object;
+            long size = OBJECT_HEADER * 2 + map.size() * ENTRY;
+            if (depth < maxDepth) {
+                for (Map.Entry<?, ?> entry : map.entrySet()) {
+                    size += weigh(entry.getKey(), visited, depth + 1);
+                    size += weigh(entry.getValue(), visited, depth + 1);
+                }
+            }
+            return size;
+        }
+        long size = OBJECT_HEADER;
+        for (; clazz != null && !clazz.equals(Object.class); clazz = clazz.getSuperclass()) {
+            for (Field field : ReflectionCache.getDeclaredFields(clazz)) {
+                if (Modifier.isStatic(field.getModifiers())) {
+                    continue;
+                }
+                if (field.getType().isPrimitive()) {
+                    size += primitiveSize(field.getType());
+                } else {
+                    size += REFERENCE;
+                    if (depth < maxDepth) {
+                        try {
+                            field.setAccessible(true);
+                            size += weigh(field.get(object), visited, depth + 1);
+                        } catch (IllegalAccessException e) {
+                            //skip inaccessible field
+                        }
+                    }
+                }
+            }
+        }
+        return size;
+    }
+
+    protected static int primitiveSize(Class<?> type) {
+        if (type == long.class || type == double.class) {
+            return 8;
+        } else if (type == int.class || type == float.class) {
+            return 4;
+        } else if (type == short.class || type == char.class) {
+            return 2;
+        } else {
+            return 1;
+        }
+    }
+
+}
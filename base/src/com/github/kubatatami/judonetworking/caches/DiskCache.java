@@ -1,7 +1,10 @@
 package com.github.kubatatami.judonetworking.caches;
 
+import com.github.kubatatami.judonetworking.annotations.LocalCache;
 import com.github.kubatatami.judonetworking.internals.cache.CacheMethod;
+import com.github.kubatatami.judonetworking.internals.cache.RequestFingerprint;
 import com.github.kubatatami.judonetworking.internals.results.CacheResult;
+import com.github.kubatatami.judonetworking.internals.stats.CacheStats;
 
 /**
  * Created with IntelliJ IDEA.
@@ -12,9 +15,14 @@ import com.github.kubatatami.judonetworking.internals.results.CacheResult;
  */
 public interface DiskCache {
 
-    public CacheResult get(CacheMethod method, String hash, int cacheLifeTime);
+    public CacheResult get(CacheMethod method, RequestFingerprint fingerprint, int cacheLifeTime);
 
-    public void put(CacheMethod method, String hash, Object object, int maxSize);
+    public void put(CacheMethod method, RequestFingerprint fingerprint, Object object, int maxSize);
+
+    /**
+     * @param createTime creation time of an entry stored later than it was created, so its life time isn't extended
+     */
+    public void put(CacheMethod method, RequestFingerprint fingerprint, Object object, int maxSize, long createTime);
 
     public void clearCache();
 
@@ -22,13 +30,32 @@ public interface DiskCache {
 
     public void clearCache(CacheMethod method, Object... params);
 
+    public void clearCache(CacheMethod method, RequestFingerprint fingerprint);
+
     public void clearTests();
 
     public void clearTest(String name);
 
+    /**
+     * @param cacheLevel DISK_CACHE or DISK_DATA
+     * @return Bytes currently used by entries of the cache level.
+     */
+    public long getSize(LocalCache.CacheLevel cacheLevel);
+
+    public CacheCodec getCodec();
+
+    public void setCodec(CacheCodec codec);
+
     public int getDebugFlags();
 
     public void setDebugFlags(int debugFlags);
 
+    public CacheStats getCacheStats();
+
+    /**
+     * @param cacheStats Counters of evictions, expirations and stored bytes, set by endpoint.
+     */
+    public void setCacheStats(CacheStats cacheStats);
+
 
 }
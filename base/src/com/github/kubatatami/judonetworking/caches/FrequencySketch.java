@@ -0,0 +1,73 @@
+package com.github.kubatatami.judonetworking.caches;
+
+/**
+ * Count-min sketch of 4-bit access counters used by {@link TinyLfuMemoryCache}.
+ * Counters are halved after a sample of accesses, so old popularity fades away.
+ * Not thread safe.
+ */
+public class FrequencySketch {
+
+    protected static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    protected static final long RESET_MASK = 0x7777777777777777L;
+
+    private final long[] table;
+    private final int tableMask;
+    private final int sampleSize;
+    private int additions;
+
+    /**
+     * @param expectedEntries expected number of distinct hot entries
+     */
+    public FrequencySketch(int expectedEntries) {
+        int length = Integer.highestOneBit(Math.max(expectedEntries, 16) - 1) << 1;
+        table = new long[length];
+        tableMask = length - 1;
+        sampleSize = 10 * length;
+    }
+
+    public int frequency(int hash) {
+        int frequency = Integer.MAX_VALUE;
+        for (int i = 0; i < 4; i++) {
+            int index = indexOf(hash, i);
+            int offset = counterOffset(hash, i);
+            frequency = Math.min(frequency, (int) ((table[index] >>> offset) & 0xfL));
+        }
+        return frequency;
+    }
+
+    public void increment(int hash) {
+        boolean added = false;
+        for (int i = 0; i < 4; i++) {
+            int index = indexOf(hash, i);
+            int offset = counterOffset(hash, i);
+            if (((table[index] >>> offset) & 0xfL) != 0xfL) {
+                table[index] += 1L << offset;
+                added = true;
+            }
+        }
+        if (added && ++additions >= sampleSize) {
+            reset();
+        }
+    }
+
+    protected void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        additions /= 2;
+    }
+
+    protected int indexOf(int hash, int depth) {
+        long h = (hash + SEEDS[depth]) * SEEDS[depth];
+        h += h >>> 32;
+        return (int) h & tableMask;
+    }
+
+    /**
+     * Each depth uses a different 4-bit counter of the 64-bit table slot.
+     */
+    protected int counterOffset(int hash, int depth) {
+        int h = hash * 0x9e3779b9;
+        return ((((h >>> (depth * 8)) & 3) << 2) + (depth << 4));
+    }
+}
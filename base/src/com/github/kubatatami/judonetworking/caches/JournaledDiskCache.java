@@ -0,0 +1,572 @@
+package com.github.kubatatami.judonetworking.caches;
+
+import android.content.Context;
+
+import com.github.kubatatami.judonetworking.Endpoint;
+import com.github.kubatatami.judonetworking.annotations.LocalCache;
+import com.github.kubatatami.judonetworking.internals.cache.CacheMethod;
+import com.github.kubatatami.judonetworking.internals.cache.RequestFingerprint;
+import com.github.kubatatami.judonetworking.internals.results.CacheResult;
+import com.github.kubatatami.judonetworking.internals.stats.CacheStats;
+import com.github.kubatatami.judonetworking.logs.JudoLogger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Disk cache which keeps all entries of a cache level in one directory
+ * and describes them by an append-only journal.
+ * The journal is replayed once into an in-memory index, so lookups, expiration checks
+ * and evictions never list or stat directories. The journal is compacted
+ * in the background when it contains too many redundant operations.
+ * The <code>size</code> of {@link LocalCache} limits entries count of a single method
+ * and {@link #setMaxSize(long)} limits total bytes of every cache level.
+ * READ records only keep access order, so they are buffered and written with the next PUT or REMOVE record.
+ */
+public class JournaledDiskCache implements DiskCache {
+
+    protected static final String JOURNAL_FILE = "journal";
+    protected static final String JOURNAL_FILE_TMP = "journal.tmp";
+    protected static final String JOURNAL_HEADER = "judo.journal.1";
+    protected static final String PUT = "PUT";
+    protected static final String READ = "READ";
+    protected static final String REMOVE = "REMOVE";
+    protected static final int REDUNDANT_OP_COMPACT_THRESHOLD = 2000;
+
+    private int debugFlags;
+    private volatile CacheStats cacheStats;
+    private CacheCodec codec = new SerializableCacheCodec();
+    private volatile long maxSize;
+    private final Map<LocalCache.CacheLevel, Journal> journals = new HashMap<>();
+    private final ExecutorService compactExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "JudoNetworking DiskCache");
+            thread.setPriority(Thread.MIN_PRIORITY);
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    protected Context context;
+
+    public JournaledDiskCache(Context context) {
+        this(context, 20 * 1024 * 1024);
+    }
+
+    public JournaledDiskCache(Context context, long maxSize) {
+        this.context = context;
+        this.maxSize = maxSize;
+    }
+
+    @Override
+    public CacheResult get(CacheMethod method, RequestFingerprint fingerprint, int cacheLifeTime) {
+        Journal journal = getJournal(method.getCacheLevel());
+        String name = getEntryName(method, fingerprint);
+        if ((debugFlags & Endpoint.CACHE_DEBUG) > 0) {
+            JudoLogger.log("Cache(" + method + "): Search in disk cache " + name + ".");
+        }
+        if (journal.hit(name, cacheLifeTime)) {
+            CacheResult result = readEntry(journal.getFile(name));
+            if (result != null && fingerprint.getKey().equals(result.key)) {
+                if ((debugFlags & Endpoint.CACHE_DEBUG) > 0) {
+                    JudoLogger.log("Cache(" + method + "): Get from disk cache " + name + ".");
+                }
+                return result;
+            } else if (result == null) {
+                journal.remove(name);
+            }
+        }
+        return new CacheResult();
+    }
+
+    @Override
+    public void put(CacheMethod method, RequestFingerprint fingerprint, Object object, int maxSize) {
+        put(method, fingerprint, object, maxSize, System.currentTimeMillis());
+    }
+
+    @Override
+    public void put(CacheMethod method, RequestFingerprint fingerprint, Object object, int maxSize, long createTime) {
+        Journal journal = getJournal(method.getCacheLevel());
+        String name = getEntryName(method, fingerprint);
+        CacheResult cacheResult = new CacheResult(object, true, method.getTime(), method.getHash());
+        cacheResult.key = fingerprint.getKey();
+        cacheResult.createTime = createTime;
+        cacheResult.expireTime = method.getExpireTime();
+        cacheResult.staleIfErrorTime = method.getStaleIfErrorTime();
+        File tmpFile = journal.getFile(name + "." + Thread.currentThread().getId() + ".tmp");
+        try {
+            OutputStream os = new BufferedOutputStream(new FileOutputStream(tmpFile));
+            try {
+                codec.encode(cacheResult, os);
+            } finally {
+                os.close();
+            }
+            journal.put(name, method.getMethodKey(), tmpFile, maxSize, createTime);
+            if ((debugFlags & Endpoint.CACHE_DEBUG) > 0) {
+                JudoLogger.log("Cache(" + method + "): Saved in disk cache " + name + ".");
+            }
+        } catch (IOException e) {
+            tmpFile.delete();
+            JudoLogger.log(e);
+        }
+    }
+
+    @Override
+    public void clearCache() {
+        for (LocalCache.CacheLevel level : LocalCache.CacheLevel.values()) {
+            if (level != LocalCache.CacheLevel.MEMORY_ONLY) {
+                Journal journal = getJournal(level);
+                journal.removeIf("local/", true);
+                journal.removeIf("dynamic/", true);
+            }
+        }
+    }
+
+    @Override
+    public void clearCache(CacheMethod method) {
+        getJournal(method.getCacheLevel()).removeIf(method.getMethodKey(), false);
+    }
+
+    @Override
+    public void clearCache(CacheMethod method, Object... params) {
+        clearCache(method, RequestFingerprint.create(method.getMethodId(), params));
+    }
+
+    @Override
+    public void clearCache(CacheMethod method, RequestFingerprint fingerprint) {
+        getJournal(method.getCacheLevel()).remove(getEntryName(method, fingerprint));
+    }
+
+    @Override
+    public void clearTests() {
+        getJournal(LocalCache.CacheLevel.DISK_CACHE).removeIf("tests/", true);
+    }
+
+    @Override
+    public void clearTest(String name) {
+        getJournal(LocalCache.CacheLevel.DISK_CACHE).removeIf("tests/" + name + "/", true);
+    }
+
+    /**
+     * @param maxSize byte limit of every cache level, 0 means no limit
+     */
+    public void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+        List<Journal> currentJournals;
+        synchronized (this) {
+            currentJournals = new ArrayList<>(journals.values());
+        }
+        for (Journal journal : currentJournals) {
+            journal.trimToSize();
+        }
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    @Override
+    public long getSize(LocalCache.CacheLevel cacheLevel) {
+        return getJournal(cacheLevel).getSize();
+    }
+
+    @Override
+    public CacheCodec getCodec() {
+        return codec;
+    }
+
+    @Override
+    public void setCodec(CacheCodec codec) {
+        this.codec = codec;
+    }
+
+    @Override
+    public int getDebugFlags() {
+        return debugFlags;
+    }
+
+    @Override
+    public void setDebugFlags(int debugFlags) {
+        this.debugFlags = debugFlags;
+    }
+
+    @Override
+    public CacheStats getCacheStats() {
+        return cacheStats;
+    }
+
+    @Override
+    public void setCacheStats(CacheStats cacheStats) {
+        this.cacheStats = cacheStats;
+    }
+
+    protected String getEntryName(CacheMethod method, RequestFingerprint fingerprint) {
+        return Integer.toHexString(method.getMethodKey().hashCode()) + "_" + fingerprint.toHex();
+    }
+
+    protected CacheResult readEntry(File file) {
+        InputStream os = null;
+        try {
+            os = new BufferedInputStream(new FileInputStream(file));
+            return (CacheResult) codec.decode(os);
+        } catch (Exception e) {
+            JudoLogger.log(e);
+            return null;
+        } finally {
+            if (os != null) {
+                try {
+                    os.close();
+                } catch (IOException e) {
+                    JudoLogger.log(e);
+                }
+            }
+        }
+    }
+
+    protected synchronized Journal getJournal(LocalCache.CacheLevel cacheLevel) {
+        Journal journal = journals.get(cacheLevel);
+        if (journal == null) {
+            File root = (cacheLevel == LocalCache.CacheLevel.DISK_DATA) ? context.getFilesDir() : context.getCacheDir();
+            journal = new Journal(new File(root, "cache/journal"), CacheStats.Level.of(cacheLevel));
+            journals.put(cacheLevel, journal);
+        }
+        return journal;
+    }
+
+    static class Entry {
+        final String name;
+        final String methodKey;
+        final long size;
+        final long createTime;
+        long accessTime;
+
+        Entry(String name, String methodKey, long size, long createTime, long accessTime) {
+            this.name = name;
+            this.methodKey = methodKey;
+            this.size = size;
+            this.createTime = createTime;
+            this.accessTime = accessTime;
+        }
+    }
+
+    protected class Journal {
+        private final File dir;
+        private final CacheStats.Level statsLevel;
+        private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private final Map<String, LinkedHashMap<String, Entry>> methods = new HashMap<>();
+        private Writer writer;
+        private long size;
+        private int redundantOpCount;
+        private boolean compactScheduled;
+
+        Journal(File dir, CacheStats.Level statsLevel) {
+            this.dir = dir;
+            this.statsLevel = statsLevel;
+            dir.mkdirs();
+            readJournal();
+        }
+
+        File getFile(String name) {
+            return new File(dir, name);
+        }
+
+        synchronized long getSize() {
+            return size;
+        }
+
+        synchronized boolean hit(String name, int cacheLifeTime) {
+            Entry entry = entries.get(name);
+            if (entry == null) {
+                return false;
+            }
+            long now = System.currentTimeMillis();
+            if (cacheLifeTime != 0 && now - entry.createTime >= cacheLifeTime) {
+                removeEntry(entry);
+                record(entry, false);
+                return false;
+            }
+            methods.get(entry.methodKey).get(name);
+            entry.accessTime = now;
+            append(READ + " " + name + " " + now);
+            return true;
+        }
+
+        synchronized void put(String name, String methodKey, File tmpFile, int cacheSize, long createTime) throws IOException {
+            Entry oldEntry = entries.get(name);
+            if (oldEntry != null) {
+                removeEntry(oldEntry);
+            }
+            File file = getFile(name);
+            if (!tmpFile.renameTo(file)) {
+                throw new IOException("Failed to rename " + tmpFile + " to " + file);
+            }
+            long now = System.currentTimeMillis();
+            Entry entry = new Entry(name, methodKey, file.length(), createTime, now);
+            addEntry(entry);
+            append(PUT + " " + name + " " + entry.size + " " + createTime + " " + now + " " + methodKey);
+            if (cacheStats != null) {
+                cacheStats.recordBytes(CacheMethod.parseMethodId(methodKey), statsLevel, entry.size);
+            }
+
+            LinkedHashMap<String, Entry> methodEntries = methods.get(methodKey);
+            while (cacheSize > 0 && methodEntries.size() > cacheSize) {
+                Entry eldest = methodEntries.values().iterator().next();
+                removeEntry(eldest);
+                record(eldest, true);
+            }
+            trimToSize();
+        }
+
+        synchronized void remove(String name) {
+            Entry entry = entries.get(name);
+            if (entry != null) {
+                removeEntry(entry);
+            }
+        }
+
+        synchronized void removeIf(String methodKey, boolean prefix) {
+            List<Entry> removed = new ArrayList<>();
+            for (Entry entry : entries.values()) {
+                if (prefix ? entry.methodKey.startsWith(methodKey) : entry.methodKey.equals(methodKey)) {
+                    removed.add(entry);
+                }
+            }
+            for (Entry entry : removed) {
+                removeEntry(entry);
+            }
+        }
+
+        synchronized void trimToSize() {
+            while (maxSize > 0 && size > maxSize && !entries.isEmpty()) {
+                Entry eldest = entries.values().iterator().next();
+                removeEntry(eldest);
+                record(eldest, true);
+            }
+        }
+
+        private void record(Entry entry, boolean eviction) {
+            CacheStats stats = cacheStats;
+            if (stats != null) {
+                int methodId = CacheMethod.parseMethodId(entry.methodKey);
+                if (eviction) {
+                    stats.recordEviction(methodId, statsLevel);
+                } else {
+                    stats.recordExpiration(methodId, statsLevel);
+                }
+            }
+        }
+
+        private void addEntry(Entry entry) {
+            entries.put(entry.name, entry);
+            LinkedHashMap<String, Entry> methodEntries = methods.get(entry.methodKey);
+            if (methodEntries == null) {
+                methodEntries = new LinkedHashMap<>(16, 0.75f, true);
+                methods.put(entry.methodKey, methodEntries);
+            }
+            methodEntries.put(entry.name, entry);
+            size += entry.size;
+        }
+
+        private void removeEntry(Entry entry) {
+            if (!dropEntry(entry)) {
+                return;
+            }
+            getFile(entry.name).delete();
+            append(REMOVE + " " + entry.name);
+        }
+
+        private boolean dropEntry(Entry entry) {
+            LinkedHashMap<String, Entry> methodEntries = methods.get(entry.methodKey);
+            if (methodEntries == null || !methodEntries.containsKey(entry.name)) {
+                return false;
+            }
+            methodEntries.remove(entry.name);
+            if (methodEntries.isEmpty()) {
+                methods.remove(entry.methodKey);
+            }
+            entries.remove(entry.name);
+            size -= entry.size;
+            return true;
+        }
+
+        private void append(String line) {
+            try {
+                if (writer == null) {
+                    writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(getFile(JOURNAL_FILE), true), "UTF-8"));
+                }
+                writer.write(line);
+                writer.write('\n');
+                if (!line.startsWith(READ)) {
+                    writer.flush();
+                }
+            } catch (IOException e) {
+                JudoLogger.log(e);
+                closeWriter();
+            }
+            if (!line.startsWith(PUT)) {
+                redundantOpCount++;
+            }
+            if (!compactScheduled && redundantOpCount >= REDUNDANT_OP_COMPACT_THRESHOLD && redundantOpCount >= entries.size()) {
+                compactScheduled = true;
+                compactExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        compact();
+                    }
+                });
+            }
+        }
+
+        private void readJournal() {
+            deleteTmpFiles();
+            File journalFile = getFile(JOURNAL_FILE);
+            if (!journalFile.exists()) {
+                compact();
+                return;
+            }
+            BufferedReader reader = null;
+            try {
+                reader = new BufferedReader(new InputStreamReader(new FileInputStream(journalFile), "UTF-8"));
+                if (!JOURNAL_HEADER.equals(reader.readLine())) {
+                    throw new IOException("Unexpected journal header in " + journalFile);
+                }
+                int lineCount = 0;
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    try {
+                        readJournalLine(line);
+                    } catch (RuntimeException e) {
+                        //skip line torn by a crash
+                        JudoLogger.log(e);
+                    }
+                    lineCount++;
+                }
+                redundantOpCount = lineCount - entries.size();
+            } catch (IOException | RuntimeException e) {
+                JudoLogger.log(e);
+                clearDirectory();
+            } finally {
+                if (reader != null) {
+                    try {
+                        reader.close();
+                    } catch (IOException e) {
+                        JudoLogger.log(e);
+                    }
+                }
+            }
+        }
+
+        private void readJournalLine(String line) {
+            String[] parts = line.split(" ", 6);
+            Entry entry = entries.get(parts[1]);
+            if (PUT.equals(parts[0])) {
+                if (entry != null) {
+                    dropEntry(entry);
+                }
+                addEntry(new Entry(parts[1], parts[5], Long.parseLong(parts[2]), Long.parseLong(parts[3]), Long.parseLong(parts[4])));
+            } else if (READ.equals(parts[0])) {
+                if (entry != null) {
+                    methods.get(entry.methodKey).get(entry.name);
+                    entry.accessTime = Long.parseLong(parts[2]);
+                }
+            } else if (REMOVE.equals(parts[0])) {
+                if (entry != null) {
+                    dropEntry(entry);
+                }
+            } else {
+                throw new IllegalStateException("Unexpected journal line: " + line);
+            }
+        }
+
+        /**
+         * Deletes entries written by puts which didn't finish before the process was killed.
+         */
+        private void deleteTmpFiles() {
+            File[] files = dir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    if (file.getName().endsWith(".tmp")) {
+                        file.delete();
+                    }
+                }
+            }
+        }
+
+        private void clearDirectory() {
+            closeWriter();
+            entries.clear();
+            methods.clear();
+            size = 0;
+            File[] files = dir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            compact();
+        }
+
+        /**
+         * Rewrites journal with a single PUT line per entry in access order.
+         */
+        synchronized void compact() {
+            compactScheduled = false;
+            closeWriter();
+            File tmpFile = getFile(JOURNAL_FILE_TMP);
+            try {
+                Writer tmpWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmpFile), "UTF-8"));
+                try {
+                    tmpWriter.write(JOURNAL_HEADER);
+                    tmpWriter.write('\n');
+                    for (Entry entry : entries.values()) {
+                        tmpWriter.write(PUT + " " + entry.name + " " + entry.size + " " + entry.createTime + " " + entry.accessTime + " " + entry.methodKey);
+                        tmpWriter.write('\n');
+                    }
+                } finally {
+                    tmpWriter.close();
+                }
+                if (!tmpFile.renameTo(getFile(JOURNAL_FILE))) {
+                    throw new IOException("Failed to rename " + tmpFile);
+                }
+                redundantOpCount = 0;
+                if ((debugFlags & Endpoint.CACHE_DEBUG) > 0) {
+                    JudoLogger.log("Disk cache journal " + dir + " compacted (" + entries.size() + " entries, " + size + " bytes).");
+                }
+            } catch (IOException e) {
+                JudoLogger.log(e);
+            }
+        }
+
+        private void closeWriter() {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    JudoLogger.log(e);
+                }
+                writer = null;
+            }
+        }
+    }
+
+}
@@ -1,6 +1,8 @@
 package com.github.kubatatami.judonetworking.caches;
 
+import com.github.kubatatami.judonetworking.internals.cache.RequestFingerprint;
 import com.github.kubatatami.judonetworking.internals.results.CacheResult;
+import com.github.kubatatami.judonetworking.internals.stats.CacheStats;
 
 import java.lang.reflect.Method;
 
@@ -14,9 +16,14 @@ import java.lang.reflect.Method;
 public interface MemoryCache {
 
 
-    public CacheResult get(int methodId, Object params[], int cacheLifeTime, int cacheSize);
+    public CacheResult get(RequestFingerprint fingerprint, int cacheLifeTime, int cacheSize);
 
-    public void put(int methodId, Object params[], Object object, int cacheSize);
+    public void put(RequestFingerprint fingerprint, Object object, int cacheSize);
+
+    /**
+     * @param createTime creation time of an entry loaded from disk cache, so its life time isn't extended
+     */
+    public void put(RequestFingerprint fingerprint, Object object, int cacheSize, long createTime);
 
     public void clearCache();
 
@@ -28,9 +35,25 @@ public interface MemoryCache {
 
     public void clearCache(int methodId, Object... params);
 
+    public void clearCache(RequestFingerprint fingerprint);
+
+    /**
+     * Releases part of the cache under system memory pressure.
+     *
+     * @param level ComponentCallbacks2.TRIM_MEMORY_* level, see {@link com.github.kubatatami.judonetworking.internals.cache.TrimLevel}
+     */
+    public void trimMemory(int level);
+
     public int getDebugFlags();
 
     public void setDebugFlags(int debugFlags);
 
+    public CacheStats getCacheStats();
+
+    /**
+     * @param cacheStats Counters of evictions, expirations and stored bytes, set by endpoint.
+     */
+    public void setCacheStats(CacheStats cacheStats);
+
 
 }
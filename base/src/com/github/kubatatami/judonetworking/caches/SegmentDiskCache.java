@@ -0,0 +1,723 @@
+package com.github.kubatatami.judonetworking.caches;
+
+import android.content.Context;
+
+import com.github.kubatatami.judonetworking.Endpoint;
+import com.github.kubatatami.judonetworking.annotations.LocalCache;
+import com.github.kubatatami.judonetworking.internals.cache.CacheMethod;
+import com.github.kubatatami.judonetworking.internals.cache.RequestFingerprint;
+import com.github.kubatatami.judonetworking.internals.results.CacheResult;
+import com.github.kubatatami.judonetworking.internals.stats.CacheStats;
+import com.github.kubatatami.judonetworking.logs.JudoLogger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Disk cache which appends entries to large segment files and reads them back
+ * through {@link MappedByteBuffer} slices, so a cache hit needs neither a file descriptor
+ * nor a system call. An offset index is rebuilt by scanning segments once,
+ * removed entries are marked by tombstone records and live records of the oldest segments
+ * are moved to the newest one in the background, when dead records outweigh them.
+ * When live records exceed {@link #setMaxSize(long)} the oldest segment is dropped as a whole.
+ * Suited for read-heavy {@link LocalCache.CacheLevel#DISK_DATA} methods.
+ */
+public class SegmentDiskCache implements DiskCache {
+
+    protected static final String SEGMENT_PREFIX = "segment.";
+    protected static final Charset UTF8 = Charset.forName("UTF-8");
+    protected static final int TOMBSTONE = -1;
+
+    private int debugFlags;
+    private volatile CacheStats cacheStats;
+    private CacheCodec codec = new SerializableCacheCodec();
+    private volatile long maxSize;
+    private final int segmentSize;
+    private final Map<LocalCache.CacheLevel, Store> stores = new HashMap<>();
+    private final ExecutorService compactExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "JudoNetworking SegmentCache");
+            thread.setPriority(Thread.MIN_PRIORITY);
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    protected Context context;
+
+    public SegmentDiskCache(Context context) {
+        this(context, 32 * 1024 * 1024, 2 * 1024 * 1024);
+    }
+
+    public SegmentDiskCache(Context context, long maxSize, int segmentSize) {
+        this.context = context;
+        this.maxSize = maxSize;
+        this.segmentSize = segmentSize;
+    }
+
+    @Override
+    public CacheResult get(CacheMethod method, RequestFingerprint fingerprint, int cacheLifeTime) {
+        String name = getEntryName(method, fingerprint);
+        if ((debugFlags & Endpoint.CACHE_DEBUG) > 0) {
+            JudoLogger.log("Cache(" + method + "): Search in segment cache " + name + ".");
+        }
+        Location location = getStore(method.getCacheLevel()).read(name, cacheLifeTime);
+        if (location != null) {
+            try {
+                CacheResult result = (CacheResult) codec.decode(new ByteBufferInputStream(location.getData()));
+                if (fingerprint.getKey().equals(result.key)) {
+                    if ((debugFlags & Endpoint.CACHE_DEBUG) > 0) {
+                        JudoLogger.log("Cache(" + method + "): Get from segment cache " + name + ".");
+                    }
+                    return result;
+                }
+            } catch (Exception e) {
+                JudoLogger.log(e);
+                getStore(method.getCacheLevel()).remove(name);
+            } finally {
+                location.segment.release();
+            }
+        }
+        return new CacheResult();
+    }
+
+    @Override
+    public void put(CacheMethod method, RequestFingerprint fingerprint, Object object, int maxSize) {
+        put(method, fingerprint, object, maxSize, System.currentTimeMillis());
+    }
+
+    @Override
+    public void put(CacheMethod method, RequestFingerprint fingerprint, Object object, int maxSize, long createTime) {
+        String name = getEntryName(method, fingerprint);
+        CacheResult cacheResult = new CacheResult(object, true, method.getTime(), method.getHash());
+        cacheResult.key = fingerprint.getKey();
+        cacheResult.createTime = createTime;
+        cacheResult.expireTime = method.getExpireTime();
+        cacheResult.staleIfErrorTime = method.getStaleIfErrorTime();
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            codec.encode(cacheResult, bytes);
+            getStore(method.getCacheLevel()).write(name, method.getMethodKey(), bytes.toByteArray(), maxSize, createTime);
+            if ((debugFlags & Endpoint.CACHE_DEBUG) > 0) {
+                JudoLogger.log("Cache(" + method + "): Saved in segment cache " + name + " (" + bytes.size() + " bytes).");
+            }
+        } catch (IOException e) {
+            JudoLogger.log(e);
+        }
+    }
+
+    @Override
+    public void clearCache() {
+        for (LocalCache.CacheLevel level : LocalCache.CacheLevel.values()) {
+            if (level != LocalCache.CacheLevel.MEMORY_ONLY) {
+                Store store = getStore(level);
+                store.removeIf("local/", true);
+                store.removeIf("dynamic/", true);
+            }
+        }
+    }
+
+    @Override
+    public void clearCache(CacheMethod method) {
+        getStore(method.getCacheLevel()).removeIf(method.getMethodKey(), false);
+    }
+
+    @Override
+    public void clearCache(CacheMethod method, Object... params) {
+        clearCache(method, RequestFingerprint.create(method.getMethodId(), params));
+    }
+
+    @Override
+    public void clearCache(CacheMethod method, RequestFingerprint fingerprint) {
+        getStore(method.getCacheLevel()).remove(getEntryName(method, fingerprint));
+    }
+
+    @Override
+    public void clearTests() {
+        getStore(LocalCache.CacheLevel.DISK_CACHE).removeIf("tests/", true);
+    }
+
+    @Override
+    public void clearTest(String name) {
+        getStore(LocalCache.CacheLevel.DISK_CACHE).removeIf("tests/" + name + "/", true);
+    }
+
+    public void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+        List<Store> currentStores;
+        synchronized (this) {
+            currentStores = new ArrayList<>(stores.values());
+        }
+        for (Store store : currentStores) {
+            store.trimToSize();
+        }
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    @Override
+    public long getSize(LocalCache.CacheLevel cacheLevel) {
+        return getStore(cacheLevel).getSize();
+    }
+
+    @Override
+    public CacheCodec getCodec() {
+        return codec;
+    }
+
+    @Override
+    public void setCodec(CacheCodec codec) {
+        this.codec = codec;
+    }
+
+    @Override
+    public int getDebugFlags() {
+        return debugFlags;
+    }
+
+    @Override
+    public void setDebugFlags(int debugFlags) {
+        this.debugFlags = debugFlags;
+    }
+
+    @Override
+    public CacheStats getCacheStats() {
+        return cacheStats;
+    }
+
+    @Override
+    public void setCacheStats(CacheStats cacheStats) {
+        this.cacheStats = cacheStats;
+    }
+
+    protected String getEntryName(CacheMethod method, RequestFingerprint fingerprint) {
+        return Integer.toHexString(method.getMethodKey().hashCode()) + "_" + fingerprint.toHex();
+    }
+
+    protected synchronized Store getStore(LocalCache.CacheLevel cacheLevel) {
+        Store store = stores.get(cacheLevel);
+        if (store == null) {
+            File root = (cacheLevel == LocalCache.CacheLevel.DISK_DATA) ? context.getFilesDir() : context.getCacheDir();
+            store = new Store(new File(root, "cache/segments"), CacheStats.Level.of(cacheLevel));
+            stores.put(cacheLevel, store);
+        }
+        return store;
+    }
+
+    /**
+     * Unmaps the buffer right away where the platform allows it,
+     * otherwise the mapping is released when the buffer is garbage collected.
+     */
+    protected static void unmap(MappedByteBuffer buffer) {
+        try {
+            Class.forName("java.nio.NioUtils").getMethod("freeDirectBuffer", ByteBuffer.class).invoke(null, buffer);
+        } catch (Exception e) {
+            //not available on this platform
+        }
+    }
+
+    static class Segment {
+        final int id;
+        final File file;
+        final MappedByteBuffer buffer;
+        final AtomicInteger readers = new AtomicInteger();
+        final AtomicBoolean unmapped = new AtomicBoolean();
+        volatile boolean deleted;
+        int writePosition;
+        long liveBytes;
+
+        Segment(int id, File file, int capacity) throws IOException {
+            this.id = id;
+            this.file = file;
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+            try {
+                this.buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            } finally {
+                randomAccessFile.close();
+            }
+        }
+
+        int remaining() {
+            return buffer.capacity() - writePosition;
+        }
+
+        /**
+         * Ends a read started by {@link Store#read}, the last reader of a deleted segment unmaps it.
+         */
+        void release() {
+            if (readers.decrementAndGet() == 0 && deleted) {
+                unmapSegment();
+            }
+        }
+
+        /**
+         * Deletes the file, the buffer is unmapped when no reader uses it.
+         */
+        void delete() {
+            deleted = true;
+            file.delete();
+            if (readers.get() == 0) {
+                unmapSegment();
+            }
+        }
+
+        private void unmapSegment() {
+            if (unmapped.compareAndSet(false, true)) {
+                unmap(buffer);
+            }
+        }
+    }
+
+    static class Location {
+        final String name;
+        final String methodKey;
+        final Segment segment;
+        final int recordOffset;
+        final int dataOffset;
+        final int dataLength;
+        final long createTime;
+
+        Location(String name, String methodKey, Segment segment, int recordOffset, int dataOffset, int dataLength, long createTime) {
+            this.name = name;
+            this.methodKey = methodKey;
+            this.segment = segment;
+            this.recordOffset = recordOffset;
+            this.dataOffset = dataOffset;
+            this.dataLength = dataLength;
+            this.createTime = createTime;
+        }
+
+        int recordLength() {
+            return dataOffset + dataLength - recordOffset;
+        }
+
+        ByteBuffer getData() {
+            ByteBuffer data = segment.buffer.duplicate();
+            data.limit(dataOffset + dataLength);
+            data.position(dataOffset);
+            return data.slice();
+        }
+    }
+
+    protected class Store {
+        private final File dir;
+        private final CacheStats.Level statsLevel;
+        private final List<Segment> segments = new ArrayList<>();
+        private final Map<String, Location> index = new HashMap<>();
+        private final Map<String, LinkedHashMap<String, Location>> methods = new HashMap<>();
+        private long liveBytes;
+        private long totalBytes;
+        private boolean compactScheduled;
+
+        Store(File dir, CacheStats.Level statsLevel) {
+            this.dir = dir;
+            this.statsLevel = statsLevel;
+            dir.mkdirs();
+            scan();
+        }
+
+        /**
+         * @return bytes of live records, the size budgeted by {@link #trimToSize()}
+         */
+        synchronized long getSize() {
+            return liveBytes;
+        }
+
+        /**
+         * @return location of the entry, its segment stays mapped until {@link Segment#release()} is called
+         */
+        synchronized Location read(String name, int cacheLifeTime) {
+            Location location = index.get(name);
+            if (location == null) {
+                return null;
+            }
+            if (cacheLifeTime != 0 && System.currentTimeMillis() - location.createTime >= cacheLifeTime) {
+                removeLocation(location);
+                record(location, false);
+                return null;
+            }
+            methods.get(location.methodKey).get(name);
+            location.segment.readers.incrementAndGet();
+            return location;
+        }
+
+        synchronized void write(String name, String methodKey, byte[] data, int cacheSize, long createTime) throws IOException {
+            Location oldLocation = index.get(name);
+            if (oldLocation != null) {
+                dropLocation(oldLocation);
+            }
+            Location location = append(name, methodKey, data, createTime);
+            addLocation(location);
+            if (cacheStats != null) {
+                cacheStats.recordBytes(CacheMethod.parseMethodId(methodKey), statsLevel, data.length);
+            }
+            LinkedHashMap<String, Location> methodEntries = methods.get(methodKey);
+            while (cacheSize > 0 && methodEntries.size() > cacheSize) {
+                Location eldest = methodEntries.values().iterator().next();
+                removeLocation(eldest);
+                record(eldest, true);
+            }
+            trimToSize();
+        }
+
+        synchronized void remove(String name) {
+            Location location = index.get(name);
+            if (location != null) {
+                removeLocation(location);
+            }
+        }
+
+        synchronized void removeIf(String methodKey, boolean prefix) {
+            List<Location> removed = new ArrayList<>();
+            for (Location location : index.values()) {
+                if (prefix ? location.methodKey.startsWith(methodKey) : location.methodKey.equals(methodKey)) {
+                    removed.add(location);
+                }
+            }
+            for (Location location : removed) {
+                removeLocation(location);
+            }
+        }
+
+        /**
+         * Drops the oldest segments until live records fit in the max size.
+         */
+        synchronized void trimToSize() {
+            while (liveBytes > maxSize && segments.size() > 1) {
+                Segment oldest = segments.remove(0);
+                Iterator<Location> iterator = index.values().iterator();
+                while (iterator.hasNext()) {
+                    Location location = iterator.next();
+                    if (location.segment == oldest) {
+                        iterator.remove();
+                        methods.get(location.methodKey).remove(location.name);
+                        liveBytes -= location.recordLength();
+                        record(location, true);
+                    }
+                }
+                totalBytes -= oldest.writePosition;
+                oldest.delete();
+            }
+        }
+
+        private void record(Location location, boolean eviction) {
+            CacheStats stats = cacheStats;
+            if (stats != null) {
+                int methodId = CacheMethod.parseMethodId(location.methodKey);
+                if (eviction) {
+                    stats.recordEviction(methodId, statsLevel);
+                } else {
+                    stats.recordExpiration(methodId, statsLevel);
+                }
+            }
+        }
+
+        private Location append(String name, String methodKey, byte[] data, long createTime) throws IOException {
+            byte[] nameBytes = name.getBytes(UTF8);
+            byte[] methodKeyBytes = methodKey.getBytes(UTF8);
+            int recordLength = 4 + nameBytes.length + 4 + methodKeyBytes.length + 8 + 4 + (data != null ? data.length : 0);
+            Segment segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+            // keep room for the 4-byte end marker
+            if (segment == null || segment.remaining() < recordLength + 4) {
+                segment = newSegment(Math.max(segmentSize, recordLength + 4));
+            }
+            ByteBuffer buffer = segment.buffer.duplicate();
+            int recordOffset = segment.writePosition;
+            buffer.position(recordOffset);
+            buffer.putInt(nameBytes.length);
+            buffer.put(nameBytes);
+            buffer.putInt(methodKeyBytes.length);
+            buffer.put(methodKeyBytes);
+            buffer.putLong(createTime);
+            if (data != null) {
+                buffer.putInt(data.length);
+                int dataOffset = buffer.position();
+                buffer.put(data);
+                segment.writePosition = buffer.position();
+                totalBytes += recordLength;
+                return new Location(name, methodKey, segment, recordOffset, dataOffset, data.length, createTime);
+            } else {
+                buffer.putInt(TOMBSTONE);
+                segment.writePosition = buffer.position();
+                totalBytes += recordLength;
+                return null;
+            }
+        }
+
+        private Segment newSegment(int capacity) throws IOException {
+            final Segment lastSegment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+            int id = lastSegment == null ? 0 : lastSegment.id + 1;
+            Segment segment = new Segment(id, new File(dir, SEGMENT_PREFIX + id), capacity);
+            segments.add(segment);
+            if (lastSegment != null) {
+                compactExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        force(lastSegment);
+                    }
+                });
+            }
+            return segment;
+        }
+
+        private void force(Segment segment) {
+            if (!segment.deleted) {
+                segment.buffer.force();
+            }
+        }
+
+        private void addLocation(Location location) {
+            index.put(location.name, location);
+            LinkedHashMap<String, Location> methodEntries = methods.get(location.methodKey);
+            if (methodEntries == null) {
+                methodEntries = new LinkedHashMap<>(16, 0.75f, true);
+                methods.put(location.methodKey, methodEntries);
+            }
+            methodEntries.put(location.name, location);
+            location.segment.liveBytes += location.recordLength();
+            liveBytes += location.recordLength();
+        }
+
+        private void dropLocation(Location location) {
+            index.remove(location.name);
+            LinkedHashMap<String, Location> methodEntries = methods.get(location.methodKey);
+            methodEntries.remove(location.name);
+            if (methodEntries.isEmpty()) {
+                methods.remove(location.methodKey);
+            }
+            location.segment.liveBytes -= location.recordLength();
+            liveBytes -= location.recordLength();
+        }
+
+        private void removeLocation(Location location) {
+            dropLocation(location);
+            try {
+                append(location.name, location.methodKey, null, System.currentTimeMillis());
+            } catch (IOException e) {
+                JudoLogger.log(e);
+            }
+            scheduleCompactIfNeeded();
+        }
+
+        private void scheduleCompactIfNeeded() {
+            long deadBytes = totalBytes - liveBytes;
+            if (!compactScheduled && deadBytes > segmentSize && deadBytes > liveBytes) {
+                compactScheduled = true;
+                compactExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        compact();
+                    }
+                });
+            }
+        }
+
+        /**
+         * Moves live records of the oldest segments to the newest one, until dead records don't outweigh them.
+         * Records are copied without holding the lock and a segment is deleted only when all its records
+         * are stored again, so a failure leaves it intact. Only the oldest segment is compacted,
+         * because tombstones of a newer one may hide records of older segments.
+         */
+        void compact() {
+            while (true) {
+                Segment segment;
+                List<Location> locations = new ArrayList<>();
+                synchronized (this) {
+                    long deadBytes = totalBytes - liveBytes;
+                    if (segments.size() < 2 || deadBytes <= segmentSize || deadBytes <= liveBytes) {
+                        compactScheduled = false;
+                        return;
+                    }
+                    segment = segments.get(0);
+                    for (Location location : index.values()) {
+                        if (location.segment == segment) {
+                            locations.add(location);
+                        }
+                    }
+                    segment.readers.incrementAndGet();
+                }
+                Collections.sort(locations, new Comparator<Location>() {
+                    @Override
+                    public int compare(Location lhs, Location rhs) {
+                        return Long.valueOf(lhs.createTime).compareTo(rhs.createTime);
+                    }
+                });
+                boolean delete = false;
+                try {
+                    for (Location location : locations) {
+                        byte[] data = new byte[location.dataLength];
+                        location.getData().get(data);
+                        synchronized (this) {
+                            if (index.get(location.name) == location) {
+                                dropLocation(location);
+                                addLocation(append(location.name, location.methodKey, data, location.createTime));
+                            }
+                        }
+                    }
+                    Segment lastSegment;
+                    synchronized (this) {
+                        lastSegment = segments.get(segments.size() - 1);
+                    }
+                    force(lastSegment);
+                    synchronized (this) {
+                        if (segment.liveBytes == 0 && segments.remove(segment)) {
+                            totalBytes -= segment.writePosition;
+                            delete = true;
+                        }
+                    }
+                } catch (IOException e) {
+                    JudoLogger.log(e);
+                    synchronized (this) {
+                        compactScheduled = false;
+                    }
+                    return;
+                } finally {
+                    segment.release();
+                }
+                if (delete) {
+                    segment.delete();
+                    if ((debugFlags & Endpoint.CACHE_DEBUG) > 0) {
+                        JudoLogger.log("Segment cache " + dir + " compacted " + segment.file.getName() + " (" + locations.size() + " records moved).");
+                    }
+                }
+            }
+        }
+
+        private void scan() {
+            File[] files = dir.listFiles();
+            if (files == null) {
+                return;
+            }
+            List<File> segmentFiles = new ArrayList<>();
+            for (File file : files) {
+                if (file.getName().startsWith(SEGMENT_PREFIX)) {
+                    segmentFiles.add(file);
+                }
+            }
+            File[] sorted = segmentFiles.toArray(new File[segmentFiles.size()]);
+            Arrays.sort(sorted, new Comparator<File>() {
+                @Override
+                public int compare(File lhs, File rhs) {
+                    return Integer.valueOf(getSegmentId(lhs)).compareTo(getSegmentId(rhs));
+                }
+            });
+            for (File file : sorted) {
+                Segment segment = null;
+                try {
+                    segment = new Segment(getSegmentId(file), file, (int) file.length());
+                    scanSegment(segment);
+                    segments.add(segment);
+                    totalBytes += segment.writePosition;
+                } catch (IOException | RuntimeException e) {
+                    //only the unreadable segment is dropped
+                    JudoLogger.log(e);
+                    if (segment != null) {
+                        for (Location location : new ArrayList<>(index.values())) {
+                            if (location.segment == segment) {
+                                dropLocation(location);
+                            }
+                        }
+                        segment.delete();
+                    } else {
+                        file.delete();
+                    }
+                }
+            }
+        }
+
+        private void scanSegment(Segment segment) {
+            ByteBuffer buffer = segment.buffer.duplicate();
+            while (buffer.remaining() >= 4) {
+                int recordOffset = buffer.position();
+                byte[] nameBytes;
+                byte[] methodKeyBytes;
+                long createTime;
+                int dataLength;
+                try {
+                    nameBytes = new byte[buffer.getInt()];
+                    buffer.get(nameBytes);
+                    methodKeyBytes = new byte[buffer.getInt()];
+                    buffer.get(methodKeyBytes);
+                    createTime = buffer.getLong();
+                    dataLength = buffer.getInt();
+                } catch (RuntimeException e) {
+                    //end marker or record torn by a crash
+                    buffer.position(recordOffset);
+                    break;
+                }
+                if (nameBytes.length == 0 || (dataLength != TOMBSTONE && (dataLength < 0 || dataLength > buffer.remaining()))) {
+                    buffer.position(recordOffset);
+                    break;
+                }
+                String name = new String(nameBytes, UTF8);
+                Location oldLocation = index.get(name);
+                if (oldLocation != null) {
+                    dropLocation(oldLocation);
+                }
+                if (dataLength != TOMBSTONE) {
+                    int dataOffset = buffer.position();
+                    buffer.position(dataOffset + dataLength);
+                    addLocation(new Location(name, new String(methodKeyBytes, UTF8), segment, recordOffset, dataOffset, dataLength, createTime));
+                }
+            }
+            segment.writePosition = buffer.position();
+        }
+
+        private int getSegmentId(File file) {
+            return Integer.parseInt(file.getName().substring(SEGMENT_PREFIX.length()));
+        }
+    }
+
+    static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            length = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, length);
+            return length;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return buffer.remaining();
+        }
+    }
+
+}
@@ -0,0 +1,33 @@
+package com.github.kubatatami.judonetworking.caches;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+
+/**
+ * Default {@link CacheCodec} based on Java serialization.
+ * Every cached object has to implement {@link java.io.Serializable}.
+ */
+public class SerializableCacheCodec implements CacheCodec {
+
+    @Override
+    public void encode(Object object, OutputStream outputStream) throws IOException {
+        ObjectOutputStream os = new ObjectOutputStream(outputStream);
+        os.writeObject(object);
+        os.flush();
+    }
+
+    @Override
+    public Object decode(InputStream inputStream) throws IOException {
+        try {
+            return new ObjectInputStream(inputStream).readObject();
+        } catch (ClassNotFoundException e) {
+            IOException exception = new IOException("Class not found: " + e.getMessage());
+            exception.initCause(e);
+            throw exception;
+        }
+    }
+
+}
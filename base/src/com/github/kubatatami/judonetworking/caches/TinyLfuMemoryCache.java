@@ -0,0 +1,289 @@
+package com.github.kubatatami.judonetworking.caches;
+
+import android.content.Context;
+
+import com.github.kubatatami.judonetworking.Endpoint;
+import com.github.kubatatami.judonetworking.internals.cache.CacheMethod;
+import com.github.kubatatami.judonetworking.internals.cache.RequestFingerprint;
+import com.github.kubatatami.judonetworking.internals.cache.TrimLevel;
+import com.github.kubatatami.judonetworking.internals.results.CacheResult;
+import com.github.kubatatami.judonetworking.internals.stats.CacheStats;
+import com.github.kubatatami.judonetworking.logs.JudoLogger;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Memory cache with frequency based admission (W-TinyLFU).
+ * New entries land in a small LRU window. An entry pushed out of the window enters the main
+ * segment only if it was accessed more often than the main segment victim, so one-off scans
+ * (e.g. paging through a long list) don't flush hot entries.
+ * The main segment is split into probation and protected parts, an entry hit in probation
+ * is moved to protected. Access frequency is estimated by {@link FrequencySketch}.
+ * The <code>size</code> of {@link com.github.kubatatami.judonetworking.annotations.LocalCache}
+ * limits entries count of a single method, 0 means no limit and no admission.
+ */
+public class TinyLfuMemoryCache implements MemoryCache {
+
+    protected static final int DEFAULT_WINDOW_PERCENT = 1;
+    protected static final int DEFAULT_EXPECTED_ENTRIES = 1024;
+    protected static final int PROTECTED_PERCENT = 80;
+
+    private int debugFlags;
+    private CacheStats cacheStats;
+    private final int windowPercent;
+    private final FrequencySketch sketch;
+    private final Map<Integer, Segment> segments = new HashMap<>();
+
+    protected Context context;
+
+    public TinyLfuMemoryCache(Context context) {
+        this(context, DEFAULT_WINDOW_PERCENT, DEFAULT_EXPECTED_ENTRIES);
+    }
+
+    /**
+     * @param windowPercent   size of the window as percent of the method cache size
+     * @param expectedEntries expected number of entries of all methods, sizes the frequency sketch
+     */
+    public TinyLfuMemoryCache(Context context, int windowPercent, int expectedEntries) {
+        if (windowPercent < 0 || windowPercent > 100) {
+            throw new IllegalArgumentException("windowPercent must be between 0 and 100.");
+        }
+        this.context = context;
+        this.windowPercent = windowPercent;
+        this.sketch = new FrequencySketch(expectedEntries);
+    }
+
+    @Override
+    public synchronized CacheResult get(RequestFingerprint fingerprint, int cacheLifeTime, int cacheSize) {
+        CacheResult result = new CacheResult();
+        int methodId = fingerprint.getMethodId();
+        sketch.increment(fingerprint.hashCode());
+        Segment segment = segments.get(methodId);
+        if (segment != null) {
+            if ((debugFlags & Endpoint.CACHE_DEBUG) > 0) {
+                JudoLogger.log("Search for " + methodId + " with hash:" + fingerprint.toHex());
+            }
+            CacheObject cacheObject = segment.get(fingerprint);
+            if (cacheObject != null) {
+                if (cacheLifeTime == 0 || System.currentTimeMillis() - cacheObject.createTime < cacheLifeTime) {
+                    if ((debugFlags & Endpoint.CACHE_DEBUG) > 0) {
+                        JudoLogger.log("Cache(" + methodId + "): Get from memory cache object with hash:" + fingerprint.toHex());
+                    }
+                    result.object = cacheObject.object;
+                    result.time = cacheObject.createTime;
+                    result.createTime = cacheObject.createTime;
+                    result.result = true;
+                    return result;
+                } else {
+                    segment.remove(fingerprint);
+                    if (cacheStats != null) {
+                        cacheStats.recordExpiration(methodId, CacheStats.Level.MEMORY);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void put(RequestFingerprint fingerprint, Object object, int cacheSize) {
+        put(fingerprint, object, cacheSize, System.currentTimeMillis());
+    }
+
+    @Override
+    public synchronized void put(RequestFingerprint fingerprint, Object object, int cacheSize, long createTime) {
+        int methodId = fingerprint.getMethodId();
+        sketch.increment(fingerprint.hashCode());
+        Segment segment = segments.get(methodId);
+        if (segment == null) {
+            segment = new Segment();
+            segments.put(methodId, segment);
+        }
+        CacheObject cacheObject = new CacheObject(createTime, object);
+        if (!segment.replace(fingerprint, cacheObject)) {
+            segment.window.put(fingerprint, cacheObject);
+            if (cacheSize > 0) {
+                evict(segment, cacheSize);
+            }
+        }
+        if ((debugFlags & Endpoint.CACHE_DEBUG) > 0) {
+            JudoLogger.log("Cache(" + methodId + "): Saved in memory cache with hash:" + fingerprint.toHex());
+        }
+    }
+
+    protected void evict(Segment segment, int cacheSize) {
+        int windowSize = Math.max(1, cacheSize * windowPercent / 100);
+        int mainSize = cacheSize - windowSize;
+        segment.protectedSize = mainSize * PROTECTED_PERCENT / 100;
+        while (segment.window.size() > windowSize) {
+            Map.Entry<RequestFingerprint, CacheObject> candidate = eldest(segment.window);
+            segment.window.remove(candidate.getKey());
+            if (segment.probation.size() + segment.protectedEntries.size() < mainSize) {
+                segment.probation.put(candidate.getKey(), candidate.getValue());
+                continue;
+            }
+            Map<RequestFingerprint, CacheObject> victimMap = segment.probation.isEmpty() ? segment.protectedEntries : segment.probation;
+            Map.Entry<RequestFingerprint, CacheObject> victim = victimMap.isEmpty() ? null : eldest(victimMap);
+            if (victim != null && sketch.frequency(candidate.getKey().hashCode()) > sketch.frequency(victim.getKey().hashCode())) {
+                victimMap.remove(victim.getKey());
+                segment.probation.put(candidate.getKey(), candidate.getValue());
+                recordEviction(victim.getKey());
+            } else {
+                recordEviction(candidate.getKey());
+            }
+        }
+        segment.demote();
+    }
+
+    protected void recordEviction(RequestFingerprint fingerprint) {
+        if (cacheStats != null) {
+            cacheStats.recordEviction(fingerprint.getMethodId(), CacheStats.Level.MEMORY);
+        }
+        if ((debugFlags & Endpoint.CACHE_DEBUG) > 0) {
+            JudoLogger.log("Cache(" + fingerprint.getMethodId() + "): Evicted from memory cache object with hash:" + fingerprint.toHex());
+        }
+    }
+
+    protected static Map.Entry<RequestFingerprint, CacheObject> eldest(Map<RequestFingerprint, CacheObject> map) {
+        return map.entrySet().iterator().next();
+    }
+
+    @Override
+    public synchronized void clearCache() {
+        segments.clear();
+    }
+
+    @Override
+    public void clearCache(Method method) {
+        clearCache(CacheMethod.getMethodId(method));
+    }
+
+    @Override
+    public void clearCache(Method method, Object... params) {
+        clearCache(CacheMethod.getMethodId(method), params);
+    }
+
+    @Override
+    public synchronized void clearCache(int methodId) {
+        segments.remove(methodId);
+    }
+
+    @Override
+    public void clearCache(int methodId, Object... params) {
+        clearCache(RequestFingerprint.create(methodId, params));
+    }
+
+    @Override
+    public synchronized void clearCache(RequestFingerprint fingerprint) {
+        Segment segment = segments.get(fingerprint.getMethodId());
+        if (segment != null) {
+            segment.remove(fingerprint);
+        }
+    }
+
+    /**
+     * Evicts probation entries first, then window and protected ones.
+     */
+    @Override
+    public synchronized void trimMemory(int level) {
+        float retained = TrimLevel.getRetainedFraction(level);
+        if (retained >= 1) {
+            return;
+        }
+        for (Segment segment : segments.values()) {
+            int size = segment.window.size() + segment.probation.size() + segment.protectedEntries.size();
+            int evicted = size - (int) (size * retained);
+            for (LinkedHashMap<RequestFingerprint, CacheObject> map : Arrays.asList(segment.probation, segment.window, segment.protectedEntries)) {
+                while (evicted > 0 && !map.isEmpty()) {
+                    RequestFingerprint fingerprint = eldest(map).getKey();
+                    map.remove(fingerprint);
+                    recordEviction(fingerprint);
+                    evicted--;
+                }
+            }
+        }
+    }
+
+    @Override
+    public int getDebugFlags() {
+        return debugFlags;
+    }
+
+    @Override
+    public void setDebugFlags(int debugFlags) {
+        this.debugFlags = debugFlags;
+    }
+
+    @Override
+    public CacheStats getCacheStats() {
+        return cacheStats;
+    }
+
+    @Override
+    public void setCacheStats(CacheStats cacheStats) {
+        this.cacheStats = cacheStats;
+    }
+
+    protected static class Segment {
+        final LinkedHashMap<RequestFingerprint, CacheObject> window = new LinkedHashMap<>(16, 0.75f, true);
+        final LinkedHashMap<RequestFingerprint, CacheObject> probation = new LinkedHashMap<>(16, 0.75f, true);
+        final LinkedHashMap<RequestFingerprint, CacheObject> protectedEntries = new LinkedHashMap<>(16, 0.75f, true);
+        int protectedSize = Integer.MAX_VALUE;
+
+        CacheObject get(RequestFingerprint fingerprint) {
+            CacheObject cacheObject = window.get(fingerprint);
+            if (cacheObject == null) {
+                cacheObject = protectedEntries.get(fingerprint);
+            }
+            if (cacheObject == null) {
+                cacheObject = probation.remove(fingerprint);
+                if (cacheObject != null) {
+                    protectedEntries.put(fingerprint, cacheObject);
+                    demote();
+                }
+            }
+            return cacheObject;
+        }
+
+        boolean replace(RequestFingerprint fingerprint, CacheObject cacheObject) {
+            if (window.containsKey(fingerprint)) {
+                window.put(fingerprint, cacheObject);
+            } else if (protectedEntries.containsKey(fingerprint)) {
+                protectedEntries.put(fingerprint, cacheObject);
+            } else if (probation.containsKey(fingerprint)) {
+                probation.put(fingerprint, cacheObject);
+            } else {
+                return false;
+            }
+            return true;
+        }
+
+        void remove(RequestFingerprint fingerprint) {
+            if (window.remove(fingerprint) == null && protectedEntries.remove(fingerprint) == null) {
+                probation.remove(fingerprint);
+            }
+        }
+
+        void demote() {
+            while (protectedEntries.size() > protectedSize) {
+                Map.Entry<RequestFingerprint, CacheObject> eldest = eldest(protectedEntries);
+                protectedEntries.remove(eldest.getKey());
+                probation.put(eldest.getKey(), eldest.getValue());
+            }
+        }
+    }
+
+    static class CacheObject {
+        final long createTime;
+        final Object object;
+
+        CacheObject(long createTime, Object object) {
+            this.createTime = createTime;
+            this.object = object;
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.github.kubatatami.judonetworking.caches;
+
+/**
+ * Estimates how many bytes of heap a cached object occupies.
+ * Used by {@link WeightedMemoryCache} to keep all cached entries within one byte budget.
+ */
+public interface Weigher {
+
+    /**
+     * @param object cached object, may be null
+     * @return estimated size in bytes, never negative
+     */
+    public int weigh(Object object);
+
+}
@@ -0,0 +1,435 @@
+package com.github.kubatatami.judonetworking.caches;
+
+import android.content.Context;
+
+import com.github.kubatatami.judonetworking.Endpoint;
+import com.github.kubatatami.judonetworking.internals.cache.CacheMethod;
+import com.github.kubatatami.judonetworking.internals.cache.RequestFingerprint;
+import com.github.kubatatami.judonetworking.internals.cache.TrimLevel;
+import com.github.kubatatami.judonetworking.internals.results.CacheResult;
+import com.github.kubatatami.judonetworking.internals.stats.CacheStats;
+import com.github.kubatatami.judonetworking.logs.JudoLogger;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Memory cache with one byte budget shared by all methods.
+ * Entry size is estimated by {@link Weigher} and the least recently used entry
+ * of any method is evicted when the budget is exceeded.
+ * The <code>size</code> of {@link com.github.kubatatami.judonetworking.annotations.LocalCache}
+ * still limits entries count of a single method and an optional byte limit
+ * per method can be set by {@link #setMethodMaxSize(int, long)}.
+ * <p/>
+ * Under memory pressure ({@link #trimMemory(int)}) the budget shrinks and grows back
+ * step by step when no trim happens for a while. Entries evicted by the budget are kept
+ * by soft references until the garbage collector needs the memory, so they can still be hit.
+ * The soft tier references at most {@link #getMaxSize()} bytes, its oldest entries are dropped first.
+ * Entries collected by the garbage collector are purged by every operation.
+ * Entries with disk cache level are read from disk when both tiers miss.
+ */
+public class WeightedMemoryCache implements MemoryCache {
+
+    protected static final int ENTRY_OVERHEAD = 64;
+    protected static final long RESTORE_DELAY = 30000;
+
+    private int debugFlags;
+    private CacheStats cacheStats;
+    private long maxSize;
+    private long currentMaxSize;
+    private long trimTime;
+    private long size;
+    private long softSize;
+    private final Weigher weigher;
+    private final LinkedHashMap<RequestFingerprint, CacheObject> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Integer, MethodCache> methods = new HashMap<>();
+    private final Map<Integer, Long> methodMaxSizes = new HashMap<>();
+    private final LinkedHashMap<RequestFingerprint, SoftEntry> softEntries = new LinkedHashMap<>();
+    private final ReferenceQueue<CacheObject> softQueue = new ReferenceQueue<>();
+
+    protected Context context;
+
+    public WeightedMemoryCache(Context context) {
+        this(context, Runtime.getRuntime().maxMemory() / 8);
+    }
+
+    public WeightedMemoryCache(Context context, long maxSize) {
+        this(context, maxSize, new DefaultWeigher());
+    }
+
+    public WeightedMemoryCache(Context context, long maxSize, Weigher weigher) {
+        this.context = context;
+        this.maxSize = maxSize;
+        this.currentMaxSize = maxSize;
+        this.weigher = weigher;
+    }
+
+    @Override
+    public synchronized CacheResult get(RequestFingerprint fingerprint, int cacheLifeTime, int cacheSize) {
+        purgeSoftEntries();
+        restoreMaxSize();
+        CacheResult result = new CacheResult();
+        int methodId = fingerprint.getMethodId();
+        MethodCache methodCache = methods.get(methodId);
+        if (methodCache != null) {
+            if ((debugFlags & Endpoint.CACHE_DEBUG) > 0) {
+                JudoLogger.log("Search for " + methodId + " with hash:" + fingerprint.toHex());
+            }
+            CacheObject cacheObject = methodCache.entries.get(fingerprint);
+            if (cacheObject != null) {
+                entries.get(fingerprint);
+                if (cacheLifeTime == 0 || System.currentTimeMillis() - cacheObject.createTime < cacheLifeTime) {
+                    if ((debugFlags & Endpoint.CACHE_DEBUG) > 0) {
+                        JudoLogger.log("Cache(" + methodId + "): Get from memory cache object with hash:" + fingerprint.toHex());
+                    }
+                    result.object = cacheObject.object;
+                    result.time = cacheObject.createTime;
+                    result.createTime = cacheObject.createTime;
+                    result.result = true;
+                    return result;
+                } else {
+                    remove(cacheObject);
+                    if (cacheStats != null) {
+                        cacheStats.recordExpiration(methodId, CacheStats.Level.MEMORY);
+                    }
+                    return result;
+                }
+            }
+        }
+        return getSoft(fingerprint, cacheLifeTime, cacheSize);
+    }
+
+    /**
+     * Moves an entry from the soft tier back to the budget.
+     */
+    protected CacheResult getSoft(RequestFingerprint fingerprint, int cacheLifeTime, int cacheSize) {
+        CacheResult result = new CacheResult();
+        SoftEntry softEntry = removeSoft(fingerprint);
+        CacheObject cacheObject = softEntry != null ? softEntry.get() : null;
+        if (cacheObject != null && (cacheLifeTime == 0 || System.currentTimeMillis() - cacheObject.createTime < cacheLifeTime)) {
+            if ((debugFlags & Endpoint.CACHE_DEBUG) > 0) {
+                JudoLogger.log("Cache(" + fingerprint.getMethodId() + "): Get from soft memory cache object with hash:" + fingerprint.toHex());
+            }
+            add(cacheObject, cacheSize);
+            result.object = cacheObject.object;
+            result.time = cacheObject.createTime;
+            result.createTime = cacheObject.createTime;
+            result.result = true;
+        }
+        return result;
+    }
+
+    @Override
+    public void put(RequestFingerprint fingerprint, Object object, int cacheSize) {
+        put(fingerprint, object, cacheSize, System.currentTimeMillis());
+    }
+
+    @Override
+    public void put(RequestFingerprint fingerprint, Object object, int cacheSize, long createTime) {
+        //weighing walks the object graph, so other threads aren't blocked by it
+        long weight = weigher.weigh(object) + ENTRY_OVERHEAD;
+        synchronized (this) {
+            purgeSoftEntries();
+            int methodId = fingerprint.getMethodId();
+            MethodCache methodCache = methods.get(methodId);
+            if (methodCache == null) {
+                methodCache = new MethodCache();
+                methods.put(methodId, methodCache);
+            }
+            CacheObject oldObject = methodCache.entries.get(fingerprint);
+            if (oldObject != null) {
+                remove(oldObject);
+            }
+            Long methodMaxSize = methodMaxSizes.get(methodId);
+            if (weight > maxSize || (methodMaxSize != null && weight > methodMaxSize)) {
+                if ((debugFlags & Endpoint.CACHE_DEBUG) > 0) {
+                    JudoLogger.log("Cache(" + methodId + "): Object with hash:" + fingerprint.toHex() + " is too large for memory cache (" + weight + " bytes).");
+                }
+                return;
+            }
+            removeSoft(fingerprint);
+            CacheObject cacheObject = new CacheObject(fingerprint, createTime, object, weight);
+            if (cacheStats != null) {
+                cacheStats.recordBytes(methodId, CacheStats.Level.MEMORY, weight);
+            }
+            add(cacheObject, cacheSize);
+            if ((debugFlags & Endpoint.CACHE_DEBUG) > 0) {
+                JudoLogger.log("Cache(" + methodId + "): Saved in memory cache with hash:" + fingerprint.toHex() + " (" + weight + " bytes, " + size + "/" + currentMaxSize + ")");
+            }
+        }
+    }
+
+    protected void add(CacheObject cacheObject, int cacheSize) {
+        int methodId = cacheObject.key.getMethodId();
+        MethodCache methodCache = methods.get(methodId);
+        if (methodCache == null) {
+            methodCache = new MethodCache();
+            methods.put(methodId, methodCache);
+        }
+        entries.put(cacheObject.key, cacheObject);
+        methodCache.entries.put(cacheObject.key, cacheObject);
+        methodCache.size += cacheObject.weight;
+        size += cacheObject.weight;
+
+        Long methodMaxSize = methodMaxSizes.get(methodId);
+        Iterator<CacheObject> methodIterator = methodCache.entries.values().iterator();
+        while (methodIterator.hasNext() && ((cacheSize > 0 && methodCache.entries.size() > cacheSize)
+                || (methodMaxSize != null && methodCache.size > methodMaxSize))) {
+            CacheObject eldest = methodIterator.next();
+            methodIterator.remove();
+            removeFromGlobal(eldest, methodCache);
+            if (cacheStats != null) {
+                cacheStats.recordEviction(methodId, CacheStats.Level.MEMORY);
+            }
+        }
+        restoreMaxSize();
+        trimToSize(currentMaxSize);
+    }
+
+    /**
+     * Grows the budget shrunk by {@link #trimMemory(int)} by a quarter when memory pressure is gone.
+     */
+    protected void restoreMaxSize() {
+        if (currentMaxSize < maxSize && System.currentTimeMillis() - trimTime > RESTORE_DELAY) {
+            currentMaxSize = Math.min(maxSize, currentMaxSize + maxSize / 4);
+            trimTime = System.currentTimeMillis();
+        }
+    }
+
+    protected void trimToSize(long maxSize) {
+        Iterator<CacheObject> iterator = entries.values().iterator();
+        while (size > maxSize && iterator.hasNext()) {
+            CacheObject eldest = iterator.next();
+            iterator.remove();
+            MethodCache methodCache = methods.get(eldest.key.getMethodId());
+            methodCache.entries.remove(eldest.key);
+            methodCache.size -= eldest.weight;
+            size -= eldest.weight;
+            addSoft(eldest);
+            if (cacheStats != null) {
+                cacheStats.recordEviction(eldest.key.getMethodId(), CacheStats.Level.MEMORY);
+            }
+        }
+    }
+
+    /**
+     * Keeps an evicted entry by a soft reference, the oldest soft entries are dropped above max size.
+     */
+    protected void addSoft(CacheObject cacheObject) {
+        removeSoft(cacheObject.key);
+        softEntries.put(cacheObject.key, new SoftEntry(cacheObject, softQueue));
+        softSize += cacheObject.weight;
+        Iterator<SoftEntry> iterator = softEntries.values().iterator();
+        while (softSize > maxSize && iterator.hasNext()) {
+            softSize -= iterator.next().weight;
+            iterator.remove();
+        }
+    }
+
+    protected SoftEntry removeSoft(RequestFingerprint fingerprint) {
+        SoftEntry softEntry = softEntries.remove(fingerprint);
+        if (softEntry != null) {
+            softSize -= softEntry.weight;
+        }
+        return softEntry;
+    }
+
+    protected void clearSoft() {
+        softEntries.clear();
+        softSize = 0;
+        while (softQueue.poll() != null) {
+            //references of removed entries
+        }
+    }
+
+    protected void purgeSoftEntries() {
+        SoftEntry softEntry;
+        while ((softEntry = (SoftEntry) softQueue.poll()) != null) {
+            if (softEntries.get(softEntry.key) == softEntry) {
+                removeSoft(softEntry.key);
+            }
+        }
+    }
+
+    /**
+     * Shrinks the budget according to the level, evicted entries are moved to the soft tier.
+     * On TRIM_MEMORY_COMPLETE both tiers are cleared.
+     */
+    @Override
+    public synchronized void trimMemory(int level) {
+        float retained = TrimLevel.getRetainedFraction(level);
+        if (retained >= 1) {
+            return;
+        }
+        currentMaxSize = Math.min(currentMaxSize, (long) (maxSize * retained));
+        trimTime = System.currentTimeMillis();
+        trimToSize(currentMaxSize);
+        if (retained == 0) {
+            clearSoft();
+        } else {
+            purgeSoftEntries();
+        }
+        if ((debugFlags & Endpoint.CACHE_DEBUG) > 0) {
+            JudoLogger.log("Cache: Memory cache trimmed to " + size + "/" + currentMaxSize + " bytes.");
+        }
+    }
+
+    private void remove(CacheObject cacheObject) {
+        MethodCache methodCache = methods.get(cacheObject.key.getMethodId());
+        methodCache.entries.remove(cacheObject.key);
+        removeFromGlobal(cacheObject, methodCache);
+    }
+
+    private void removeFromGlobal(CacheObject cacheObject, MethodCache methodCache) {
+        entries.remove(cacheObject.key);
+        methodCache.size -= cacheObject.weight;
+        size -= cacheObject.weight;
+    }
+
+    @Override
+    public synchronized void clearCache() {
+        entries.clear();
+        methods.clear();
+        clearSoft();
+        size = 0;
+    }
+
+    @Override
+    public void clearCache(Method method) {
+        clearCache(CacheMethod.getMethodId(method));
+    }
+
+    @Override
+    public void clearCache(Method method, Object... params) {
+        clearCache(CacheMethod.getMethodId(method), params);
+    }
+
+    @Override
+    public synchronized void clearCache(int methodId) {
+        purgeSoftEntries();
+        MethodCache methodCache = methods.remove(methodId);
+        if (methodCache != null) {
+            for (CacheObject cacheObject : methodCache.entries.values()) {
+                entries.remove(cacheObject.key);
+            }
+            size -= methodCache.size;
+        }
+        Iterator<SoftEntry> iterator = softEntries.values().iterator();
+        while (iterator.hasNext()) {
+            SoftEntry softEntry = iterator.next();
+            if (softEntry.key.getMethodId() == methodId) {
+                softSize -= softEntry.weight;
+                iterator.remove();
+            }
+        }
+    }
+
+    @Override
+    public void clearCache(int methodId, Object... params) {
+        clearCache(RequestFingerprint.create(methodId, params));
+    }
+
+    @Override
+    public synchronized void clearCache(RequestFingerprint fingerprint) {
+        purgeSoftEntries();
+        removeSoft(fingerprint);
+        MethodCache methodCache = methods.get(fingerprint.getMethodId());
+        if (methodCache != null) {
+            CacheObject cacheObject = methodCache.entries.get(fingerprint);
+            if (cacheObject != null) {
+                remove(cacheObject);
+            }
+        }
+    }
+
+    /**
+     * Sets optional byte limit for a single method.
+     *
+     * @param methodId method id
+     * @param maxSize  max size in bytes or 0 to remove limit
+     */
+    public synchronized void setMethodMaxSize(int methodId, long maxSize) {
+        if (maxSize > 0) {
+            methodMaxSizes.put(methodId, maxSize);
+        } else {
+            methodMaxSizes.remove(methodId);
+        }
+    }
+
+    public synchronized void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+        this.currentMaxSize = maxSize;
+        purgeSoftEntries();
+        trimToSize(maxSize);
+    }
+
+    public synchronized long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return budget in bytes, lower than {@link #getMaxSize()} after {@link #trimMemory(int)}
+     */
+    public synchronized long getCurrentMaxSize() {
+        return currentMaxSize;
+    }
+
+    public synchronized long getSize() {
+        return size;
+    }
+
+    @Override
+    public int getDebugFlags() {
+        return debugFlags;
+    }
+
+    @Override
+    public void setDebugFlags(int debugFlags) {
+        this.debugFlags = debugFlags;
+    }
+
+    @Override
+    public CacheStats getCacheStats() {
+        return cacheStats;
+    }
+
+    @Override
+    public void setCacheStats(CacheStats cacheStats) {
+        this.cacheStats = cacheStats;
+    }
+
+    static class MethodCache {
+        final LinkedHashMap<RequestFingerprint, CacheObject> entries = new LinkedHashMap<>(16, 0.75f, true);
+        long size;
+    }
+
+    static class SoftEntry extends SoftReference<CacheObject> {
+        final RequestFingerprint key;
+        final long weight;
+
+        SoftEntry(CacheObject cacheObject, ReferenceQueue<CacheObject> queue) {
+            super(cacheObject, queue);
+            this.key = cacheObject.key;
+            this.weight = cacheObject.weight;
+        }
+    }
+
+    static class CacheObject {
+        final RequestFingerprint key;
+        final long createTime;
+        final Object object;
+        final long weight;
+
+        CacheObject(RequestFingerprint key, long createTime, Object object, long weight) {
+            this.key = key;
+            this.createTime = createTime;
+            this.object = object;
+            this.weight = weight;
+        }
+    }
+}
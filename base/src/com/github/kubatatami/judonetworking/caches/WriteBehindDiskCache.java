@@ -0,0 +1,411 @@
+package com.github.kubatatami.judonetworking.caches;
+
+import com.github.kubatatami.judonetworking.Endpoint;
+import com.github.kubatatami.judonetworking.annotations.LocalCache;
+import com.github.kubatatami.judonetworking.internals.cache.CacheMethod;
+import com.github.kubatatami.judonetworking.internals.cache.RequestFingerprint;
+import com.github.kubatatami.judonetworking.internals.results.CacheResult;
+import com.github.kubatatami.judonetworking.internals.stats.CacheStats;
+import com.github.kubatatami.judonetworking.logs.JudoLogger;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Disk cache decorator which moves writes off the network thread.
+ * Puts are queued in a bounded map and written by a single low-priority thread,
+ * repeated puts of the same entry are coalesced and reads see queued entries.
+ * When the queue is full the oldest queued write is dropped.
+ * Objects are encoded when they are queued, so reads of queued entries return copies like the wrapped cache does.
+ * Entries are stored with the time they were queued, so the queue doesn't extend their life time.
+ * Queued writes are lost when the process is killed, call {@link #flush()} or {@link #close()} when they have to be stored.
+ */
+public class WriteBehindDiskCache implements DiskCache {
+
+    protected final DiskCache diskCache;
+    private final int maxQueueSize;
+    private final Object lock = new Object();
+    private final LinkedHashMap<PendingKey, PendingWrite> queue = new LinkedHashMap<>();
+    private PendingWrite writing;
+    private Thread writerThread;
+    private long writtenCount;
+    private long coalescedCount;
+    private long droppedCount;
+
+    public WriteBehindDiskCache(DiskCache diskCache) {
+        this(diskCache, 64);
+    }
+
+    public WriteBehindDiskCache(DiskCache diskCache, int maxQueueSize) {
+        this.diskCache = diskCache;
+        this.maxQueueSize = maxQueueSize;
+    }
+
+    @Override
+    public CacheResult get(CacheMethod method, RequestFingerprint fingerprint, int cacheLifeTime) {
+        PendingKey key = new PendingKey(method, fingerprint);
+        PendingWrite write;
+        synchronized (lock) {
+            write = queue.get(key);
+            if (write == null && writing != null && writing.key.equals(key)) {
+                write = writing;
+            }
+        }
+        //queued data is never modified, so it's decoded without holding the lock
+        if (write != null) {
+            if (cacheLifeTime == 0 || System.currentTimeMillis() - write.createTime < cacheLifeTime) {
+                if ((getDebugFlags() & Endpoint.CACHE_DEBUG) > 0) {
+                    JudoLogger.log("Cache(" + method + "): Get from write-behind queue " + fingerprint + ".");
+                }
+                Object object;
+                try {
+                    object = write.decode(getCodec());
+                } catch (IOException e) {
+                    JudoLogger.log(e);
+                    return new CacheResult();
+                }
+                CacheResult result = new CacheResult(object, true, write.method.getTime(), write.method.getHash());
+                result.key = fingerprint.getKey();
+                result.createTime = write.createTime;
+                result.expireTime = write.method.getExpireTime();
+                result.staleIfErrorTime = write.method.getStaleIfErrorTime();
+                return result;
+            }
+            return new CacheResult();
+        }
+        return diskCache.get(method, fingerprint, cacheLifeTime);
+    }
+
+    @Override
+    public void put(CacheMethod method, RequestFingerprint fingerprint, Object object, int maxSize) {
+        put(method, fingerprint, object, maxSize, System.currentTimeMillis());
+    }
+
+    @Override
+    public void put(CacheMethod method, RequestFingerprint fingerprint, Object object, int maxSize, long createTime) {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        try {
+            getCodec().encode(object, data);
+        } catch (IOException e) {
+            JudoLogger.log(e);
+            return;
+        }
+        PendingWrite write = new PendingWrite(new PendingKey(method, fingerprint), method, fingerprint, data.toByteArray(), maxSize, createTime);
+        synchronized (lock) {
+            if (queue.remove(write.key) != null) {
+                coalescedCount++;
+            } else if (queue.size() >= maxQueueSize) {
+                Iterator<PendingWrite> iterator = queue.values().iterator();
+                PendingWrite eldest = iterator.next();
+                iterator.remove();
+                droppedCount++;
+                if ((getDebugFlags() & Endpoint.CACHE_DEBUG) > 0) {
+                    JudoLogger.log("Cache(" + eldest.method + "): Write-behind queue full, dropped " + eldest.fingerprint + ".");
+                }
+            }
+            queue.put(write.key, write);
+            if (writerThread == null) {
+                writerThread = new WriterThread();
+                writerThread.start();
+            }
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Blocks until all queued writes are stored.
+     */
+    public void flush() {
+        flush(0);
+    }
+
+    /**
+     * Blocks until all queued writes are stored or timeout elapses.
+     *
+     * @param timeout timeout in milliseconds, 0 means no timeout
+     * @return true if the queue was flushed
+     */
+    public boolean flush(long timeout) {
+        long deadline = System.currentTimeMillis() + timeout;
+        synchronized (lock) {
+            try {
+                while (!queue.isEmpty() || writing != null) {
+                    if (timeout == 0) {
+                        lock.wait();
+                    } else {
+                        long remaining = deadline - System.currentTimeMillis();
+                        if (remaining <= 0) {
+                            return false;
+                        }
+                        lock.wait(remaining);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stores queued writes and stops the writer thread. A later put starts a new one,
+     * when the old thread doesn't write anymore.
+     */
+    public void close() {
+        flush();
+        Thread thread;
+        synchronized (lock) {
+            thread = writerThread;
+            if (thread != null) {
+                thread.interrupt();
+            }
+        }
+        if (thread != null) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public int getQueueDepth() {
+        synchronized (lock) {
+            return queue.size() + (writing != null ? 1 : 0);
+        }
+    }
+
+    public long getWrittenCount() {
+        synchronized (lock) {
+            return writtenCount;
+        }
+    }
+
+    public long getCoalescedCount() {
+        synchronized (lock) {
+            return coalescedCount;
+        }
+    }
+
+    public long getDroppedCount() {
+        synchronized (lock) {
+            return droppedCount;
+        }
+    }
+
+    @Override
+    public void clearCache() {
+        synchronized (lock) {
+            queue.clear();
+            awaitWriting();
+            diskCache.clearCache();
+        }
+    }
+
+    @Override
+    public void clearCache(CacheMethod method) {
+        synchronized (lock) {
+            Iterator<PendingWrite> iterator = queue.values().iterator();
+            while (iterator.hasNext()) {
+                PendingWrite write = iterator.next();
+                if (write.key.level == method.getCacheLevel() && write.key.methodKey.equals(method.getMethodKey())) {
+                    iterator.remove();
+                }
+            }
+            awaitWriting();
+            diskCache.clearCache(method);
+        }
+    }
+
+    @Override
+    public void clearCache(CacheMethod method, Object... params) {
+        synchronized (lock) {
+            queue.remove(new PendingKey(method, RequestFingerprint.create(method.getMethodId(), params)));
+            awaitWriting();
+            diskCache.clearCache(method, params);
+        }
+    }
+
+    @Override
+    public void clearCache(CacheMethod method, RequestFingerprint fingerprint) {
+        synchronized (lock) {
+            queue.remove(new PendingKey(method, fingerprint));
+            awaitWriting();
+            diskCache.clearCache(method, fingerprint);
+        }
+    }
+
+    @Override
+    public void clearTests() {
+        synchronized (lock) {
+            removePending("tests/");
+            awaitWriting();
+            diskCache.clearTests();
+        }
+    }
+
+    @Override
+    public void clearTest(String name) {
+        synchronized (lock) {
+            removePending("tests/" + name + "/");
+            awaitWriting();
+            diskCache.clearTest(name);
+        }
+    }
+
+    /**
+     * @return Bytes used by the wrapped cache, entries waiting in the queue aren't included.
+     */
+    @Override
+    public long getSize(LocalCache.CacheLevel cacheLevel) {
+        return diskCache.getSize(cacheLevel);
+    }
+
+    private void removePending(String methodKeyPrefix) {
+        Iterator<PendingWrite> iterator = queue.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().key.methodKey.startsWith(methodKeyPrefix)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private void awaitWriting() {
+        boolean interrupted = false;
+        while (writing != null) {
+            try {
+                lock.wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public CacheCodec getCodec() {
+        return diskCache.getCodec();
+    }
+
+    @Override
+    public void setCodec(CacheCodec codec) {
+        diskCache.setCodec(codec);
+    }
+
+    @Override
+    public CacheStats getCacheStats() {
+        return diskCache.getCacheStats();
+    }
+
+    @Override
+    public void setCacheStats(CacheStats cacheStats) {
+        diskCache.setCacheStats(cacheStats);
+    }
+
+    @Override
+    public int getDebugFlags() {
+        return diskCache.getDebugFlags();
+    }
+
+    @Override
+    public void setDebugFlags(int debugFlags) {
+        diskCache.setDebugFlags(debugFlags);
+    }
+
+    protected class WriterThread extends Thread {
+
+        public WriterThread() {
+            super("JudoNetworking WriteBehind");
+            setPriority(Thread.MIN_PRIORITY);
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_BACKGROUND);
+            while (true) {
+                PendingWrite write;
+                synchronized (lock) {
+                    while (queue.isEmpty()) {
+                        try {
+                            lock.wait();
+                        } catch (InterruptedException e) {
+                            //closed, the queue is empty and nothing is being written
+                            writerThread = null;
+                            return;
+                        }
+                    }
+                    Iterator<PendingWrite> iterator = queue.values().iterator();
+                    write = iterator.next();
+                    iterator.remove();
+                    writing = write;
+                }
+                try {
+                    diskCache.put(write.method, write.fingerprint, write.decode(getCodec()), write.maxSize, write.createTime);
+                } catch (IOException | RuntimeException e) {
+                    JudoLogger.log(e);
+                } finally {
+                    synchronized (lock) {
+                        writing = null;
+                        writtenCount++;
+                        lock.notifyAll();
+                    }
+                }
+            }
+        }
+    }
+
+    static class PendingKey {
+        final LocalCache.CacheLevel level;
+        final String methodKey;
+        final RequestFingerprint fingerprint;
+
+        PendingKey(CacheMethod method, RequestFingerprint fingerprint) {
+            this.level = method.getCacheLevel();
+            this.methodKey = method.getMethodKey();
+            this.fingerprint = fingerprint;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof PendingKey)) {
+                return false;
+            }
+            PendingKey that = (PendingKey) o;
+            return level == that.level && methodKey.equals(that.methodKey) && fingerprint.equals(that.fingerprint);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * methodKey.hashCode() + fingerprint.hashCode();
+        }
+    }
+
+    static class PendingWrite {
+        final PendingKey key;
+        final CacheMethod method;
+        final RequestFingerprint fingerprint;
+        final byte[] data;
+        final int maxSize;
+        final long createTime;
+
+        PendingWrite(PendingKey key, CacheMethod method, RequestFingerprint fingerprint, byte[] data, int maxSize, long createTime) {
+            this.key = key;
+            this.method = method;
+            this.fingerprint = fingerprint;
+            this.data = data;
+            this.maxSize = maxSize;
+            this.createTime = createTime;
+        }
+
+        Object decode(CacheCodec codec) throws IOException {
+            return codec.decode(new ByteArrayInputStream(data));
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package com.github.kubatatami.judonetworking.callbacks;
+
+/**
+ * Callback which additionally receives the fresh value of a
+ * {@link com.github.kubatatami.judonetworking.annotations.LocalCache#staleWhileRevalidate()} method
+ * after a stale one was delivered by {@link BaseCallback#onSuccess(Object)}.
+ */
+public interface RevalidateCallback<T> {
+
+    public void onRevalidated(T result);
+
+}
@@ -1,11 +1,11 @@
 package com.github.kubatatami.judonetworking.clonners;
 
+import com.github.kubatatami.judonetworking.caches.CacheCodec;
+import com.github.kubatatami.judonetworking.caches.SerializableCacheCodec;
 import com.github.kubatatami.judonetworking.exceptions.JudoException;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 
 /**
  * Created with IntelliJ IDEA.
@@ -16,21 +16,35 @@ import java.io.ObjectOutputStream;
  */
 public class DefaultClonner implements Clonner {
 
+    protected CacheCodec codec;
+
+    public DefaultClonner() {
+        this(new SerializableCacheCodec());
+    }
+
+    public DefaultClonner(CacheCodec codec) {
+        this.codec = codec;
+    }
+
     @Override
+    @SuppressWarnings("unchecked")
     public <T> T clone(T object) throws JudoException {
         try {
             ByteArrayOutputStream bos = new ByteArrayOutputStream();
-            ObjectOutputStream out = new ObjectOutputStream(bos);
-            out.writeObject(object);
-            out.flush();
-            out.close();
-            ObjectInputStream in = new ObjectInputStream(
-                    new ByteArrayInputStream(bos.toByteArray()));
-            object = (T) in.readObject();
+            codec.encode(object, bos);
+            object = (T) codec.decode(new ByteArrayInputStream(bos.toByteArray()));
         } catch (Exception e) {
             throw new JudoException("Can't clone object " + object.getClass().getName(), e);
         }
         return object;
     }
 
+    public CacheCodec getCodec() {
+        return codec;
+    }
+
+    public void setCodec(CacheCodec codec) {
+        this.codec = codec;
+    }
+
 }
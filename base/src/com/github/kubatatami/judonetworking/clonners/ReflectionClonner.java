@@ -0,0 +1,198 @@
+package com.github.kubatatami.judonetworking.clonners;
+
+import com.github.kubatatami.judonetworking.exceptions.JudoException;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Clonner which copies object graphs field by field.
+ * A copy plan (fields, constructor, immutable fields) is built once per class and cached.
+ * Strings, boxed primitives and enums are shared, shared references and cycles are preserved.
+ * Transient fields are copied by reference.
+ * Classes without a no-arg constructor are cloned with the fallback clonner.
+ */
+public class ReflectionClonner implements Clonner {
+
+    protected final Clonner fallbackClonner;
+    private final Map<Class<?>, ClassPlan> plans = new ConcurrentHashMap<>();
+
+    public ReflectionClonner() {
+        this(new DefaultClonner());
+    }
+
+    public ReflectionClonner(Clonner fallbackClonner) {
+        this.fallbackClonner = fallbackClonner;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T clone(T object) throws JudoException {
+        try {
+            return (T) copy(object, new IdentityHashMap<Object, Object>());
+        } catch (JudoException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new JudoException("Can't clone object " + object.getClass().getName(), e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    protected Object copy(Object object, IdentityHashMap<Object, Object> copies) throws Exception {
+        if (object == null) {
+            return null;
+        }
+        ClassPlan plan = getPlan(object.getClass());
+        if (plan.kind == Kind.IMMUTABLE) {
+            return object;
+        }
+        Object copy = copies.get(object);
+        if (copy != null) {
+            return copy;
+        }
+        switch (plan.kind) {
+            case PRIMITIVE_ARRAY: {
+                int length = Array.getLength(object);
+                copy = Array.newInstance(object.getClass().getComponentType(), length);
+                System.arraycopy(object, 0, copy, 0, length);
+                copies.put(object, copy);
+                return copy;
+            }
+            case ARRAY: {
+                Object[] array = (Object[]) object;
+                Object[] arrayCopy = (Object[]) Array.newInstance(object.getClass().getComponentType(), array.length);
+                copies.put(object, arrayCopy);
+                for (int i = 0; i < array.length; i++) {
+                    arrayCopy[i] = copy(array[i], copies);
+                }
+                return arrayCopy;
+            }
+            case COLLECTION: {
+                Collection<Object> collectionCopy = (Collection<Object>) newInstance(plan, object);
+                copies.put(object, collectionCopy);
+                for (Object element : (Collection<Object>) object) {
+                    collectionCopy.add(copy(element, copies));
+                }
+                return collectionCopy;
+            }
+            case MAP: {
+                Map<Object, Object> mapCopy = (Map<Object, Object>) newInstance(plan, object);
+                copies.put(object, mapCopy);
+                for (Map.Entry<Object, Object> entry : ((Map<Object, Object>) object).entrySet()) {
+                    mapCopy.put(copy(entry.getKey(), copies), copy(entry.getValue(), copies));
+                }
+                return mapCopy;
+            }
+            case OBJECT: {
+                copy = plan.constructor.newInstance();
+                copies.put(object, copy);
+                for (int i = 0; i < plan.fields.length; i++) {
+                    Field field = plan.fields[i];
+                    Object value = field.get(object);
+                    field.set(copy, plan.deepFields[i] ? copy(value, copies) : value);
+                }
+                return copy;
+            }
+            default: {
+                copy = fallbackClonner.clone(object);
+                copies.put(object, copy);
+                return copy;
+            }
+        }
+    }
+
+    protected Object newInstance(ClassPlan plan, Object object) throws Exception {
+        if (object instanceof TreeMap) {
+            return plan.constructor.newInstance(((TreeMap) object).comparator());
+        } else if (object instanceof TreeSet) {
+            return plan.constructor.newInstance(((TreeSet) object).comparator());
+        } else {
+            return plan.constructor.newInstance();
+        }
+    }
+
+    protected ClassPlan getPlan(Class<?> clazz) {
+        ClassPlan plan = plans.get(clazz);
+        if (plan == null) {
+            plan = createPlan(clazz);
+            plans.put(clazz, plan);
+        }
+        return plan;
+    }
+
+    protected ClassPlan createPlan(Class<?> clazz) {
+        if (isImmutable(clazz)) {
+            return new ClassPlan(Kind.IMMUTABLE);
+        }
+        if (clazz.isArray()) {
+            return new ClassPlan(clazz.getComponentType().isPrimitive() ? Kind.PRIMITIVE_ARRAY : Kind.ARRAY);
+        }
+        Kind kind = Collection.class.isAssignableFrom(clazz) ? Kind.COLLECTION
+                : Map.class.isAssignableFrom(clazz) ? Kind.MAP : Kind.OBJECT;
+        ClassPlan plan = new ClassPlan(kind);
+        try {
+            if (clazz == TreeMap.class || clazz == TreeSet.class) {
+                plan.constructor = clazz.getConstructor(Comparator.class);
+            } else {
+                plan.constructor = clazz.getDeclaredConstructor();
+                plan.constructor.setAccessible(true);
+            }
+        } catch (NoSuchMethodException e) {
+            return new ClassPlan(Kind.FALLBACK);
+        }
+        if (kind == Kind.OBJECT) {
+            List<Field> fields = new ArrayList<>();
+            for (Class<?> current = clazz; current != null && current != Object.class; current = current.getSuperclass()) {
+                for (Field field : current.getDeclaredFields()) {
+                    if (!Modifier.isStatic(field.getModifiers())) {
+                        field.setAccessible(true);
+                        fields.add(field);
+                    }
+                }
+            }
+            plan.fields = fields.toArray(new Field[fields.size()]);
+            plan.deepFields = new boolean[plan.fields.length];
+            for (int i = 0; i < plan.fields.length; i++) {
+                Field field = plan.fields[i];
+                plan.deepFields[i] = !field.getType().isPrimitive() && !isImmutable(field.getType())
+                        && !Modifier.isTransient(field.getModifiers());
+            }
+        }
+        return plan;
+    }
+
+    protected boolean isImmutable(Class<?> clazz) {
+        return clazz == String.class || clazz == Integer.class || clazz == Long.class || clazz == Boolean.class
+                || clazz == Double.class || clazz == Float.class || clazz == Short.class || clazz == Byte.class
+                || clazz == Character.class || clazz == BigDecimal.class || clazz == BigInteger.class
+                || clazz == Class.class || clazz.isEnum() || (clazz.getSuperclass() != null && clazz.getSuperclass().isEnum());
+    }
+
+    protected enum Kind {
+        IMMUTABLE, PRIMITIVE_ARRAY, ARRAY, COLLECTION, MAP, OBJECT, FALLBACK
+    }
+
+    protected static class ClassPlan {
+        final Kind kind;
+        Constructor<?> constructor;
+        Field[] fields;
+        boolean[] deepFields;
+
+        ClassPlan(Kind kind) {
+            this.kind = kind;
+        }
+    }
+}
@@ -60,6 +60,17 @@ public abstract class ProtocolController {
         throw new UnsupportedOperationException("ParseResponses not implemented.");
     }
 
+    public boolean isDeltaSyncSupported() {
+        return false;
+    }
+
+    /**
+     * Applies changes received for a {@link com.github.kubatatami.judonetworking.annotations.DeltaSync} request to the cached result.
+     */
+    public RequestResult parseDeltaResponse(Request request, InputStream stream, Map<String, List<String>> headers, Object cachedResult) {
+        throw new UnsupportedOperationException("ParseDeltaResponse not implemented.");
+    }
+
     public void parseError(int code, String resp) throws JudoException {
 
     }
@@ -1,6 +1,7 @@
 package com.github.kubatatami.judonetworking.internals;
 
 import android.content.Context;
+import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
 
@@ -10,19 +11,29 @@ import com.github.kubatatami.judonetworking.EndpointClassic;
 import com.github.kubatatami.judonetworking.Request;
 import com.github.kubatatami.judonetworking.annotations.IgnoreNullParam;
 import com.github.kubatatami.judonetworking.batches.Batch;
+import com.github.kubatatami.judonetworking.caches.CacheCodec;
+import com.github.kubatatami.judonetworking.caches.CompressedCacheCodec;
 import com.github.kubatatami.judonetworking.caches.DefaultDiskCache;
 import com.github.kubatatami.judonetworking.caches.DefaultMemoryCache;
 import com.github.kubatatami.judonetworking.caches.DiskCache;
 import com.github.kubatatami.judonetworking.caches.MemoryCache;
+import com.github.kubatatami.judonetworking.caches.SerializableCacheCodec;
 import com.github.kubatatami.judonetworking.callbacks.Callback;
 import com.github.kubatatami.judonetworking.clonners.Clonner;
 import com.github.kubatatami.judonetworking.clonners.DefaultClonner;
 import com.github.kubatatami.judonetworking.controllers.ProtocolController;
 import com.github.kubatatami.judonetworking.exceptions.CancelException;
 import com.github.kubatatami.judonetworking.exceptions.JudoException;
+import com.github.kubatatami.judonetworking.internals.cache.CachePrewarmer;
+import com.github.kubatatami.judonetworking.internals.cache.CacheSweeper;
+import com.github.kubatatami.judonetworking.internals.cache.CacheTagIndex;
+import com.github.kubatatami.judonetworking.internals.cache.FailureCache;
+import com.github.kubatatami.judonetworking.internals.cache.HotKeys;
+import com.github.kubatatami.judonetworking.internals.cache.MemoryTrimCallbacks;
 import com.github.kubatatami.judonetworking.internals.executors.JudoExecutor;
 import com.github.kubatatami.judonetworking.internals.requests.RequestImpl;
 import com.github.kubatatami.judonetworking.internals.requests.RequestOptions;
+import com.github.kubatatami.judonetworking.internals.stats.CacheStats;
 import com.github.kubatatami.judonetworking.internals.stats.MethodStat;
 import com.github.kubatatami.judonetworking.utils.ReflectionCache;
 import com.github.kubatatami.judonetworking.internals.virtuals.VirtualServerInfo;
@@ -33,12 +44,14 @@ import com.github.kubatatami.judonetworking.threads.ThreadPoolSizer;
 import com.github.kubatatami.judonetworking.transports.TransportLayer;
 import com.github.kubatatami.judonetworking.utils.NetworkUtils;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Field;
 import java.lang.reflect.ParameterizedType;
@@ -70,7 +83,9 @@ public class EndpointImpl implements Endpoint, EndpointClassic {
     private float percentLoss;
     private int maxStatFileSize = 50; //KB
     private Set<ErrorLogger> errorLoggers = new HashSet<>();
-    private Clonner clonner = new DefaultClonner();
+    private CacheCodec cacheCodec = new SerializableCacheCodec();
+    private int cacheCompressionMinSize = CompressedCacheCodec.DEFAULT_MIN_SIZE;
+    private Clonner clonner = new DefaultClonner(cacheCodec);
     private boolean test = false;
     private String testName = null;
     private int testRevision = 0;
@@ -88,6 +103,11 @@ public class EndpointImpl implements Endpoint, EndpointClassic {
     private UrlModifier urlModifier;
     private OnRequestEventListener onRequestEventListener;
     private int requestCount = 0;
+    private HotKeys hotKeys;
+    private CacheSweeper cacheSweeper = new CacheSweeper(this);
+    private CacheTagIndex cacheTagIndex;
+    private FailureCache failureCache = new FailureCache(256);
+    private CacheStats cacheStats = new CacheStats();
 
     public EndpointImpl(Context context, ProtocolController protocolController, TransportLayer transportLayer, String url) {
         init(context, protocolController, transportLayer, url);
@@ -100,8 +120,16 @@ public class EndpointImpl implements Endpoint, EndpointClassic {
         this.protocolController = protocolController;
         this.url = url;
         this.statFile = new File(context.getCacheDir(), "stats");
+        this.hotKeys = new HotKeys(new File(context.getCacheDir(), "hot_keys"), 256);
+        this.cacheTagIndex = new CacheTagIndex(this, new File(context.getCacheDir(), "cache_tags"));
         this.memoryCache = new DefaultMemoryCache(context);
+        this.memoryCache.setCacheStats(cacheStats);
         this.diskCache = new DefaultDiskCache(context);
+        this.diskCache.setCodec(getDiskCacheCodec());
+        this.diskCache.setCacheStats(cacheStats);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
+            MemoryTrimCallbacks.register(context, this);
+        }
     }
 
     public HashMap<Class, VirtualServerInfo> getVirtualServers() {
@@ -440,10 +468,96 @@ public class EndpointImpl implements Endpoint, EndpointClassic {
     }
 
 
-    void setMemoryCache(MemoryCache memoryCache) {
+    @Override
+    public void setMemoryCache(MemoryCache memoryCache) {
+        memoryCache.setDebugFlags(debugFlags);
+        memoryCache.setCacheStats(cacheStats);
         this.memoryCache = memoryCache;
     }
 
+    @Override
+    public void setDiskCache(DiskCache diskCache) {
+        diskCache.setDebugFlags(debugFlags);
+        diskCache.setCodec(getDiskCacheCodec());
+        diskCache.setCacheStats(cacheStats);
+        this.diskCache = diskCache;
+    }
+
+    @Override
+    public CacheCodec getCacheCodec() {
+        return cacheCodec;
+    }
+
+    @Override
+    public void setCacheCodec(CacheCodec cacheCodec) {
+        this.cacheCodec = cacheCodec;
+        diskCache.setCodec(getDiskCacheCodec());
+        if (clonner instanceof DefaultClonner) {
+            ((DefaultClonner) clonner).setCodec(cacheCodec);
+        }
+    }
+
+    @Override
+    public void setCacheCompressionMinSize(int minSize) {
+        this.cacheCompressionMinSize = minSize;
+        diskCache.setCodec(getDiskCacheCodec());
+    }
+
+    protected CacheCodec getDiskCacheCodec() {
+        return cacheCompressionMinSize > 0 ? new CompressedCacheCodec(cacheCodec, cacheCompressionMinSize) : cacheCodec;
+    }
+
+    @Override
+    public long getCoalescedRequestCount() {
+        return requestConnector.getCoalescedCount();
+    }
+
+    @Override
+    public void prewarmCache(Class<?> api, int maxEntries) {
+        if (cacheEnabled && !test) {
+            Thread thread = new Thread(new CachePrewarmer(this, api, maxEntries), "JudoNetworking Prewarm");
+            thread.setPriority(Thread.MIN_PRIORITY);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    @Override
+    public void prewarmCache(Class<?> api) {
+        prewarmCache(api, 64);
+    }
+
+    public HotKeys getHotKeys() {
+        return hotKeys;
+    }
+
+    @Override
+    public CacheStats getCacheStats() {
+        return cacheStats;
+    }
+
+    public CacheSweeper getCacheSweeper() {
+        return cacheSweeper;
+    }
+
+    public CacheTagIndex getCacheTagIndex() {
+        return cacheTagIndex;
+    }
+
+    public FailureCache getFailureCache() {
+        return failureCache;
+    }
+
+    @Override
+    public int invalidateTag(String tag) {
+        return cacheTagIndex.invalidate(tag);
+    }
+
+    @Override
+    public int invalidateTagPrefix(String prefix) {
+        return cacheTagIndex.invalidatePrefix(prefix);
+    }
+
 
     public DiskCache getDiskCache() {
         return diskCache;
@@ -498,21 +612,16 @@ public class EndpointImpl implements Endpoint, EndpointClassic {
     public Map<String, MethodStat> getStats() {
         if (stats == null) {
             if (statFile.exists() && statFile.length() < maxStatFileSize * 1024) {
-                FileInputStream fileStream = null;
-                ObjectInputStream os = null;
+                InputStream fileStream = null;
                 try {
-                    fileStream = new FileInputStream(statFile);
-                    os = new ObjectInputStream(fileStream);
-                    stats = (Map<String, MethodStat>) os.readObject();
+                    fileStream = new BufferedInputStream(new FileInputStream(statFile));
+                    stats = Collections.synchronizedMap((Map<String, MethodStat>) cacheCodec.decode(fileStream));
 
                 } catch (Exception e) {
                     JudoLogger.log(e);
                     stats = Collections.synchronizedMap(new HashMap<String, MethodStat>());
                 } finally {
                     try {
-                        if (os != null) {
-                            os.close();
-                        }
                         if (fileStream != null) {
                             fileStream.close();
                         }
@@ -529,10 +638,16 @@ public class EndpointImpl implements Endpoint, EndpointClassic {
 
     public void saveStat() {
         try {
-            ObjectOutputStream os = new ObjectOutputStream(new FileOutputStream(statFile));
-            os.writeObject(stats);
-            os.flush();
-            os.close();
+            Map<String, MethodStat> statsCopy;
+            synchronized (stats) {
+                statsCopy = new HashMap<>(stats);
+            }
+            OutputStream os = new BufferedOutputStream(new FileOutputStream(statFile));
+            try {
+                cacheCodec.encode(statsCopy, os);
+            } finally {
+                os.close();
+            }
         } catch (IOException e) {
             JudoLogger.log(e);
         }
@@ -5,7 +5,9 @@ import android.util.Base64;
 
 import com.github.kubatatami.judonetworking.Endpoint;
 import com.github.kubatatami.judonetworking.annotations.Base64Param;
+import com.github.kubatatami.judonetworking.annotations.DeltaSync;
 import com.github.kubatatami.judonetworking.annotations.LocalCache;
+import com.github.kubatatami.judonetworking.annotations.NegativeCache;
 import com.github.kubatatami.judonetworking.annotations.ProcessingMethod;
 import com.github.kubatatami.judonetworking.annotations.Required;
 import com.github.kubatatami.judonetworking.annotations.RequiredList;
@@ -13,16 +15,23 @@ import com.github.kubatatami.judonetworking.controllers.ProtocolController;
 import com.github.kubatatami.judonetworking.exceptions.AuthException;
 import com.github.kubatatami.judonetworking.exceptions.CancelException;
 import com.github.kubatatami.judonetworking.exceptions.ConnectionException;
+import com.github.kubatatami.judonetworking.exceptions.HttpException;
 import com.github.kubatatami.judonetworking.exceptions.JudoException;
+import com.github.kubatatami.judonetworking.exceptions.ProtocolException;
 import com.github.kubatatami.judonetworking.exceptions.VerifyModelException;
 import com.github.kubatatami.judonetworking.CacheInfo;
+import com.github.kubatatami.judonetworking.callbacks.RevalidateCallback;
 import com.github.kubatatami.judonetworking.internals.cache.CacheMethod;
+import com.github.kubatatami.judonetworking.internals.cache.RequestFingerprint;
+import com.github.kubatatami.judonetworking.internals.requests.InFlightCall;
 import com.github.kubatatami.judonetworking.internals.requests.RequestImpl;
 import com.github.kubatatami.judonetworking.internals.results.CacheResult;
 import com.github.kubatatami.judonetworking.internals.results.ErrorResult;
 import com.github.kubatatami.judonetworking.internals.results.NoNewResult;
+import com.github.kubatatami.judonetworking.internals.results.RawResponse;
 import com.github.kubatatami.judonetworking.internals.results.RequestResult;
 import com.github.kubatatami.judonetworking.internals.results.RequestSuccessResult;
+import com.github.kubatatami.judonetworking.internals.stats.CacheStats;
 import com.github.kubatatami.judonetworking.internals.stats.MethodStat;
 import com.github.kubatatami.judonetworking.internals.stats.TimeStat;
 import com.github.kubatatami.judonetworking.internals.streams.RequestInputStream;
@@ -33,22 +42,29 @@ import com.github.kubatatami.judonetworking.logs.JudoLogger;
 import com.github.kubatatami.judonetworking.transports.TransportLayer;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.Scanner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class RequestConnector {
 
     private final EndpointImpl rpc;
     private final TransportLayer transportLayer;
     private final Random randomGenerator = new Random();
+    private final ConcurrentHashMap<RequestFingerprint, Boolean> revalidating = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<RequestFingerprint, InFlightCall> inFlightCalls = new ConcurrentHashMap<>();
+    private final AtomicLong coalescedCount = new AtomicLong();
 
     public RequestConnector(EndpointImpl rpc, TransportLayer transportLayer) {
         this.rpc = rpc;
@@ -65,14 +81,17 @@ public class RequestConnector {
     }
 
     private RequestResult sendRequest(RequestImpl request, TimeStat timeStat) {
-        return sendRequest(request, timeStat, null, null, false);
+        return sendRequest(request, timeStat, null, null, null, false);
     }
 
     private RequestResult sendRequest(RequestImpl request, TimeStat timeStat, String hash, Long time) {
-        return sendRequest(request, timeStat, hash, time, false);
+        return sendRequest(request, timeStat, hash, time, null, false);
     }
 
-    private RequestResult sendRequest(RequestImpl request, TimeStat timeStat, String hash, Long time, boolean ignoreTokenError) {
+    /**
+     * @param deltaBase cached result of a @DeltaSync request which the server may send changes for, null otherwise
+     */
+    private RequestResult sendRequest(RequestImpl request, TimeStat timeStat, String hash, Long time, Object deltaBase, boolean ignoreTokenError) {
         try {
             RequestResult result;
             long currentTokenExpireTimestamp;
@@ -97,15 +116,21 @@ public class RequestConnector {
                         return new ErrorResult(request.getId(), new AuthException("Can't obtain api token", ex));
                     }
                 }
+                TransportLayer.CacheInfo cacheInfo = new TransportLayer.CacheInfo(hash, time);
+                if (deltaBase != null) {
+                    cacheInfo.instanceManipulation = DeltaSync.INSTANCE_MANIPULATION;
+                }
                 TransportLayer.Connection conn = transportLayer.send(request.getName(), controller, requestInfo, request.getTimeout(), timeStat,
-                        rpc.getDebugFlags(), request.getMethod(), new TransportLayer.CacheInfo(hash, time));
+                        rpc.getDebugFlags(), request.getMethod(), cacheInfo);
                 EndpointImpl.checkThread();
                 if (!conn.isNewestAvailable()) {
                     if ((rpc.getDebugFlags() & Endpoint.RESPONSE_DEBUG) > 0) {
                         JudoLogger.log("No new data for method " + request.getName());
                     }
 
-                    return new NoNewResult();
+                    NoNewResult noNewResult = new NoNewResult();
+                    setFreshness(noNewResult, conn.getFreshness());
+                    return noNewResult;
                 }
 
                 InputStream connectionStream = conn.getStream();
@@ -117,11 +142,27 @@ public class RequestConnector {
                 }
                 RequestInputStream stream = new RequestInputStream(connectionStream, timeStat, conn.getContentLength());
                 EndpointImpl.checkThread();
-                result = controller.parseResponse(request, stream, conn.getHeaders());
+                byte[] rawBody = null;
+                if (deltaBase != null && isDeltaResponse(conn.getHeaders())) {
+                    //changes are not a complete response, so the result is stored parsed
+                    result = controller.parseDeltaResponse(request, stream, conn.getHeaders(), deltaBase);
+                    if ((rpc.getDebugFlags() & Endpoint.RESPONSE_DEBUG) > 0) {
+                        JudoLogger.log("Changes applied to cached result of method " + request.getName());
+                    }
+                } else if (request.isRawResponseRequired()) {
+                    rawBody = getByteArray(stream);
+                    result = controller.parseResponse(request, new ByteArrayInputStream(rawBody), conn.getHeaders());
+                } else {
+                    result = controller.parseResponse(request, stream, conn.getHeaders());
+                }
                 EndpointImpl.checkThread();
                 if (result instanceof RequestSuccessResult) {
                     result.hash = conn.getHash();
                     result.time = conn.getDate();
+                    setFreshness(result, conn.getFreshness());
+                    if (rawBody != null) {
+                        result.rawResponse = new RawResponse(rawBody, conn.getHeaders(), controller.getClass().getName());
+                    }
                 }
                 try {
                     stream.close();
@@ -137,7 +178,7 @@ public class RequestConnector {
                     doTokenRequest(currentTokenExpireTimestamp);
                     request.clearProgress();
                     request.setAdditionalControllerData(rpc.getProtocolController().getAdditionalRequestData());
-                    return sendRequest(request, timeStat, hash, time, true);
+                    return sendRequest(request, timeStat, hash, time, deltaBase, true);
                 } catch (Exception ex) {
                     return new ErrorResult(request.getId(), new AuthException("Can't obtain api token", ex));
                 }
@@ -158,6 +199,127 @@ public class RequestConnector {
 
     }
 
+    protected static boolean isDeltaResponse(Map<String, List<String>> headers) {
+        if (headers != null) {
+            for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+                if ("IM".equalsIgnoreCase(header.getKey()) && header.getValue() != null) {
+                    for (String value : header.getValue()) {
+                        if (value != null && value.contains(DeltaSync.INSTANCE_MANIPULATION)) {
+                            return true;
+                        }
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return parsed cached result which changes may be requested for or null if delta sync can't be used
+     */
+    protected Object getDeltaBase(RequestImpl request, CacheResult cacheObject) {
+        if (cacheObject.hash == null || !request.isDeltaSync() || !rpc.getProtocolController().isDeltaSyncSupported()) {
+            return null;
+        }
+        CacheResult resolved = resolveRawResponse(request, new CacheResult(cacheObject.object, cacheObject.result, cacheObject.time, cacheObject.hash));
+        return resolved.result ? resolved.object : null;
+    }
+
+    protected static void setFreshness(RequestResult result, TransportLayer.Freshness freshness) {
+        if (freshness != null) {
+            result.expireTime = freshness.expireTime;
+            result.staleIfErrorTime = freshness.staleIfErrorTime;
+        }
+    }
+
+    /**
+     * @return true if the ServerCache entry is fresh according to Cache-Control or Expires of its response
+     */
+    protected static boolean isServerCacheFresh(CacheResult cacheObject) {
+        return cacheObject.expireTime > System.currentTimeMillis();
+    }
+
+    protected CacheResult getServerCacheObject(RequestImpl request) {
+        if (rpc.isCacheEnabled() && request.isServerCacheable()) {
+            CacheMethod cacheMethod = new CacheMethod(request.getMethodId(), request.getName(), request.getMethod().getDeclaringClass().getSimpleName(), rpc.getUrl(), request.getServerCacheLevel());
+            return getFromDiskCache(request, cacheMethod, 0);
+        }
+        return null;
+    }
+
+    /**
+     * @return true if the ServerCache entry exists, is fresh and its raw response can be parsed
+     */
+    protected boolean isServerCacheFresh(RequestImpl request, CacheResult cacheObject) {
+        return cacheObject != null && cacheObject.result && isServerCacheFresh(cacheObject) && resolveRawResponse(request, cacheObject).result;
+    }
+
+    /**
+     * @return true if the ServerCache entry may be returned instead of an error: useOldOnError or stale-if-error
+     */
+    protected static boolean isServerCacheUsableOnError(RequestImpl request, CacheResult cacheObject) {
+        return request.useServerCacheOldOnError() || cacheObject.staleIfErrorTime > System.currentTimeMillis();
+    }
+
+    /**
+     * Stores a response with a validator or freshness in ServerCache.
+     */
+    public void putServerCache(RequestImpl request, RequestResult result, Object object) {
+        if (result.hash != null || result.time != null || result.expireTime > 0) {
+            CacheMethod cacheMethod = new CacheMethod(request.getMethodId(), request.getName(), request.getMethod().getDeclaringClass().getSimpleName(), rpc.getUrl(),
+                    result.hash, result.time, result.expireTime, result.staleIfErrorTime, request.getServerCacheLevel());
+            rpc.getDiskCache().put(cacheMethod, request.getFingerprint(), request.isServerCacheRaw() && result.rawResponse != null ? result.rawResponse : object, request.getServerCacheSize());
+        }
+    }
+
+    protected static byte[] getByteArray(InputStream stream) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        int nRead;
+        byte[] data = new byte[16384];
+        while ((nRead = stream.read(data, 0, data.length)) != -1) {
+            buffer.write(data, 0, nRead);
+        }
+        return buffer.toByteArray();
+    }
+
+    /**
+     * Parses a response stored by disk cache in raw mode with the current protocol controller.
+     */
+    public Object parseRawResponse(RequestImpl request, RawResponse rawResponse) throws JudoException {
+        ProtocolController controller = rpc.getProtocolController();
+        if (!controller.getClass().getName().equals(rawResponse.controller)) {
+            throw new JudoException("Raw response of " + request.getName() + " was stored by " + rawResponse.controller);
+        }
+        RequestResult result = controller.parseResponse(request, new ByteArrayInputStream(rawResponse.body), rawResponse.headers);
+        if (result.error != null) {
+            throw result.error;
+        }
+        if (rpc.isVerifyResultModel()) {
+            verifyResult(request, result);
+        }
+        if (rpc.isProcessingMethod()) {
+            processingMethod(result.result);
+        }
+        return result.result;
+    }
+
+    /**
+     * Replaces a raw response found in disk cache with the parsed object.
+     * A response which can't be parsed anymore is treated as a cache miss.
+     */
+    public CacheResult resolveRawResponse(RequestImpl request, CacheResult cacheResult) {
+        if (cacheResult.result && cacheResult.object instanceof RawResponse) {
+            try {
+                cacheResult.object = parseRawResponse(request, (RawResponse) cacheResult.object);
+            } catch (JudoException e) {
+                JudoLogger.log(e);
+                cacheResult.object = null;
+                cacheResult.result = false;
+            }
+        }
+        return cacheResult;
+    }
+
     protected boolean checkTokenExpireTimestamp(long tokenExpireTimestamp) {
         return (tokenExpireTimestamp == 0 || (tokenExpireTimestamp != -1 && tokenExpireTimestamp > System.currentTimeMillis()));
     }
@@ -371,6 +533,7 @@ public class RequestConnector {
                     if (object instanceof byte[]) {
                         Base64Param ann = findBase64Annotation(annotations[i]);
                         if (ann != null) {
+                            request.getFingerprint(); //cache key must not depend on encoded form
                             request.getArgs()[i] = ann.prefix() + Base64.encodeToString((byte[]) object, ann.type()) + ann.suffix();
                         }
                     }
@@ -382,67 +545,210 @@ public class RequestConnector {
 
     @SuppressWarnings("unchecked")
     public Object call(RequestImpl request) throws JudoException {
-        try {
+        CacheResult localCacheObject = null;
+        CacheResult revalidationObject = null;
+        TimeStat timeStat = new TimeStat(request);
 
-            CacheResult localCacheObject = null;
-            CacheResult serverCacheObject = null;
-            TimeStat timeStat = new TimeStat(request);
 
-
-            if ((rpc.isCacheEnabled() && request.isLocalCacheable()) || rpc.isTest()) {
-                LocalCache.CacheLevel cacheLevel = rpc.isTest() ? LocalCache.CacheLevel.DISK_CACHE : request.getLocalCacheLevel();
-                localCacheObject = rpc.getMemoryCache().get(request.getMethodId(), request.getArgs(), rpc.isTest() ? 0 : request.getLocalCacheLifeTime(), request.getLocalCacheSize());
+        if ((rpc.isCacheEnabled() && request.isLocalCacheable()) || rpc.isTest()) {
+            LocalCache.CacheLevel cacheLevel = rpc.isTest() ? LocalCache.CacheLevel.DISK_CACHE : request.getLocalCacheLevel();
+            if (!rpc.isTest() && cacheLevel != LocalCache.CacheLevel.MEMORY_ONLY) {
+                rpc.getHotKeys().record(request.getFingerprint());
+            }
+            localCacheObject = getFromMemoryCache(request, rpc.isTest() ? 0 : getLocalCacheSearchLifeTime(request));
+            if (localCacheObject.result) {
+                if (request.getLocalCacheOnlyOnErrorMode().equals(LocalCache.OnlyOnError.NO)) {
+                    return returnLocalCacheObject(request, localCacheObject, timeStat);
+                }
+            } else if (cacheLevel != LocalCache.CacheLevel.MEMORY_ONLY) {
+                CacheMethod cacheMethod = new CacheMethod(request.getMethodId(), request.getName(), request.getMethod().getDeclaringClass().getSimpleName(), rpc.getTestName(), rpc.getTestRevision(), rpc.getUrl(), cacheLevel);
+                localCacheObject = getLocalCacheFromDisk(request, cacheMethod);
+                if (isLocalCacheExpired(request, localCacheObject)) {
+                    revalidationObject = localCacheObject;
+                    localCacheObject = new CacheResult();
+                }
                 if (localCacheObject.result) {
-                    if (request.getLocalCacheOnlyOnErrorMode().equals(LocalCache.OnlyOnError.NO)) {
-                        request.invokeStart(new CacheInfo(true, localCacheObject.time));
-                        timeStat.tickCacheTime();
-                        return localCacheObject.object;
+                    if (!rpc.isTest()) {  //we don't know when test will be stop
+                        rpc.getMemoryCache().put(request.getFingerprint(), localCacheObject.object, request.getLocalCacheSize(), localCacheObject.getCreateTimeOrNow());
+                        scheduleLocalCacheExpiry(request, localCacheObject.createTime);
+                        tagLocalCache(request);
                     }
-                } else if (cacheLevel != LocalCache.CacheLevel.MEMORY_ONLY) {
-                    CacheMethod cacheMethod = new CacheMethod(CacheMethod.getMethodId(request.getMethod()), request.getName(), request.getMethod().getDeclaringClass().getSimpleName(), rpc.getTestName(), rpc.getTestRevision(), rpc.getUrl(), cacheLevel);
-                    localCacheObject = rpc.getDiskCache().get(cacheMethod, Arrays.deepToString(request.getArgs()), request.getLocalCacheLifeTime());
-                    if (localCacheObject.result) {
-                        if (!rpc.isTest()) {  //we don't know when test will be stop
-                            rpc.getMemoryCache().put(request.getMethodId(), request.getArgs(), localCacheObject.object, request.getLocalCacheSize());
-                        }
-                        if (request.getLocalCacheOnlyOnErrorMode().equals(LocalCache.OnlyOnError.NO)) {
-                            request.invokeStart(new CacheInfo(true, localCacheObject.time));
-                            timeStat.tickCacheTime();
-                            return localCacheObject.object;
-                        }
+                    if (request.getLocalCacheOnlyOnErrorMode().equals(LocalCache.OnlyOnError.NO)) {
+                        return returnLocalCacheObject(request, localCacheObject, timeStat);
                     }
+                }
+
+            }
+        }
+
+        findAndCreateBase64(request);
+        CacheResult serverCacheObject = getServerCacheObject(request);
+        if (isServerCacheFresh(request, serverCacheObject)) {
+            if ((rpc.getDebugFlags() & Endpoint.CACHE_DEBUG) > 0) {
+                JudoLogger.log("Cache(" + request.getName() + "): Server cache is fresh, skipping revalidation.");
+            }
+            request.invokeStart(new CacheInfo(true, serverCacheObject.createTime));
+            timeStat.tickCacheTime();
+            return serverCacheObject.object;
+        }
+        request.invokeStart(new CacheInfo(false, 0L));
+        JudoException negativeError = getNegativeCache(request);
+        if (negativeError != null) {
+            if (localCacheObject != null && localCacheObject.result && isLocalCacheFallback(request, negativeError)) {
+                timeStat.tickCacheTime();
+                return localCacheObject.object;
+            }
+            throw negativeError;
+        }
+        if (request.isCoalesced()) {
+            return callCoalesced(request, timeStat, localCacheObject, revalidationObject, serverCacheObject);
+        }
+        return callRemote(request, timeStat, localCacheObject, revalidationObject, serverCacheObject);
+    }
 
+    /**
+     * Sends the request or waits for an identical one which is already in flight.
+     * When the sending call is cancelled the first waiting call sends its own request.
+     */
+    protected Object callCoalesced(RequestImpl request, TimeStat timeStat, CacheResult localCacheObject, CacheResult revalidationObject,
+                                   CacheResult serverCacheObject) throws JudoException {
+        while (true) {
+            InFlightCall inFlightCall = startInFlightCall(request, timeStat);
+            if (inFlightCall == null) {
+                Object result = null;
+                JudoException error = null;
+                try {
+                    result = callRemote(request, timeStat, localCacheObject, revalidationObject, serverCacheObject);
+                    return result;
+                } catch (JudoException e) {
+                    error = e;
+                    throw e;
+                } catch (RuntimeException e) {
+                    error = new JudoException(e);
+                    throw e;
+                } finally {
+                    completeInFlightCall(request, result, error);
                 }
             }
+            if (!inFlightCall.await(request)) {
+                timeStat.tickEndTime();
+                return copyCoalescedResult(inFlightCall.getResult());
+            }
+            if (!inFlightCall.isCompleted()) {
+                //the sending call hangs, so waiting for it again would hang too
+                return callRemote(request, timeStat, localCacheObject, revalidationObject, serverCacheObject);
+            }
+        }
+    }
 
-            if (rpc.isCacheEnabled() && request.isServerCacheable()) {
-                CacheMethod cacheMethod = new CacheMethod(CacheMethod.getMethodId(request.getMethod()), request.getName(), request.getMethod().getDeclaringClass().getSimpleName(), rpc.getUrl(), request.getServerCacheLevel());
-                serverCacheObject = rpc.getDiskCache().get(cacheMethod, Arrays.deepToString(request.getArgs()), 0);
+    /**
+     * Registers the request as the sender of its fingerprint.
+     *
+     * @return call already in flight for the same fingerprint or null if the request was registered
+     */
+    public InFlightCall startInFlightCall(RequestImpl request, TimeStat timeStat) {
+        InFlightCall inFlightCall = inFlightCalls.putIfAbsent(request.getFingerprint(), new InFlightCall(request, timeStat));
+        if (inFlightCall != null) {
+            coalescedCount.incrementAndGet();
+            if ((rpc.getDebugFlags() & Endpoint.REQUEST_LINE_DEBUG) > 0) {
+                JudoLogger.log("Request " + request.getName() + " coalesced with request " + inFlightCall.getOwner().getId() + ".");
+            }
+        }
+        return inFlightCall;
+    }
+
+    /**
+     * Passes the result to requests waiting for the given one, does nothing if the request isn't registered as a sender.
+     */
+    public void completeInFlightCall(RequestImpl request, Object result, JudoException error) {
+        RequestFingerprint fingerprint = request.getFingerprint();
+        InFlightCall inFlightCall = inFlightCalls.get(fingerprint);
+        if (inFlightCall != null && inFlightCall.getOwner() == request) {
+            inFlightCalls.remove(fingerprint, inFlightCall);
+            inFlightCall.complete(result, error);
+        }
+    }
 
+    /**
+     * Completes calls of the requests which are still registered as senders with {@link CancelException},
+     * so waiting requests send their own. Used when a batch ends without handling its responses.
+     */
+    public void cancelInFlightCalls(List<RequestImpl> requests) {
+        for (RequestImpl request : requests) {
+            if (request.isCoalesced()) {
+                completeInFlightCall(request, null, new CancelException());
             }
+        }
+    }
+
+    public Object copyCoalescedResult(Object result) throws JudoException {
+        if (result != null && rpc.getCacheMode() == Endpoint.CacheMode.CLONE) {
+            return rpc.getClonner().clone(result);
+        }
+        return result;
+    }
+
+    public long getCoalescedCount() {
+        return coalescedCount.get();
+    }
 
-            findAndCreateBase64(request);
-            request.invokeStart(new CacheInfo(false, 0L));
+    /**
+     * @param revalidationObject expired local cache entry with ETag or Last-Modified, null if there is none
+     */
+    protected Object callRemote(RequestImpl request, TimeStat timeStat, CacheResult localCacheObject, CacheResult revalidationObject) throws JudoException {
+        return callRemote(request, timeStat, localCacheObject, revalidationObject, getServerCacheObject(request));
+    }
+
+    /**
+     * @param serverCacheObject ServerCache entry of the request, null if the request isn't server cacheable
+     */
+    @SuppressWarnings("unchecked")
+    protected Object callRemote(RequestImpl request, TimeStat timeStat, CacheResult localCacheObject, CacheResult revalidationObject,
+                                CacheResult serverCacheObject) throws JudoException {
+        try {
             RequestResult result;
+            if (isServerCacheFresh(request, serverCacheObject)) {
+                if ((rpc.getDebugFlags() & Endpoint.CACHE_DEBUG) > 0) {
+                    JudoLogger.log("Cache(" + request.getName() + "): Server cache is fresh, skipping revalidation.");
+                }
+                timeStat.tickCacheTime();
+                return serverCacheObject.object;
+            }
             if (serverCacheObject != null && serverCacheObject.result) {
-                result = sendRequest(request, timeStat, serverCacheObject.hash, serverCacheObject.time);
+                Object storedObject = serverCacheObject.object;
+                result = sendRequest(request, timeStat, serverCacheObject.hash, serverCacheObject.time, getDeltaBase(request, serverCacheObject), false);
+                if (result instanceof NoNewResult || (result instanceof ErrorResult && isServerCacheUsableOnError(request, serverCacheObject))) {
+                    if (resolveRawResponse(request, serverCacheObject).result) {
+                        if (result instanceof NoNewResult && result.expireTime > 0) {
+                            //304 renews freshness of the entry, so following calls skip revalidation
+                            result.hash = serverCacheObject.hash;
+                            result.time = serverCacheObject.time;
+                            result.rawResponse = storedObject instanceof RawResponse ? (RawResponse) storedObject : null;
+                            putServerCache(request, result, serverCacheObject.object);
+                        }
+                        return serverCacheObject.object;
+                    } else if (result instanceof NoNewResult) {
+                        result = sendRequest(request, timeStat);
+                    }
+                }
+            } else if (revalidationObject != null) {
+                Object storedObject = revalidationObject.object;
+                result = sendRequest(request, timeStat, revalidationObject.hash, revalidationObject.time, getDeltaBase(request, revalidationObject), false);
                 if (result instanceof NoNewResult) {
-                    return serverCacheObject.object;
-                } else if (result instanceof ErrorResult && request.useServerCacheOldOnError()) {
-                    return serverCacheObject.object;
+                    if (resolveRawResponse(request, revalidationObject).result) {
+                        return renewLocalCache(request, timeStat, revalidationObject, storedObject);
+                    }
+                    result = sendRequest(request, timeStat);
                 }
             } else {
                 result = sendRequest(request, timeStat, null, null);
             }
 
             if (result instanceof ErrorResult) {
-                if (localCacheObject != null && localCacheObject.result) {
-                    LocalCache.OnlyOnError onlyOnErrorMode = request.getLocalCacheOnlyOnErrorMode();
-                    if (onlyOnErrorMode.equals(LocalCache.OnlyOnError.ON_ALL_ERROR) ||
-                            (onlyOnErrorMode.equals(LocalCache.OnlyOnError.ON_CONNECTION_ERROR) && result.error instanceof ConnectionException)) {
-                        timeStat.tickCacheTime();
-                        return localCacheObject.object;
-                    }
+                putNegativeCache(request, result.error);
+                if (localCacheObject != null && localCacheObject.result && isLocalCacheFallback(request, result.error)) {
+                    timeStat.tickCacheTime();
+                    return localCacheObject.object;
                 }
             }
 
@@ -463,21 +769,9 @@ public class RequestConnector {
             }
 
             if ((rpc.isCacheEnabled() && request.isLocalCacheable()) || rpc.isTest()) {
-                rpc.getMemoryCache().put(request.getMethodId(), request.getArgs(), result.result, request.getLocalCacheSize());
-                if (rpc.getCacheMode() == Endpoint.CacheMode.CLONE) {
-                    result.result = rpc.getClonner().clone(result.result);
-                }
-                LocalCache.CacheLevel cacheLevel = rpc.isTest() ? LocalCache.CacheLevel.DISK_CACHE : request.getLocalCacheLevel();
-                if (cacheLevel != LocalCache.CacheLevel.MEMORY_ONLY) {
-
-                    CacheMethod cacheMethod = new CacheMethod(CacheMethod.getMethodId(request.getMethod()), request.getName(), request.getMethod().getDeclaringClass().getSimpleName(), rpc.getTestName(), rpc.getTestRevision(), rpc.getUrl(), cacheLevel);
-                    rpc.getDiskCache().put(cacheMethod, Arrays.deepToString(request.getArgs()), result.result, request.getLocalCacheSize());
-                }
-
-
-            } else if (rpc.isCacheEnabled() && request.isServerCacheable() && (result.hash != null || result.time != null)) {
-                CacheMethod cacheMethod = new CacheMethod(CacheMethod.getMethodId(request.getMethod()), request.getName(), request.getMethod().getDeclaringClass().getSimpleName(), rpc.getUrl(), request.getServerCacheLevel());
-                rpc.getDiskCache().put(cacheMethod, Arrays.deepToString(request.getArgs()), result.result, request.getServerCacheSize());
+                putLocalCache(request, result);
+            } else if (rpc.isCacheEnabled() && request.isServerCacheable()) {
+                putServerCache(request, result, result.result);
             }
 
 
@@ -489,6 +783,254 @@ public class RequestConnector {
 
     }
 
+    /**
+     * @return true if local cache object should be returned instead of the error (LocalCache onlyOnError)
+     */
+    public boolean isLocalCacheFallback(RequestImpl request, JudoException error) {
+        LocalCache.OnlyOnError onlyOnErrorMode = request.getLocalCacheOnlyOnErrorMode();
+        return onlyOnErrorMode.equals(LocalCache.OnlyOnError.ON_ALL_ERROR) ||
+                (onlyOnErrorMode.equals(LocalCache.OnlyOnError.ON_CONNECTION_ERROR) && error instanceof ConnectionException);
+    }
+
+    /**
+     * @return exception remembered for the request by @NegativeCache or null
+     */
+    public JudoException getNegativeCache(RequestImpl request) {
+        NegativeCache negativeCache = request.getNegativeCache();
+        if (negativeCache == null || !rpc.isCacheEnabled() || rpc.isTest()) {
+            return null;
+        }
+        JudoException error = rpc.getFailureCache().get(request.getFingerprint(), negativeCache.lifeTime());
+        if (error != null && (rpc.getDebugFlags() & Endpoint.CACHE_DEBUG) > 0) {
+            JudoLogger.log("Request " + request.getName() + " failed from negative cache.");
+        }
+        return error;
+    }
+
+    public void putNegativeCache(RequestImpl request, JudoException error) {
+        NegativeCache negativeCache = request.getNegativeCache();
+        if (negativeCache == null || !rpc.isCacheEnabled() || rpc.isTest()) {
+            return;
+        }
+        int code;
+        if (error instanceof HttpException) {
+            code = ((HttpException) error).getCode();
+        } else if (error instanceof ProtocolException) {
+            code = ((ProtocolException) error).getCode();
+        } else {
+            return;
+        }
+        boolean cached = negativeCache.onCodes().length == 0;
+        for (int onCode : negativeCache.onCodes()) {
+            if (onCode == code) {
+                cached = true;
+                break;
+            }
+        }
+        if (cached) {
+            rpc.getFailureCache().put(request.getFingerprint(), error);
+        }
+    }
+
+    protected void putLocalCache(RequestImpl request, RequestResult result) throws JudoException {
+        rpc.getMemoryCache().put(request.getFingerprint(), result.result, request.getLocalCacheSize());
+        scheduleLocalCacheExpiry(request, System.currentTimeMillis());
+        tagLocalCache(request);
+        if (rpc.getCacheMode() == Endpoint.CacheMode.CLONE) {
+            result.result = rpc.getClonner().clone(result.result);
+        }
+        LocalCache.CacheLevel cacheLevel = rpc.isTest() ? LocalCache.CacheLevel.DISK_CACHE : request.getLocalCacheLevel();
+        if (cacheLevel != LocalCache.CacheLevel.MEMORY_ONLY) {
+            rpc.getDiskCache().put(getLocalCacheMethod(request, cacheLevel, result), request.getFingerprint(), request.isLocalCacheRaw() && result.rawResponse != null ? result.rawResponse : result.result, request.getLocalCacheSize());
+        }
+    }
+
+    /**
+     * Stores the entry confirmed by 304 response again, so it gets a new creation time in both cache levels.
+     */
+    protected Object renewLocalCache(RequestImpl request, TimeStat timeStat, CacheResult revalidationObject, Object storedObject) throws JudoException {
+        if ((rpc.getDebugFlags() & Endpoint.CACHE_DEBUG) > 0) {
+            JudoLogger.log("Cache(" + request.getName() + "): Local cache not modified, entry renewed.");
+        }
+        RequestResult result = new RequestSuccessResult(request.getId(), revalidationObject.object);
+        result.hash = revalidationObject.hash;
+        result.time = revalidationObject.time;
+        result.rawResponse = storedObject instanceof RawResponse ? (RawResponse) storedObject : null;
+        putLocalCache(request, result);
+        timeStat.tickEndTime();
+        return result.result;
+    }
+
+    /**
+     * Reads local cache entry of the request from disk cache. Expired entries of requests with
+     * {@link LocalCache#revalidate()} are returned too if they have ETag or Last-Modified,
+     * see {@link #isLocalCacheExpired(RequestImpl, CacheResult)}.
+     */
+    public CacheResult getLocalCacheFromDisk(RequestImpl request, CacheMethod cacheMethod) {
+        if (rpc.isTest() || !request.isLocalCacheRevalidated()) {
+            return resolveRawResponse(request, getFromDiskCache(request, cacheMethod, getLocalCacheSearchLifeTime(request)));
+        }
+        CacheResult cacheResult = getFromDiskCache(request, cacheMethod, 0);
+        if (isLocalCacheExpired(request, cacheResult)) {
+            if (cacheResult.hash == null && cacheResult.time == null) {
+                rpc.getDiskCache().clearCache(cacheMethod, request.getFingerprint());
+                rpc.getCacheStats().recordExpiration(request.getMethodId(), CacheStats.Level.of(cacheMethod.getCacheLevel()));
+                return new CacheResult();
+            }
+            return cacheResult;
+        }
+        if (cacheResult.result && cacheResult.time == null) {
+            cacheResult.time = cacheResult.createTime;
+        }
+        return resolveRawResponse(request, cacheResult);
+    }
+
+    /**
+     * @return true if the entry was read from disk past its life time, so it may be used only after 304 response
+     */
+    public boolean isLocalCacheExpired(RequestImpl request, CacheResult cacheResult) {
+        return cacheResult.result && !rpc.isTest() && request.isLocalCacheRevalidated()
+                && System.currentTimeMillis() - cacheResult.createTime >= getLocalCacheSearchLifeTime(request);
+    }
+
+    /**
+     * @return disk location of the local cache entry, with ETag and Last-Modified of the response if the entry is revalidated
+     */
+    public CacheMethod getLocalCacheMethod(RequestImpl request, LocalCache.CacheLevel cacheLevel, RequestResult result) {
+        if (!rpc.isTest() && request.isLocalCacheRevalidated()) {
+            return new CacheMethod(request.getMethodId(), request.getName(), request.getMethod().getDeclaringClass().getSimpleName(), rpc.getTestName(), rpc.getTestRevision(), rpc.getUrl(),
+                    result.hash, result.time, cacheLevel);
+        }
+        return new CacheMethod(request.getMethodId(), request.getName(), request.getMethod().getDeclaringClass().getSimpleName(), rpc.getTestName(), rpc.getTestRevision(), rpc.getUrl(), cacheLevel);
+    }
+
+    public CacheResult getFromMemoryCache(RequestImpl request, int cacheLifeTime) {
+        long startTime = System.nanoTime();
+        CacheResult cacheResult = rpc.getMemoryCache().get(request.getFingerprint(), cacheLifeTime, request.getLocalCacheSize());
+        rpc.getCacheStats().recordGet(request.getMethodId(), request.getName(), CacheStats.Level.MEMORY, cacheResult.result, System.nanoTime() - startTime);
+        return cacheResult;
+    }
+
+    public CacheResult getFromDiskCache(RequestImpl request, CacheMethod cacheMethod, int cacheLifeTime) {
+        long startTime = System.nanoTime();
+        CacheResult cacheResult = rpc.getDiskCache().get(cacheMethod, request.getFingerprint(), cacheLifeTime);
+        rpc.getCacheStats().recordGet(request.getMethodId(), request.getName(), CacheStats.Level.of(cacheMethod.getCacheLevel()), cacheResult.result, System.nanoTime() - startTime);
+        return cacheResult;
+    }
+
+    /**
+     * Registers local cache entry of the request in the expiry index, so it's removed when its life time passes.
+     *
+     * @param createTime time the entry was created, 0 if unknown
+     */
+    public void scheduleLocalCacheExpiry(RequestImpl request, long createTime) {
+        if (rpc.isTest() || !request.isLocalCacheable()) {
+            return;
+        }
+        int lifeTime = getLocalCacheSearchLifeTime(request);
+        if (lifeTime > 0) {
+            LocalCache.CacheLevel cacheLevel = request.getLocalCacheLevel();
+            CacheMethod cacheMethod = null;
+            //expired disk entries of revalidated requests are kept for conditional requests
+            if (cacheLevel != LocalCache.CacheLevel.MEMORY_ONLY && !request.isLocalCacheRevalidated()) {
+                cacheMethod = new CacheMethod(request.getMethodId(), request.getName(), request.getMethod().getDeclaringClass().getSimpleName(), rpc.getTestName(), rpc.getTestRevision(), rpc.getUrl(), cacheLevel);
+            }
+            rpc.getCacheSweeper().schedule(request.getFingerprint(), cacheMethod, (createTime != 0 ? createTime : System.currentTimeMillis()) + lifeTime);
+        }
+    }
+
+    /**
+     * Adds local cache entry of the request to the index of its @CacheTags.
+     */
+    public void tagLocalCache(RequestImpl request) {
+        if (rpc.isTest() || !request.isLocalCacheable()) {
+            return;
+        }
+        String[] tags = request.getCacheTags();
+        if (tags != null && tags.length > 0) {
+            LocalCache.CacheLevel cacheLevel = request.getLocalCacheLevel();
+            CacheMethod cacheMethod = null;
+            if (cacheLevel != LocalCache.CacheLevel.MEMORY_ONLY) {
+                cacheMethod = new CacheMethod(request.getMethodId(), request.getName(), request.getMethod().getDeclaringClass().getSimpleName(), rpc.getTestName(), rpc.getTestRevision(), rpc.getUrl(), cacheLevel);
+            }
+            rpc.getCacheTagIndex().add(tags, request.getFingerprint(), cacheMethod);
+        }
+    }
+
+    protected Object returnLocalCacheObject(RequestImpl request, CacheResult localCacheObject, TimeStat timeStat) {
+        boolean stale = isLocalCacheStale(request, localCacheObject);
+        request.invokeStart(new CacheInfo(true, localCacheObject.time, stale));
+        timeStat.tickCacheTime();
+        if (stale) {
+            revalidate(request);
+        }
+        return localCacheObject.object;
+    }
+
+    /**
+     * @return life time used to search local cache, extended by stale-while-revalidate time
+     */
+    public int getLocalCacheSearchLifeTime(RequestImpl request) {
+        int lifeTime = request.getLocalCacheLifeTime();
+        int staleTime = request.getLocalCacheStaleWhileRevalidate();
+        return lifeTime > 0 && staleTime > 0 ? lifeTime + staleTime : lifeTime;
+    }
+
+    public boolean isLocalCacheStale(RequestImpl request, CacheResult cacheResult) {
+        if (rpc.isTest() || !request.isLocalCacheable()) {
+            return false;
+        }
+        int lifeTime = request.getLocalCacheLifeTime();
+        return lifeTime > 0 && request.getLocalCacheStaleWhileRevalidate() > 0
+                && System.currentTimeMillis() - cacheResult.createTime >= lifeTime;
+    }
+
+    /**
+     * Requests a fresh value of a stale local cache entry in the background and stores it in both cache levels.
+     * Only one refresh per request fingerprint runs at a time.
+     */
+    public void revalidate(final RequestImpl request) {
+        final RequestFingerprint fingerprint = request.getFingerprint();
+        if (revalidating.putIfAbsent(fingerprint, true) != null) {
+            return;
+        }
+        //the caller's request is returned from cache and may be reused, so its own state isn't touched
+        final RequestImpl revalidation = request.copy();
+        rpc.getExecutorService().execute(new Runnable() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public void run() {
+                try {
+                    findAndCreateBase64(revalidation);
+                    RequestResult result = sendRequest(revalidation, new TimeStat());
+                    if (result.error != null) {
+                        if ((rpc.getDebugFlags() & Endpoint.CACHE_DEBUG) > 0) {
+                            JudoLogger.log("Revalidation of " + request.getName() + " failed: " + result.error);
+                        }
+                        return;
+                    }
+                    putLocalCache(revalidation, result);
+                    final Object callback = request.getCallback();
+                    if (callback instanceof RevalidateCallback) {
+                        final Object freshResult = result.result;
+                        rpc.getHandler().post(new Runnable() {
+                            @Override
+                            public void run() {
+                                if (!request.isCancelled()) {
+                                    ((RevalidateCallback<Object>) callback).onRevalidated(freshResult);
+                                }
+                            }
+                        });
+                    }
+                } catch (JudoException e) {
+                    JudoLogger.log(e);
+                } finally {
+                    revalidating.remove(fingerprint);
+                }
+            }
+        });
+    }
+
     public List<RequestResult> callBatch(List<RequestImpl> requests, ProgressObserver progressObserver, Integer timeout) throws JudoException {
         final List<RequestResult> results = new ArrayList<>(requests.size());
 
@@ -566,23 +1108,20 @@ public class RequestConnector {
 
                     final TimeStat timeStat = new TimeStat(progressObserver);
 
-                    CacheResult cacheObject = null;
                     if (!request.isCancelled()) {
 
+                        CacheResult cacheObject = getServerCacheObject(request);
 
-                        if (rpc.isCacheEnabled() && request.isServerCacheable()) {
-                            CacheMethod cacheMethod = new CacheMethod(CacheMethod.getMethodId(request.getMethod()), request.getName(), request.getMethod().getDeclaringClass().getSimpleName(), rpc.getUrl(), request.getServerCacheLevel());
-                            cacheObject = rpc.getDiskCache().get(cacheMethod, Arrays.deepToString(request.getArgs()), request.getServerCacheSize());
-
-                        }
-
-                        if (cacheObject != null && cacheObject.result) {
+                        if (isServerCacheFresh(request, cacheObject)) {
+                            results.add(new RequestSuccessResult(request.getId(), cacheObject.object));
+                        } else if (cacheObject != null && cacheObject.result) {
                             RequestResult result = sendRequest(request, timeStat, cacheObject.hash, cacheObject.time);
 
-                            if (result instanceof NoNewResult) {
-                                results.add(new RequestSuccessResult(request.getId(), cacheObject.object));
-                            } else if (result instanceof ErrorResult && request.useServerCacheOldOnError()) {
+                            if ((result instanceof NoNewResult || (result instanceof ErrorResult && isServerCacheUsableOnError(request, cacheObject)))
+                                    && resolveRawResponse(request, cacheObject).result) {
                                 results.add(new RequestSuccessResult(request.getId(), cacheObject.object));
+                            } else if (result instanceof NoNewResult) {
+                                results.add(sendRequest(request, timeStat));
                             } else {
                                 results.add(result);
                             }
@@ -618,6 +1157,17 @@ public class RequestConnector {
             List<RequestResult> responses;
             TimeStat timeStat = new TimeStat(progressObserver);
 
+            List<CacheResult> serverCacheObjects = getBatchServerCache(requests);
+            if (serverCacheObjects != null && isBatchServerCacheFresh(serverCacheObjects)) {
+                responses = getNotModifiedBatch(requests, serverCacheObjects);
+                if (responses != null) {
+                    if ((rpc.getDebugFlags() & Endpoint.CACHE_DEBUG) > 0) {
+                        JudoLogger.log("Cache: Server cache of batch(" + requestsName.substring(1) + ") is fresh, skipping revalidation.");
+                    }
+                    timeStat.tickEndTime();
+                    return responses;
+                }
+            }
 
             ProtocolController.RequestInfo requestInfo = controller.createRequests(rpc.getUrl(), (List) requests);
             timeStat.tickCreateTime();
@@ -642,8 +1192,22 @@ public class RequestConnector {
                     throw new AuthException("Can't obtain api token", ex);
                 }
             }
-            TransportLayer.Connection conn = transportLayer.send(requestsName, controller, requestInfo, timeout, timeStat, rpc.getDebugFlags(), null, null);
+            TransportLayer.CacheInfo cacheInfo = serverCacheObjects != null ? getBatchCacheInfo(serverCacheObjects) : null;
+            TransportLayer.Connection conn = transportLayer.send(requestsName, controller, requestInfo, timeout, timeStat, rpc.getDebugFlags(), null, cacheInfo);
             EndpointImpl.checkThread();
+            if (cacheInfo != null && !conn.isNewestAvailable()) {
+                conn.close();
+                responses = getNotModifiedBatch(requests, serverCacheObjects);
+                if (responses != null) {
+                    if ((rpc.getDebugFlags() & Endpoint.RESPONSE_DEBUG) > 0) {
+                        JudoLogger.log("No new data for batch(" + requestsName.substring(1) + ")");
+                    }
+                    timeStat.tickEndTime();
+                    return responses;
+                }
+                conn = transportLayer.send(requestsName, controller, controller.createRequests(rpc.getUrl(), (List) requests), timeout, timeStat, rpc.getDebugFlags(), null, null);
+                EndpointImpl.checkThread();
+            }
             InputStream connectionStream = conn.getStream();
             if ((rpc.getDebugFlags() & Endpoint.RESPONSE_DEBUG) > 0) {
 
@@ -656,6 +1220,7 @@ public class RequestConnector {
             responses = controller.parseResponses((List) requests, stream, conn.getHeaders());
             EndpointImpl.checkThread();
             timeStat.tickParseTime();
+            resolveBatchServerCache(requests, responses, serverCacheObjects, conn.getHash(), conn.getDate(), conn.getFreshness());
             conn.close();
             timeStat.tickEndTime();
             if (rpc.isTimeProfiler()) {
@@ -683,6 +1248,102 @@ public class RequestConnector {
     }
 
 
+    /**
+     * @return ServerCache entries of all requests of the batch or null if any request has no entry
+     */
+    protected List<CacheResult> getBatchServerCache(List<RequestImpl> requests) {
+        if (!rpc.isCacheEnabled()) {
+            return null;
+        }
+        List<CacheResult> serverCacheObjects = new ArrayList<>(requests.size());
+        for (RequestImpl request : requests) {
+            if (!request.isServerCacheable()) {
+                return null;
+            }
+            CacheMethod cacheMethod = new CacheMethod(request.getMethodId(), request.getName(), request.getMethod().getDeclaringClass().getSimpleName(), rpc.getUrl(), request.getServerCacheLevel());
+            CacheResult cacheObject = getFromDiskCache(request, cacheMethod, 0);
+            if (!cacheObject.result) {
+                return null;
+            }
+            serverCacheObjects.add(cacheObject);
+        }
+        return serverCacheObjects;
+    }
+
+    protected static boolean isBatchServerCacheFresh(List<CacheResult> serverCacheObjects) {
+        for (CacheResult cacheObject : serverCacheObjects) {
+            if (!isServerCacheFresh(cacheObject)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Entries stored from one batch response share its ETag, so the ETag is sent only if all entries have it.
+     * Last-Modified of the oldest entry is used.
+     */
+    protected TransportLayer.CacheInfo getBatchCacheInfo(List<CacheResult> serverCacheObjects) {
+        String hash = serverCacheObjects.get(0).hash;
+        Long time = null;
+        for (CacheResult cacheObject : serverCacheObjects) {
+            if (hash != null && !hash.equals(cacheObject.hash)) {
+                hash = null;
+            }
+            if (cacheObject.time == null) {
+                time = null;
+                break;
+            } else if (time == null || cacheObject.time < time) {
+                time = cacheObject.time;
+            }
+        }
+        if (hash == null && time == null) {
+            return null;
+        }
+        return new TransportLayer.CacheInfo(hash, time);
+    }
+
+    /**
+     * @return results from ServerCache entries or null if any raw entry can't be parsed
+     */
+    protected List<RequestResult> getNotModifiedBatch(List<RequestImpl> requests, List<CacheResult> serverCacheObjects) {
+        List<RequestResult> results = new ArrayList<>(requests.size());
+        for (int i = 0; i < requests.size(); i++) {
+            RequestImpl request = requests.get(i);
+            CacheResult cacheObject = serverCacheObjects.get(i);
+            if (!resolveRawResponse(request, cacheObject).result) {
+                return null;
+            }
+            results.add(new RequestSuccessResult(request.getId(), cacheObject.object));
+        }
+        return results;
+    }
+
+    /**
+     * Marks successful results with ETag, Last-Modified and freshness of the batch response, so they are stored in ServerCache,
+     * and replaces errors by ServerCache entries when useOldOnError is set or stale-if-error allows it.
+     */
+    protected void resolveBatchServerCache(List<RequestImpl> requests, List<RequestResult> responses, List<CacheResult> serverCacheObjects,
+                                           String hash, Long time, TransportLayer.Freshness freshness) {
+        for (int i = 0; i < responses.size(); i++) {
+            RequestResult response = responses.get(i);
+            if (response instanceof RequestSuccessResult) {
+                response.hash = hash;
+                response.time = time;
+                setFreshness(response, freshness);
+            } else if (response instanceof ErrorResult && serverCacheObjects != null) {
+                for (int j = 0; j < requests.size(); j++) {
+                    RequestImpl request = requests.get(j);
+                    if (request.getId().equals(response.id) && isServerCacheUsableOnError(request, serverCacheObjects.get(j))
+                            && resolveRawResponse(request, serverCacheObjects.get(j)).result) {
+                        responses.set(i, new RequestSuccessResult(request.getId(), serverCacheObjects.get(j).object));
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
     private void lossCheck() throws JudoException {
         float percentLoss = rpc.getPercentLoss();
         float random = randomGenerator.nextFloat();
@@ -20,6 +20,7 @@ import com.github.kubatatami.judonetworking.internals.batches.BatchProgressObser
 import com.github.kubatatami.judonetworking.internals.batches.BatchTask;
 import com.github.kubatatami.judonetworking.CacheInfo;
 import com.github.kubatatami.judonetworking.internals.cache.CacheMethod;
+import com.github.kubatatami.judonetworking.internals.requests.InFlightCall;
 import com.github.kubatatami.judonetworking.internals.requests.RequestImpl;
 import com.github.kubatatami.judonetworking.internals.results.CacheResult;
 import com.github.kubatatami.judonetworking.internals.results.ErrorResult;
@@ -36,7 +37,6 @@ import java.lang.reflect.Method;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -177,7 +177,7 @@ public class RequestProxy implements InvocationHandler, AsyncResult {
                 }
 
                 if (!ann.async()) {
-                    request = new RequestImpl(getNextId(), rpc, m, name, ann, args, m.getReturnType(),
+                    request = new RequestImpl(getNextId(), rpc, m, name, ann, args, m.getGenericReturnType(),
                             timeout, null, rpc.getProtocolController().getAdditionalRequestData());
                     ann.modifier().newInstance().modify(request);
                     rpc.filterNullArgs(request);
@@ -190,7 +190,7 @@ public class RequestProxy implements InvocationHandler, AsyncResult {
                     request = callAsync(getNextId(), m, name, args, ReflectionCache.getGenericParameterTypes(m), timeout, ann);
                     rpc.filterNullArgs(request);
                     if (request.getSingleCall() != null) {
-                        if (rpc.getSingleCallMethods().containsKey(CacheMethod.getMethodId(m))) {
+                        if (rpc.getSingleCallMethods().containsKey(request.getMethodId())) {
                             SingleCall.SingleMode mode = request.getSingleCall().mode();
 
                             if (mode == SingleCall.SingleMode.CANCEL_NEW) {
@@ -201,7 +201,7 @@ public class RequestProxy implements InvocationHandler, AsyncResult {
                                 return request;
                             }
                             if (mode == SingleCall.SingleMode.CANCEL_OLD) {
-                                RequestImpl oldRequest = rpc.getSingleCallMethods().get(CacheMethod.getMethodId(m));
+                                RequestImpl oldRequest = rpc.getSingleCallMethods().get(request.getMethodId());
                                 if ((rpc.getDebugFlags() & Endpoint.REQUEST_LINE_DEBUG) > 0) {
                                     JudoLogger.log("Request " + oldRequest.getName() + " rejected - SingleCall.");
                                 }
@@ -307,8 +307,11 @@ public class RequestProxy implements InvocationHandler, AsyncResult {
                 for (int i = batches.size() - 1; i >= 0; i--) {
                     RequestImpl req = batches.get(i);
                     if (req.isLocalCacheable() || rpc.isTest()) {
-                        CacheResult result = rpc.getMemoryCache().get(req.getMethodId(), req.getArgs(), rpc.isTest() ? 0 : req.getLocalCacheLifeTime(), req.getLocalCacheSize());
+                        CacheResult result = rpc.getRequestConnector().getFromMemoryCache(req, rpc.isTest() ? 0 : rpc.getRequestConnector().getLocalCacheSearchLifeTime(req));
                         LocalCache.CacheLevel cacheLevel = rpc.isTest() ? LocalCache.CacheLevel.DISK_CACHE : req.getLocalCacheLevel();
+                        if (!rpc.isTest() && cacheLevel != LocalCache.CacheLevel.MEMORY_ONLY) {
+                            rpc.getHotKeys().record(req.getFingerprint());
+                        }
                         if (result.result) {
                             if (rpc.getCacheMode() == Endpoint.CacheMode.CLONE) {
                                 result.object = rpc.getClonner().clone(result.object);
@@ -316,22 +319,24 @@ public class RequestProxy implements InvocationHandler, AsyncResult {
                             cacheObjects.put(req.getId(), new Pair<>(req, result.object));
                             if (req.getLocalCacheOnlyOnErrorMode().equals(LocalCache.OnlyOnError.NO)) {
                                 batches.remove(i);
-                                req.invokeStart(new CacheInfo(true, result.time));
+                                invokeLocalCacheStart(req, result);
                             }
 
 
                         } else if (cacheLevel != LocalCache.CacheLevel.MEMORY_ONLY) {
-                            CacheMethod cacheMethod = new CacheMethod(CacheMethod.getMethodId(req.getMethod()), req.getName(), req.getMethod().getDeclaringClass().getSimpleName()
+                            CacheMethod cacheMethod = new CacheMethod(req.getMethodId(), req.getName(), req.getMethod().getDeclaringClass().getSimpleName()
                                     , rpc.getTestName(), rpc.getTestRevision(), rpc.getUrl(), cacheLevel);
-                            result = rpc.getDiskCache().get(cacheMethod, Arrays.deepToString(req.getArgs()), req.getLocalCacheLifeTime());
-                            if (result.result) {
+                            result = rpc.getRequestConnector().getLocalCacheFromDisk(req, cacheMethod);
+                            if (result.result && !rpc.getRequestConnector().isLocalCacheExpired(req, result)) {
                                 if (!rpc.isTest()) {
-                                    rpc.getMemoryCache().put(req.getMethodId(), req.getArgs(), result.object, req.getLocalCacheSize());
+                                    rpc.getMemoryCache().put(req.getFingerprint(), result.object, req.getLocalCacheSize(), result.getCreateTimeOrNow());
+                                    rpc.getRequestConnector().scheduleLocalCacheExpiry(req, result.createTime);
+                                    rpc.getRequestConnector().tagLocalCache(req);
                                 }
                                 cacheObjects.put(req.getId(), new Pair<>(req, result.object));
                                 if (req.getLocalCacheOnlyOnErrorMode().equals(LocalCache.OnlyOnError.NO)) {
                                     batches.remove(i);
-                                    req.invokeStart(new CacheInfo(true, result.time));
+                                    invokeLocalCacheStart(req, result);
                                 }
                             }
 
@@ -341,16 +346,25 @@ public class RequestProxy implements InvocationHandler, AsyncResult {
                 }
             }
 
-            BatchProgressObserver batchProgressObserver = new BatchProgressObserver(rpc, this, batches);
-            List<RequestResult> responses;
-            if (batches.size() > 0) {
-                sendBatchRequest(batches, batchProgressObserver, cacheObjects);
+            negativeCacheBatch(batches, cacheObjects);
+            List<TimeStat> coalescedTimeStats = coalesceBatch(batches, cacheObjects);
 
-            } else {
-                responses = new ArrayList<>();
-                batchProgressObserver.setMaxProgress(1);
-                batchProgressObserver.progressTick(1);
-                receiveResponse(batches, responses, cacheObjects);
+            try {
+                BatchProgressObserver batchProgressObserver = new BatchProgressObserver(rpc, this, batches);
+                batchProgressObserver.addCoalescedTimeStats(coalescedTimeStats);
+                List<RequestResult> responses;
+                if (batches.size() > 0) {
+                    sendBatchRequest(batches, batchProgressObserver, cacheObjects);
+
+                } else {
+                    responses = new ArrayList<>();
+                    batchProgressObserver.setMaxProgress(1);
+                    batchProgressObserver.progressTick(1);
+                    receiveResponse(batches, responses, cacheObjects);
+                }
+            } catch (RuntimeException e) {
+                rpc.getRequestConnector().cancelInFlightCalls(batches);
+                throw e;
             }
 
 
@@ -363,32 +377,97 @@ public class RequestProxy implements InvocationHandler, AsyncResult {
     }
 
 
-    protected void receiveResponse(List<RequestImpl> batches, List<RequestResult> responses, Map<Integer, Pair<RequestImpl, Object>> cacheObjects) {
-        if (rpc.isCacheEnabled()) {
-            for (int i = responses.size() - 1; i >= 0; i--) {
-                RequestResult result = responses.get(i);
-                if (cacheObjects.containsKey(result.id) && result instanceof ErrorResult) {
-                    LocalCache.OnlyOnError onlyOnErrorMode = cacheObjects.get(result.id).first.getLocalCacheOnlyOnErrorMode();
-                    if (onlyOnErrorMode.equals(LocalCache.OnlyOnError.ON_ALL_ERROR) ||
-                            (onlyOnErrorMode.equals(LocalCache.OnlyOnError.ON_CONNECTION_ERROR) && result.error instanceof ConnectionException)) {
-                        responses.remove(result);
-                        RequestSuccessResult res = new RequestSuccessResult(cacheObjects.get(result.id).second);
-                        res.id = result.id;
-                        responses.add(res);
-                    }
-                    cacheObjects.remove(result.id);
+    /**
+     * Moves requests remembered by @NegativeCache out of the batch.
+     * Their exception is passed with cache objects unless local cache object should be returned instead.
+     */
+    protected void negativeCacheBatch(List<RequestImpl> batches, Map<Integer, Pair<RequestImpl, Object>> cacheObjects) {
+        for (int i = batches.size() - 1; i >= 0; i--) {
+            RequestImpl req = batches.get(i);
+            JudoException error = rpc.getRequestConnector().getNegativeCache(req);
+            if (error != null) {
+                batches.remove(i);
+                if (!cacheObjects.containsKey(req.getId()) || !rpc.getRequestConnector().isLocalCacheFallback(req, error)) {
+                    cacheObjects.put(req.getId(), new Pair<RequestImpl, Object>(req, error));
+                }
+                req.invokeStart(new CacheInfo(false, 0L));
+            }
+        }
+    }
+
+    /**
+     * Registers @Coalesce requests as senders or moves them out of the batch when an identical request is in flight.
+     * Waiting requests are passed with cache objects and resolved in handleBatchResponse.
+     *
+     * @return time stats of registered senders, progress of the batch is passed to requests waiting for them
+     */
+    protected List<TimeStat> coalesceBatch(List<RequestImpl> batches, Map<Integer, Pair<RequestImpl, Object>> cacheObjects) {
+        List<TimeStat> timeStats = new ArrayList<>();
+        for (int i = batches.size() - 1; i >= 0; i--) {
+            RequestImpl req = batches.get(i);
+            if (req.isCoalesced()) {
+                TimeStat timeStat = new TimeStat(new ArrayList<ProgressObserver>());
+                InFlightCall inFlightCall = rpc.getRequestConnector().startInFlightCall(req, timeStat);
+                if (inFlightCall != null) {
+                    batches.remove(i);
+                    cacheObjects.put(req.getId(), new Pair<RequestImpl, Object>(req, inFlightCall));
+                    req.invokeStart(new CacheInfo(false, 0L));
                 } else {
-                    cacheObjects.remove(result.id);
+                    timeStats.add(timeStat);
                 }
             }
+        }
+        return timeStats;
+    }
+
+    protected void invokeLocalCacheStart(RequestImpl request, CacheResult result) {
+        boolean stale = rpc.getRequestConnector().isLocalCacheStale(request, result);
+        request.invokeStart(new CacheInfo(true, result.time, stale));
+        if (stale) {
+            rpc.getRequestConnector().revalidate(request);
+        }
+    }
+
+    protected void receiveResponse(List<RequestImpl> batches, List<RequestResult> responses, Map<Integer, Pair<RequestImpl, Object>> cacheObjects) {
+        try {
+            handleResponse(batches, responses, cacheObjects);
+        } finally {
+            //coalesced requests must not wait for a batch which failed before completing them
+            rpc.getRequestConnector().cancelInFlightCalls(batches);
+        }
+    }
 
-            for (Map.Entry<Integer, Pair<RequestImpl, Object>> pairs : cacheObjects.entrySet()) {
-                RequestSuccessResult res = new RequestSuccessResult(cacheObjects.get(pairs.getKey()).second);
-                res.id = pairs.getKey();
-                responses.add(res);
-                batches.add(pairs.getValue().first);
+    protected void handleResponse(List<RequestImpl> batches, List<RequestResult> responses, Map<Integer, Pair<RequestImpl, Object>> cacheObjects) {
+        for (int i = responses.size() - 1; i >= 0; i--) {
+            RequestResult result = responses.get(i);
+            if (result instanceof ErrorResult) {
+                for (RequestImpl request : batches) {
+                    if (request.getId().equals(result.id)) {
+                        rpc.getRequestConnector().putNegativeCache(request, result.error);
+                    }
+                }
+            }
+            if (cacheObjects.containsKey(result.id) && result instanceof ErrorResult) {
+                LocalCache.OnlyOnError onlyOnErrorMode = cacheObjects.get(result.id).first.getLocalCacheOnlyOnErrorMode();
+                if (onlyOnErrorMode.equals(LocalCache.OnlyOnError.ON_ALL_ERROR) ||
+                        (onlyOnErrorMode.equals(LocalCache.OnlyOnError.ON_CONNECTION_ERROR) && result.error instanceof ConnectionException)) {
+                    responses.remove(result);
+                    RequestSuccessResult res = new RequestSuccessResult(cacheObjects.get(result.id).second);
+                    res.id = result.id;
+                    responses.add(res);
+                }
+                cacheObjects.remove(result.id);
+            } else {
+                cacheObjects.remove(result.id);
             }
         }
+
+        for (Map.Entry<Integer, Pair<RequestImpl, Object>> pairs : cacheObjects.entrySet()) {
+            RequestSuccessResult res = new RequestSuccessResult(cacheObjects.get(pairs.getKey()).second);
+            res.id = pairs.getKey();
+            responses.add(res);
+            batches.add(pairs.getValue().first);
+        }
         //TODO change to map implementation
         Collections.sort(batches, new Comparator<RequestImpl>() {
             @Override
@@ -477,6 +556,8 @@ public class RequestProxy implements InvocationHandler, AsyncResult {
                             }
                             Collections.sort(responses);
                             receiveResponse(batches, responses, cacheObjects);
+                        } finally {
+                            rpc.getRequestConnector().cancelInFlightCalls(batches);
                         }
                     }
                 };
@@ -484,7 +565,11 @@ public class RequestProxy implements InvocationHandler, AsyncResult {
 
             } else {
                 progressObserver.setMaxProgress(TimeStat.TICKS);
-                responses.addAll(rpc.getRequestConnector().callBatch(batches, progressObserver, calculateTimeout(batches)));
+                try {
+                    responses.addAll(rpc.getRequestConnector().callBatch(batches, progressObserver, calculateTimeout(batches)));
+                } catch (RuntimeException e) {
+                    throw new JudoException(e);
+                }
                 Collections.sort(responses);
                 receiveResponse(batches, responses, cacheObjects);
             }
@@ -528,7 +613,11 @@ public class RequestProxy implements InvocationHandler, AsyncResult {
                     + "\nRequests:\n" + requestNameBuilder.toString()
                     + "\nResponse:\n" + responseNameBuilder.toString()
             );
+            for (RequestImpl request : requests) {
+                rpc.getRequestConnector().completeInFlightCall(request, null, ex);
+            }
         }else {
+            JudoException[] errors = new JudoException[requests.size()];
             for (RequestImpl request : requests) {
                 try {
                     RequestResult response = null;
@@ -538,6 +627,9 @@ public class RequestProxy implements InvocationHandler, AsyncResult {
                     }
 
                     if (response != null && response.cacheObject != null) {
+                        if (response.cacheObject instanceof JudoException) {
+                            throw (JudoException) response.cacheObject;
+                        }
                         results[i] = response.cacheObject;
                     } else {
 
@@ -554,29 +646,55 @@ public class RequestProxy implements InvocationHandler, AsyncResult {
                             }
                             results[i] = response.result;
                             if ((rpc.isCacheEnabled() && request.isLocalCacheable()) || rpc.isTest()) {
-                                rpc.getMemoryCache().put(request.getMethodId(), request.getArgs(), results[i], request.getLocalCacheSize());
+                                rpc.getMemoryCache().put(request.getFingerprint(), results[i], request.getLocalCacheSize());
+                                rpc.getRequestConnector().scheduleLocalCacheExpiry(request, System.currentTimeMillis());
+                                rpc.getRequestConnector().tagLocalCache(request);
                                 if (rpc.getCacheMode() == Endpoint.CacheMode.CLONE) {
                                     results[i] = rpc.getClonner().clone(results[i]);
                                 }
                                 LocalCache.CacheLevel cacheLevel = rpc.isTest() ? LocalCache.CacheLevel.DISK_CACHE : request.getLocalCacheLevel();
 
                                 if (cacheLevel != LocalCache.CacheLevel.MEMORY_ONLY) {
-                                    CacheMethod cacheMethod = new CacheMethod(CacheMethod.getMethodId(request.getMethod()), request.getName(), request.getMethod().getDeclaringClass().getSimpleName(), rpc.getTestName(), rpc.getTestRevision(), rpc.getUrl(), cacheLevel);
-                                    rpc.getDiskCache().put(cacheMethod, Arrays.deepToString(request.getArgs()), results[i], request.getLocalCacheSize());
+                                    CacheMethod cacheMethod = rpc.getRequestConnector().getLocalCacheMethod(request, cacheLevel, response);
+                                    rpc.getDiskCache().put(cacheMethod, request.getFingerprint(), request.isLocalCacheRaw() && response.rawResponse != null ? response.rawResponse : results[i], request.getLocalCacheSize());
                                 }
-                            } else if (rpc.isCacheEnabled() && request.isServerCacheable() && (response.hash != null || response.time != null)) {
-                                CacheMethod cacheMethod = new CacheMethod(CacheMethod.getMethodId(request.getMethod()), request.getName(), request.getMethod().getDeclaringClass().getSimpleName(), rpc.getUrl(), response.hash, response.time, request.getServerCacheLevel());
-                                rpc.getDiskCache().put(cacheMethod, Arrays.deepToString(request.getArgs()), results[i], request.getServerCacheSize());
+                            } else if (rpc.isCacheEnabled() && request.isServerCacheable()) {
+                                rpc.getRequestConnector().putServerCache(request, response, results[i]);
                             }
                         }
                     }
-                    request.invokeCallback(results[i]);
+                    rpc.getRequestConnector().completeInFlightCall(request, results[i], null);
                 } catch (JudoException e) {
+                    errors[i] = e;
+                    rpc.getRequestConnector().completeInFlightCall(request, null, e);
+                }
+                i++;
+            }
+            //requests of this batch are completed first, so coalesced requests never wait for each other
+            i = 0;
+            for (RequestImpl request : requests) {
+                if (results[i] instanceof InFlightCall) {
+                    InFlightCall inFlightCall = (InFlightCall) results[i];
+                    results[i] = null;
+                    try {
+                        if (inFlightCall.await(request)) {
+                            //the sender was cancelled, failed with its batch or didn't complete in time
+                            results[i] = rpc.getRequestConnector().callRemote(request, new TimeStat(request), null, null);
+                        } else {
+                            results[i] = rpc.getRequestConnector().copyCoalescedResult(inFlightCall.getResult());
+                        }
+                    } catch (JudoException e) {
+                        errors[i] = e;
+                    }
+                }
+                if (errors[i] == null) {
+                    request.invokeCallback(results[i]);
+                } else {
                     if (request.isBatchFatal()) {
-                        ex = e;
+                        ex = errors[i];
                         exceptionRequest = request;
                     }
-                    request.invokeCallbackException(e);
+                    request.invokeCallbackException(errors[i]);
                 }
                 i++;
             }
@@ -25,6 +25,7 @@ public class BatchProgressObserver implements ProgressObserver {
     EndpointImpl rpc;
     List<RequestImpl> requestList;
     int lastProgress = 0;
+    List<TimeStat> coalescedTimeStats = new ArrayList<>();
 
     public BatchProgressObserver(EndpointImpl rpc, RequestProxy requestProxy, List<RequestImpl> requestList) {
         this.rpc = rpc;
@@ -48,6 +49,16 @@ public class BatchProgressObserver implements ProgressObserver {
     public synchronized void progressTick(float progress) {
         this.progress += progress;
         publishProgress();
+        for (TimeStat timeStat : coalescedTimeStats) {
+            timeStat.progressTick(progress * TimeStat.TICKS / max);
+        }
+    }
+
+    /**
+     * Passes progress of the batch to requests waiting for coalesced requests of the batch.
+     */
+    public synchronized void addCoalescedTimeStats(List<TimeStat> timeStats) {
+        coalescedTimeStats.addAll(timeStats);
     }
 
 
@@ -17,7 +17,10 @@ public class CacheMethod {
     private int methodId;
     private String methodName;
     private Long time;
+    private long expireTime;
+    private long staleIfErrorTime;
     private LocalCache.CacheLevel cacheLevel;
+    private String methodKey;
 
     public CacheMethod(int methodId, String methodName, String interfaceName, String url, ServerCache.CacheLevel level) {
         this.methodId = methodId;
@@ -30,24 +33,40 @@ public class CacheMethod {
     }
 
     public CacheMethod(int methodId, String methodName, String interfaceName, String url, String hash, Long time, ServerCache.CacheLevel level) {
+        this(methodId, methodName, interfaceName, url, hash, time, 0, 0, level);
+    }
+
+    /**
+     * @param expireTime       time until which the entry is used without revalidation
+     * @param staleIfErrorTime time until which the entry is used instead of an error
+     */
+    public CacheMethod(int methodId, String methodName, String interfaceName, String url, String hash, Long time,
+                       long expireTime, long staleIfErrorTime, ServerCache.CacheLevel level) {
         this.methodId = methodId;
         this.methodName = methodName;
         this.interfaceName = interfaceName;
         this.url = url;
         this.hash = hash;
         this.time = time;
+        this.expireTime = expireTime;
+        this.staleIfErrorTime = staleIfErrorTime;
         this.dynamic = true;
         cacheLevel = (level == ServerCache.CacheLevel.DISK_CACHE) ? LocalCache.CacheLevel.DISK_CACHE : LocalCache.CacheLevel.DISK_DATA;
     }
 
     public CacheMethod(int methodId, String methodName, String interfaceName, String test, int testRevision, String url, LocalCache.CacheLevel level) {
+        this(methodId, methodName, interfaceName, test, testRevision, url, null, System.currentTimeMillis(), level);
+    }
+
+    public CacheMethod(int methodId, String methodName, String interfaceName, String test, int testRevision, String url, String hash, Long time, LocalCache.CacheLevel level) {
         this.methodId = methodId;
         this.methodName = methodName;
         this.interfaceName = interfaceName;
         this.test = test;
         this.testRevision = testRevision;
         this.url = url;
-        this.time = System.currentTimeMillis();
+        this.hash = hash;
+        this.time = time;
         this.cacheLevel = level;
         if(test==null){
             this.dynamic = true;
@@ -91,11 +110,48 @@ public class CacheMethod {
         return time;
     }
 
+    public long getExpireTime() {
+        return expireTime;
+    }
+
+    public long getStaleIfErrorTime() {
+        return staleIfErrorTime;
+    }
+
 
     public String getInterfaceName(){return interfaceName;}
 
+    /**
+     * @return Relative path which identifies method cache: kind, interface, url and method id.
+     */
+    public String getMethodKey() {
+        if (methodKey == null) {
+            StringBuilder builder = new StringBuilder();
+            if (dynamic) {
+                builder.append("dynamic/");
+            } else if (test != null) {
+                builder.append("tests/").append(test).append("/").append(testRevision).append("/");
+            } else {
+                builder.append("local/");
+            }
+            builder.append(interfaceName).append("/");
+            builder.append(url.hashCode()).append("/");
+            builder.append(methodId).append("/");
+            methodKey = builder.toString();
+        }
+        return methodKey;
+    }
+
     public static int getMethodId(Method method) {
         RequestMethod requestMethod = ReflectionCache.getAnnotation(method, RequestMethod.class);
         return requestMethod.id()==0 ? method.hashCode() : requestMethod.id();
     }
+
+    /**
+     * @return method id from the last part of {@link #getMethodKey()}
+     */
+    public static int parseMethodId(String methodKey) {
+        int end = methodKey.endsWith("/") ? methodKey.length() - 1 : methodKey.length();
+        return Integer.parseInt(methodKey.substring(methodKey.lastIndexOf('/', end - 1) + 1, end));
+    }
 }
\ No newline at end of file
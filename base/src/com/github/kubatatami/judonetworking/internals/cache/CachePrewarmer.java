@@ -0,0 +1,102 @@
+package com.github.kubatatami.judonetworking.internals.cache;
+
+import com.github.kubatatami.judonetworking.Endpoint;
+import com.github.kubatatami.judonetworking.annotations.LocalCache;
+import com.github.kubatatami.judonetworking.annotations.RequestMethod;
+import com.github.kubatatami.judonetworking.caches.MemoryCache;
+import com.github.kubatatami.judonetworking.caches.WeightedMemoryCache;
+import com.github.kubatatami.judonetworking.internals.EndpointImpl;
+import com.github.kubatatami.judonetworking.internals.RequestProxy;
+import com.github.kubatatami.judonetworking.internals.results.CacheResult;
+import com.github.kubatatami.judonetworking.internals.results.RawResponse;
+import com.github.kubatatami.judonetworking.logs.JudoLogger;
+import com.github.kubatatami.judonetworking.utils.ReflectionCache;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Loads disk cache entries used in the previous session into memory cache.
+ * Entries stored as raw responses are skipped, they need a request to be parsed.
+ */
+public class CachePrewarmer implements Runnable {
+
+    protected final EndpointImpl rpc;
+    protected final Class<?> apiInterface;
+    protected final int maxEntries;
+
+    public CachePrewarmer(EndpointImpl rpc, Class<?> apiInterface, int maxEntries) {
+        this.rpc = rpc;
+        this.apiInterface = apiInterface;
+        this.maxEntries = maxEntries;
+    }
+
+    @Override
+    public void run() {
+        android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_BACKGROUND);
+        Map<Integer, Method> methods = new HashMap<>();
+        for (Method method : apiInterface.getMethods()) {
+            LocalCache localCache = ReflectionCache.getAnnotationInherited(method, LocalCache.class);
+            if (localCache != null && localCache.enabled() && localCache.cacheLevel() != LocalCache.CacheLevel.MEMORY_ONLY
+                    && ReflectionCache.getAnnotation(method, RequestMethod.class) != null) {
+                methods.put(CacheMethod.getMethodId(method), method);
+            }
+        }
+        if (methods.isEmpty()) {
+            return;
+        }
+        Map<Integer, Integer> methodCounts = new HashMap<>();
+        int loaded = 0;
+        for (RequestFingerprint fingerprint : rpc.getHotKeys().getPreviousKeys()) {
+            if (loaded >= maxEntries || isMemoryFull()) {
+                break;
+            }
+            Method method = methods.get(fingerprint.getMethodId());
+            if (method == null) {
+                continue;
+            }
+            LocalCache localCache = ReflectionCache.getAnnotationInherited(method, LocalCache.class);
+            Integer methodCount = methodCounts.get(fingerprint.getMethodId());
+            methodCount = methodCount == null ? 0 : methodCount;
+            if (localCache.size() > 0 && methodCount >= localCache.size()) {
+                continue;
+            }
+            int lifeTime = localCache.lifeTime() > 0 && localCache.staleWhileRevalidate() > 0
+                    ? localCache.lifeTime() + localCache.staleWhileRevalidate() : localCache.lifeTime();
+            if (rpc.getMemoryCache().get(fingerprint, lifeTime, localCache.size()).result) {
+                methodCounts.put(fingerprint.getMethodId(), methodCount + 1);
+                continue;
+            }
+            CacheMethod cacheMethod = new CacheMethod(fingerprint.getMethodId(),
+                    RequestProxy.createMethodName(method, ReflectionCache.getAnnotation(method, RequestMethod.class)),
+                    method.getDeclaringClass().getSimpleName(), null, 0, rpc.getUrl(), localCache.cacheLevel());
+            //expired entries of revalidated methods are kept on disk for conditional requests
+            boolean revalidated = localCache.revalidate() && lifeTime > 0;
+            CacheResult cacheResult = rpc.getDiskCache().get(cacheMethod, fingerprint, revalidated ? 0 : lifeTime);
+            if (revalidated && System.currentTimeMillis() - cacheResult.createTime >= lifeTime) {
+                continue;
+            }
+            if (cacheResult.result && !(cacheResult.object instanceof RawResponse)) {
+                rpc.getMemoryCache().put(fingerprint, cacheResult.object, localCache.size(), cacheResult.getCreateTimeOrNow());
+                methodCounts.put(fingerprint.getMethodId(), methodCount + 1);
+                loaded++;
+            }
+        }
+        if ((rpc.getDebugFlags() & Endpoint.CACHE_DEBUG) > 0) {
+            JudoLogger.log("Prewarmed " + loaded + " cache entries of " + apiInterface.getSimpleName() + ".");
+        }
+    }
+
+    /**
+     * Leaves at least half of weighted memory cache for the current session.
+     */
+    protected boolean isMemoryFull() {
+        MemoryCache memoryCache = rpc.getMemoryCache();
+        if (memoryCache instanceof WeightedMemoryCache) {
+            WeightedMemoryCache weightedMemoryCache = (WeightedMemoryCache) memoryCache;
+            return weightedMemoryCache.getSize() >= weightedMemoryCache.getMaxSize() / 2;
+        }
+        return false;
+    }
+}
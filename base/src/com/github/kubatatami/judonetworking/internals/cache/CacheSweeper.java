@@ -0,0 +1,146 @@
+package com.github.kubatatami.judonetworking.internals.cache;
+
+import com.github.kubatatami.judonetworking.Endpoint;
+import com.github.kubatatami.judonetworking.internals.EndpointImpl;
+import com.github.kubatatami.judonetworking.internals.stats.CacheStats;
+import com.github.kubatatami.judonetworking.logs.JudoLogger;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Expiry index of local cache entries stored with a life time.
+ * A low priority thread removes expired entries from memory and disk cache in bulk,
+ * so they stop occupying cache budget before LRU pushes them out.
+ * Entries stored in previous sessions are still checked on get only.
+ */
+public class CacheSweeper {
+
+    protected static final long SWEEP_DELAY = 1000;
+
+    private final EndpointImpl rpc;
+    private final PriorityQueue<Expiry> queue = new PriorityQueue<>();
+    private final Map<RequestFingerprint, Expiry> expiries = new HashMap<>();
+    private Thread sweepThread;
+
+    public CacheSweeper(EndpointImpl rpc) {
+        this.rpc = rpc;
+    }
+
+    /**
+     * @param fingerprint entry fingerprint
+     * @param method      disk location of the entry or null if entry is in memory only
+     * @param expireTime  time in ms after which entry is removed
+     */
+    public void schedule(RequestFingerprint fingerprint, CacheMethod method, long expireTime) {
+        synchronized (queue) {
+            Expiry expiry = expiries.remove(fingerprint);
+            if (expiry != null) {
+                queue.remove(expiry);
+            }
+            expiry = new Expiry(fingerprint, method, expireTime);
+            expiries.put(fingerprint, expiry);
+            queue.add(expiry);
+            if (sweepThread == null) {
+                sweepThread = new SweepThread();
+                sweepThread.start();
+            }
+            if (queue.peek() == expiry) {
+                queue.notifyAll();
+            }
+        }
+    }
+
+    public void clear() {
+        synchronized (queue) {
+            queue.clear();
+            expiries.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (queue) {
+            return queue.size();
+        }
+    }
+
+    protected void sweep(List<Expiry> expired) {
+        CacheStats cacheStats = rpc.getCacheStats();
+        for (Expiry expiry : expired) {
+            rpc.getMemoryCache().clearCache(expiry.fingerprint);
+            cacheStats.recordExpiration(expiry.fingerprint.getMethodId(), CacheStats.Level.MEMORY);
+            if (expiry.method != null) {
+                rpc.getDiskCache().clearCache(expiry.method, expiry.fingerprint);
+                cacheStats.recordExpiration(expiry.fingerprint.getMethodId(), CacheStats.Level.of(expiry.method.getCacheLevel()));
+            }
+        }
+        if ((rpc.getDebugFlags() & Endpoint.CACHE_DEBUG) > 0) {
+            JudoLogger.log("Cache: Swept " + expired.size() + " expired entries.");
+        }
+    }
+
+    protected class SweepThread extends Thread {
+
+        public SweepThread() {
+            super("JudoNetworking CacheSweeper");
+            setPriority(Thread.MIN_PRIORITY);
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_BACKGROUND);
+            while (true) {
+                List<Expiry> expired = new ArrayList<>();
+                try {
+                    synchronized (queue) {
+                        while (queue.isEmpty() || queue.peek().expireTime > System.currentTimeMillis()) {
+                            if (queue.isEmpty()) {
+                                queue.wait();
+                            } else {
+                                queue.wait(Math.max(queue.peek().expireTime - System.currentTimeMillis(), 1));
+                            }
+                        }
+                    }
+                    //gather entries expiring shortly after the first one to remove them at once
+                    Thread.sleep(SWEEP_DELAY);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                synchronized (queue) {
+                    long now = System.currentTimeMillis();
+                    while (!queue.isEmpty() && queue.peek().expireTime <= now) {
+                        Expiry expiry = queue.poll();
+                        expiries.remove(expiry.fingerprint);
+                        expired.add(expiry);
+                    }
+                }
+                try {
+                    sweep(expired);
+                } catch (RuntimeException e) {
+                    JudoLogger.log(e);
+                }
+            }
+        }
+    }
+
+    protected static class Expiry implements Comparable<Expiry> {
+        final RequestFingerprint fingerprint;
+        final CacheMethod method;
+        final long expireTime;
+
+        Expiry(RequestFingerprint fingerprint, CacheMethod method, long expireTime) {
+            this.fingerprint = fingerprint;
+            this.method = method;
+            this.expireTime = expireTime;
+        }
+
+        @Override
+        public int compareTo(Expiry another) {
+            return expireTime < another.expireTime ? -1 : (expireTime == another.expireTime ? 0 : 1);
+        }
+    }
+}
@@ -0,0 +1,343 @@
+package com.github.kubatatami.judonetworking.internals.cache;
+
+import com.github.kubatatami.judonetworking.Endpoint;
+import com.github.kubatatami.judonetworking.annotations.LocalCache;
+import com.github.kubatatami.judonetworking.internals.EndpointImpl;
+import com.github.kubatatami.judonetworking.logs.JudoLogger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Inverted index from @CacheTags tags to local cache entries.
+ * Disk entries are also written to an append-only journal, so they can be invalidated in later sessions.
+ * Invalidation touches only entries of the tag and never scans cache directories.
+ */
+public class CacheTagIndex {
+
+    protected static final int VERSION = 1;
+    protected static final int MAX_KEY_LENGTH = 8192;
+    protected static final int COMPACT_MIN_RECORDS = 1000;
+    protected static final byte ADD = 1;
+    protected static final byte INVALIDATE = 2;
+    protected static final byte INVALIDATE_PREFIX = 3;
+
+    private final EndpointImpl rpc;
+    private final File file;
+    private final TreeMap<String, Set<RequestFingerprint>> tags = new TreeMap<>();
+    private final Map<RequestFingerprint, TaggedEntry> entries = new HashMap<>();
+    private DataOutputStream journal;
+    private int journalRecords;
+    private boolean loaded;
+
+    public CacheTagIndex(EndpointImpl rpc, File file) {
+        this.rpc = rpc;
+        this.file = file;
+    }
+
+    /**
+     * @param method disk location of the entry or null if entry is in memory only
+     */
+    public synchronized void add(String[] entryTags, RequestFingerprint fingerprint, CacheMethod method) {
+        load();
+        TaggedEntry entry = getEntry(fingerprint);
+        boolean newDiskEntry = method != null && entry.method == null;
+        if (newDiskEntry) {
+            entry.method = method;
+        }
+        for (String tag : entryTags) {
+            if ((index(entry, tag) || newDiskEntry) && entry.method != null) {
+                writeAdd(tag, entry);
+            }
+        }
+    }
+
+    /**
+     * Removes entries of the tag from memory and disk cache.
+     *
+     * @return number of removed entries
+     */
+    public int invalidate(String tag) {
+        List<TaggedEntry> removed;
+        synchronized (this) {
+            load();
+            removed = remove(tag);
+            writeInvalidate(INVALIDATE, tag, removed);
+        }
+        return clear(removed, tag);
+    }
+
+    /**
+     * Removes entries of all tags starting with the prefix from memory and disk cache.
+     *
+     * @return number of removed entries
+     */
+    public int invalidatePrefix(String prefix) {
+        List<TaggedEntry> removed = new ArrayList<>();
+        synchronized (this) {
+            load();
+            List<String> prefixTags = new ArrayList<>(tags.subMap(prefix, prefix + Character.MAX_VALUE).keySet());
+            for (String tag : prefixTags) {
+                removed.addAll(remove(tag));
+            }
+            writeInvalidate(INVALIDATE_PREFIX, prefix, removed);
+        }
+        return clear(removed, prefix + "*");
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    protected List<TaggedEntry> remove(String tag) {
+        List<TaggedEntry> removed = new ArrayList<>();
+        Set<RequestFingerprint> fingerprints = tags.remove(tag);
+        if (fingerprints != null) {
+            for (RequestFingerprint fingerprint : fingerprints) {
+                TaggedEntry entry = entries.remove(fingerprint);
+                for (String entryTag : entry.tags) {
+                    Set<RequestFingerprint> entryTagFingerprints = tags.get(entryTag);
+                    if (entryTagFingerprints != null) {
+                        entryTagFingerprints.remove(fingerprint);
+                        if (entryTagFingerprints.isEmpty()) {
+                            tags.remove(entryTag);
+                        }
+                    }
+                }
+                removed.add(entry);
+            }
+        }
+        return removed;
+    }
+
+    protected int clear(List<TaggedEntry> removed, String tag) {
+        for (TaggedEntry entry : removed) {
+            rpc.getMemoryCache().clearCache(entry.fingerprint);
+            if (entry.method != null) {
+                rpc.getDiskCache().clearCache(entry.method, entry.fingerprint);
+            }
+        }
+        if ((rpc.getDebugFlags() & Endpoint.CACHE_DEBUG) > 0) {
+            JudoLogger.log("Cache: Invalidated " + removed.size() + " entries with tag " + tag + ".");
+        }
+        return removed.size();
+    }
+
+    protected void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!file.exists()) {
+            return;
+        }
+        DataInputStream inputStream = null;
+        boolean broken = false;
+        try {
+            inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            broken = inputStream.readInt() != VERSION;
+            while (!broken) {
+                byte type;
+                try {
+                    type = inputStream.readByte();
+                } catch (EOFException e) {
+                    break;
+                }
+                journalRecords++;
+                if (type == ADD) {
+                    String tag = inputStream.readUTF();
+                    int methodId = inputStream.readInt();
+                    RequestFingerprint fingerprint = RequestFingerprint.fromKey(methodId, inputStream.readUTF());
+                    String methodName = inputStream.readUTF();
+                    String interfaceName = inputStream.readUTF();
+                    String url = inputStream.readUTF();
+                    LocalCache.CacheLevel level = LocalCache.CacheLevel.values()[inputStream.readByte()];
+                    TaggedEntry entry = getEntry(fingerprint);
+                    if (entry.method == null) {
+                        entry.method = new CacheMethod(methodId, methodName, interfaceName, null, 0, url, level);
+                    }
+                    index(entry, tag);
+                } else if (type == INVALIDATE) {
+                    remove(inputStream.readUTF());
+                } else if (type == INVALIDATE_PREFIX) {
+                    String prefix = inputStream.readUTF();
+                    for (String tag : new ArrayList<>(tags.subMap(prefix, prefix + Character.MAX_VALUE).keySet())) {
+                        remove(tag);
+                    }
+                } else {
+                    throw new IOException("Unknown cache tags journal record " + type);
+                }
+            }
+        } catch (EOFException e) {
+            JudoLogger.log("Cache tags journal is truncated.");
+            broken = true;
+        } catch (IOException | RuntimeException e) {
+            JudoLogger.log(e);
+            broken = true;
+        } finally {
+            try {
+                if (inputStream != null) {
+                    inputStream.close();
+                }
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        }
+        //records appended after a broken one would be lost, so the journal is rewritten
+        compact(broken);
+    }
+
+    protected TaggedEntry getEntry(RequestFingerprint fingerprint) {
+        TaggedEntry entry = entries.get(fingerprint);
+        if (entry == null) {
+            entry = new TaggedEntry(fingerprint);
+            entries.put(fingerprint, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * @return true if the entry wasn't tagged with the tag before
+     */
+    protected boolean index(TaggedEntry entry, String tag) {
+        if (!entry.tags.add(tag)) {
+            return false;
+        }
+        Set<RequestFingerprint> fingerprints = tags.get(tag);
+        if (fingerprints == null) {
+            fingerprints = new HashSet<>();
+            tags.put(tag, fingerprints);
+        }
+        fingerprints.add(entry.fingerprint);
+        return true;
+    }
+
+    protected void writeAdd(String tag, TaggedEntry entry) {
+        if (entry.fingerprint.getKey().length() > MAX_KEY_LENGTH) {
+            return;
+        }
+        try {
+            DataOutputStream outputStream = getJournal();
+            writeAddRecord(outputStream, tag, entry);
+            outputStream.flush();
+            journalRecords++;
+        } catch (IOException e) {
+            JudoLogger.log(e);
+        }
+    }
+
+    protected void writeAddRecord(DataOutputStream outputStream, String tag, TaggedEntry entry) throws IOException {
+        CacheMethod method = entry.method;
+        outputStream.writeByte(ADD);
+        outputStream.writeUTF(tag);
+        outputStream.writeInt(entry.fingerprint.getMethodId());
+        outputStream.writeUTF(entry.fingerprint.getKey());
+        outputStream.writeUTF(method.toString());
+        outputStream.writeUTF(method.getInterfaceName());
+        outputStream.writeUTF(method.getUrl());
+        outputStream.writeByte(method.getCacheLevel().ordinal());
+    }
+
+    protected void writeInvalidate(byte type, String tag, List<TaggedEntry> removed) {
+        boolean onDisk = false;
+        for (TaggedEntry entry : removed) {
+            if (entry.method != null) {
+                onDisk = true;
+                break;
+            }
+        }
+        if (!onDisk) {
+            return;
+        }
+        try {
+            DataOutputStream outputStream = getJournal();
+            outputStream.writeByte(type);
+            outputStream.writeUTF(tag);
+            outputStream.flush();
+            journalRecords++;
+        } catch (IOException e) {
+            JudoLogger.log(e);
+        }
+        compact(false);
+    }
+
+    protected DataOutputStream getJournal() throws IOException {
+        if (journal == null) {
+            boolean exists = file.exists();
+            journal = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+            if (!exists) {
+                journal.writeInt(VERSION);
+            }
+        }
+        return journal;
+    }
+
+    /**
+     * Rewrites the journal with live disk entries only when most of its records are obsolete.
+     */
+    protected void compact(boolean force) {
+        int liveRecords = 0;
+        for (TaggedEntry entry : entries.values()) {
+            if (entry.method != null) {
+                liveRecords += entry.tags.size();
+            }
+        }
+        if (!force && (journalRecords < COMPACT_MIN_RECORDS || journalRecords < liveRecords * 2)) {
+            return;
+        }
+        try {
+            if (journal != null) {
+                journal.close();
+                journal = null;
+            }
+            File tmpFile = new File(file.getPath() + ".tmp");
+            DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+            journalRecords = 0;
+            try {
+                outputStream.writeInt(VERSION);
+                for (TaggedEntry entry : entries.values()) {
+                    if (entry.method != null && entry.fingerprint.getKey().length() <= MAX_KEY_LENGTH) {
+                        for (String tag : entry.tags) {
+                            writeAddRecord(outputStream, tag, entry);
+                            journalRecords++;
+                        }
+                    }
+                }
+            } finally {
+                outputStream.close();
+            }
+            if (!tmpFile.renameTo(file)) {
+                throw new IOException("Can't replace " + file);
+            }
+            if ((rpc.getDebugFlags() & Endpoint.CACHE_DEBUG) > 0) {
+                JudoLogger.log("Cache: Compacted cache tags journal to " + journalRecords + " records.");
+            }
+        } catch (IOException e) {
+            JudoLogger.log(e);
+        }
+    }
+
+    protected static class TaggedEntry {
+        final RequestFingerprint fingerprint;
+        final Set<String> tags = new HashSet<>();
+        CacheMethod method;
+
+        TaggedEntry(RequestFingerprint fingerprint) {
+            this.fingerprint = fingerprint;
+        }
+    }
+}
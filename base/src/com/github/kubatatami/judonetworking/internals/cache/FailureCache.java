@@ -0,0 +1,56 @@
+package com.github.kubatatami.judonetworking.internals.cache;
+
+import com.github.kubatatami.judonetworking.exceptions.JudoException;
+
+import java.util.LinkedHashMap;
+
+/**
+ * Errors remembered by {@link com.github.kubatatami.judonetworking.annotations.NegativeCache}.
+ * Kept apart from memory cache, so failures don't count against <code>size</code> of LocalCache
+ * and don't evict cached results. The least recently used errors are dropped above maxEntries.
+ */
+public class FailureCache {
+
+    private final int maxEntries;
+    private final LinkedHashMap<RequestFingerprint, Failure> failures = new LinkedHashMap<>(16, 0.75f, true);
+
+    public FailureCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * @return error remembered within lifeTime or null
+     */
+    public synchronized JudoException get(RequestFingerprint fingerprint, int lifeTime) {
+        Failure failure = failures.get(fingerprint);
+        if (failure == null) {
+            return null;
+        }
+        if (lifeTime > 0 && System.currentTimeMillis() - failure.createTime >= lifeTime) {
+            failures.remove(fingerprint);
+            return null;
+        }
+        return failure.error;
+    }
+
+    public synchronized void put(RequestFingerprint fingerprint, JudoException error) {
+        failures.put(fingerprint, new Failure(System.currentTimeMillis(), error));
+        while (failures.size() > maxEntries) {
+            failures.remove(failures.keySet().iterator().next());
+        }
+    }
+
+    public synchronized void clear() {
+        failures.clear();
+    }
+
+    static class Failure {
+        final long createTime;
+        final JudoException error;
+
+        Failure(long createTime, JudoException error) {
+            this.createTime = createTime;
+            this.error = error;
+        }
+    }
+}
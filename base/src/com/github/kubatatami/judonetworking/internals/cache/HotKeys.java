@@ -0,0 +1,154 @@
+package com.github.kubatatami.judonetworking.internals.cache;
+
+import com.github.kubatatami.judonetworking.logs.JudoLogger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Most recently used disk cache keys. Keys used in this session are saved in the background,
+ * keys of the previous session are used to prewarm memory cache.
+ */
+public class HotKeys {
+
+    protected static final int VERSION = 1;
+    protected static final int MAX_KEY_LENGTH = 8192;
+    protected static final long SAVE_DELAY = 5000;
+
+    private final File file;
+    private final int maxKeys;
+    private final LinkedHashMap<RequestFingerprint, Boolean> keys = new LinkedHashMap<>(16, 0.75f, true);
+    private List<RequestFingerprint> previousKeys;
+    private boolean dirty;
+    private Thread saveThread;
+
+    public HotKeys(File file, int maxKeys) {
+        this.file = file;
+        this.maxKeys = maxKeys;
+    }
+
+    public void record(RequestFingerprint fingerprint) {
+        if (fingerprint.getKey().length() > MAX_KEY_LENGTH) {
+            return;
+        }
+        synchronized (keys) {
+            keys.put(fingerprint, Boolean.TRUE);
+            while (keys.size() > maxKeys) {
+                keys.remove(keys.keySet().iterator().next());
+            }
+            dirty = true;
+            if (saveThread == null) {
+                saveThread = new SaveThread();
+                saveThread.start();
+            }
+            keys.notifyAll();
+        }
+    }
+
+    /**
+     * @return keys used in the previous session, most recently used first
+     */
+    public synchronized List<RequestFingerprint> getPreviousKeys() {
+        if (previousKeys == null) {
+            previousKeys = load();
+        }
+        return previousKeys;
+    }
+
+    protected List<RequestFingerprint> load() {
+        List<RequestFingerprint> result = new ArrayList<>();
+        if (!file.exists()) {
+            return result;
+        }
+        DataInputStream inputStream = null;
+        try {
+            inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (inputStream.readInt() == VERSION) {
+                int size = inputStream.readInt();
+                for (int i = 0; i < size; i++) {
+                    int methodId = inputStream.readInt();
+                    result.add(RequestFingerprint.fromKey(methodId, inputStream.readUTF()));
+                }
+            }
+        } catch (EOFException e) {
+            JudoLogger.log("Hot keys file is truncated.");
+        } catch (IOException e) {
+            JudoLogger.log(e);
+        } finally {
+            try {
+                if (inputStream != null) {
+                    inputStream.close();
+                }
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        }
+        Collections.reverse(result);
+        return result;
+    }
+
+    protected void save(List<RequestFingerprint> fingerprints) throws IOException {
+        File tmpFile = new File(file.getPath() + ".tmp");
+        DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+        try {
+            outputStream.writeInt(VERSION);
+            outputStream.writeInt(fingerprints.size());
+            for (RequestFingerprint fingerprint : fingerprints) {
+                outputStream.writeInt(fingerprint.getMethodId());
+                outputStream.writeUTF(fingerprint.getKey());
+            }
+        } finally {
+            outputStream.close();
+        }
+        if (!tmpFile.renameTo(file)) {
+            throw new IOException("Can't replace " + file);
+        }
+    }
+
+    protected class SaveThread extends Thread {
+
+        public SaveThread() {
+            super("JudoNetworking HotKeys");
+            setPriority(Thread.MIN_PRIORITY);
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_BACKGROUND);
+            //previous session must be read before it's overwritten
+            getPreviousKeys();
+            while (true) {
+                List<RequestFingerprint> fingerprints;
+                try {
+                    Thread.sleep(SAVE_DELAY);
+                    synchronized (keys) {
+                        while (!dirty) {
+                            keys.wait();
+                        }
+                        dirty = false;
+                        fingerprints = new ArrayList<>(keys.keySet());
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                try {
+                    save(fingerprints);
+                } catch (IOException e) {
+                    JudoLogger.log(e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.github.kubatatami.judonetworking.internals.cache;
+
+import android.annotation.TargetApi;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.os.Build;
+
+import com.github.kubatatami.judonetworking.Endpoint;
+import com.github.kubatatami.judonetworking.internals.EndpointImpl;
+import com.github.kubatatami.judonetworking.logs.JudoLogger;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * Passes system memory pressure to the memory cache of an endpoint.
+ * Registered only on API 14 and newer. It doesn't keep the endpoint alive
+ * and unregisters itself when the endpoint is gone.
+ */
+@TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+public class MemoryTrimCallbacks implements ComponentCallbacks2 {
+
+    private final Context context;
+    private final WeakReference<EndpointImpl> rpc;
+
+    public MemoryTrimCallbacks(Context context, EndpointImpl rpc) {
+        this.context = context;
+        this.rpc = new WeakReference<>(rpc);
+    }
+
+    public static void register(Context context, EndpointImpl rpc) {
+        Context applicationContext = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+        applicationContext.registerComponentCallbacks(new MemoryTrimCallbacks(applicationContext, rpc));
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        EndpointImpl endpoint = rpc.get();
+        if (endpoint == null) {
+            context.unregisterComponentCallbacks(this);
+            return;
+        }
+        if ((endpoint.getDebugFlags() & Endpoint.CACHE_DEBUG) > 0) {
+            JudoLogger.log("Cache: Trim memory level " + level + ".");
+        }
+        endpoint.getMemoryCache().trimMemory(level);
+        endpoint.getFailureCache().clear();
+    }
+
+    @Override
+    public void onLowMemory() {
+        onTrimMemory(TRIM_MEMORY_COMPLETE);
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+}
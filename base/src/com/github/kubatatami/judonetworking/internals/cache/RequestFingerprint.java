@@ -0,0 +1,240 @@
+package com.github.kubatatami.judonetworking.internals.cache;
+
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Identity of a request used by every cache layer.
+ * It holds a stable 128-bit hash of method id and canonical argument encoding.
+ * Equal hashes are confirmed by comparing the canonical encoding itself,
+ * so colliding argument sets never share a cache entry.
+ * Models are encoded field by field (static, transient and synthetic fields are skipped),
+ * so their toString() and hashCode() don't affect the key.
+ */
+public class RequestFingerprint {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final Map<Class<?>, Field[]> FIELDS = new ConcurrentHashMap<>();
+
+    private final int methodId;
+    private final String key;
+    private final long mostSigBits;
+    private final long leastSigBits;
+    private String hex;
+
+    protected RequestFingerprint(int methodId, String key) {
+        this.methodId = methodId;
+        this.key = key;
+        byte[] digest = digest(methodId + "#" + key);
+        long most = 0;
+        long least = 0;
+        for (int i = 0; i < 8; i++) {
+            most = (most << 8) | (digest[i] & 0xff);
+            least = (least << 8) | (digest[i + 8] & 0xff);
+        }
+        this.mostSigBits = most;
+        this.leastSigBits = least;
+    }
+
+    public static RequestFingerprint create(int methodId, Object[] args) {
+        StringBuilder builder = new StringBuilder();
+        if (args != null) {
+            encodeArray(builder, args, new IdentityHashMap<Object, Integer>());
+        } else {
+            builder.append('N');
+        }
+        return new RequestFingerprint(methodId, builder.toString());
+    }
+
+    /**
+     * Recreates fingerprint from a canonical key stored next to a cache entry.
+     */
+    public static RequestFingerprint fromKey(int methodId, String key) {
+        return new RequestFingerprint(methodId, key);
+    }
+
+    public int getMethodId() {
+        return methodId;
+    }
+
+    /**
+     * @return canonical encoding of arguments
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * @return fixed-length (32 chars) hex form of the hash, safe to use as a file name
+     */
+    public String toHex() {
+        if (hex == null) {
+            char[] chars = new char[32];
+            for (int i = 0; i < 16; i++) {
+                chars[15 - i] = HEX[(int) ((mostSigBits >>> (i * 4)) & 0xf)];
+                chars[31 - i] = HEX[(int) ((leastSigBits >>> (i * 4)) & 0xf)];
+            }
+            hex = new String(chars);
+        }
+        return hex;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof RequestFingerprint)) {
+            return false;
+        }
+        RequestFingerprint that = (RequestFingerprint) o;
+        return methodId == that.methodId && mostSigBits == that.mostSigBits
+                && leastSigBits == that.leastSigBits && key.equals(that.key);
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (mostSigBits ^ (mostSigBits >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return methodId + ":" + toHex();
+    }
+
+    protected static byte[] digest(String value) {
+        try {
+            return MessageDigest.getInstance("MD5").digest(value.getBytes("UTF-8"));
+        } catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @param references objects already encoded with their indexes, so cycles are encoded as references
+     */
+    protected static void encodeArray(StringBuilder builder, Object array, Map<Object, Integer> references) {
+        int length = Array.getLength(array);
+        builder.append('[').append(length).append(':');
+        for (int i = 0; i < length; i++) {
+            encode(builder, Array.get(array, i), references);
+        }
+        builder.append(']');
+    }
+
+    protected static void encodeString(StringBuilder builder, char tag, String value) {
+        builder.append(tag).append(value.length()).append(':').append(value);
+    }
+
+    protected static void encode(StringBuilder builder, Object value, Map<Object, Integer> references) {
+        if (value == null) {
+            builder.append('N');
+        } else if (value instanceof String) {
+            encodeString(builder, 'S', (String) value);
+        } else if (value instanceof Integer) {
+            builder.append('I').append(value).append(';');
+        } else if (value instanceof Long) {
+            builder.append('J').append(value).append(';');
+        } else if (value instanceof Boolean) {
+            builder.append(((Boolean) value) ? "Z1" : "Z0");
+        } else if (value instanceof Double) {
+            builder.append('D').append(value).append(';');
+        } else if (value instanceof Float) {
+            builder.append('F').append(value).append(';');
+        } else if (value instanceof Short) {
+            builder.append('H').append(value).append(';');
+        } else if (value instanceof Byte) {
+            builder.append('B').append(value).append(';');
+        } else if (value instanceof Character) {
+            builder.append('C').append(value);
+        } else if (value instanceof Enum) {
+            encodeString(builder, 'E', ((Enum) value).getDeclaringClass().getName() + "." + ((Enum) value).name());
+        } else if (value.getClass().isArray()) {
+            encodeArray(builder, value, references);
+        } else if (value instanceof Collection) {
+            Collection<?> collection = (Collection<?>) value;
+            builder.append('L').append(collection.size()).append(':');
+            for (Object element : collection) {
+                encode(builder, element, references);
+            }
+            builder.append(']');
+        } else if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            builder.append('M').append(map.size()).append(':');
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                encode(builder, entry.getKey(), references);
+                encode(builder, entry.getValue(), references);
+            }
+            builder.append(']');
+        } else if (value instanceof Date) {
+            builder.append('T').append(((Date) value).getTime()).append(';');
+        } else if (value.getClass().getName().startsWith("java.")) {
+            //values like BigDecimal or URI, their fields aren't accessible
+            encodeString(builder, 'V', value.getClass().getName());
+            encodeString(builder, ':', value.toString());
+        } else {
+            encodeObject(builder, value, references);
+        }
+    }
+
+    protected static void encodeObject(StringBuilder builder, Object value, Map<Object, Integer> references) {
+        Integer reference = references.get(value);
+        if (reference != null) {
+            builder.append('R').append(reference).append(';');
+            return;
+        }
+        references.put(value, references.size());
+        encodeString(builder, 'O', value.getClass().getName());
+        builder.append('{');
+        try {
+            for (Field field : getFields(value.getClass())) {
+                encode(builder, field.get(value), references);
+            }
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+        builder.append('}');
+    }
+
+    /**
+     * @return instance fields of the class and its superclasses, sorted by name within every class
+     */
+    protected static Field[] getFields(Class<?> clazz) {
+        Field[] fields = FIELDS.get(clazz);
+        if (fields == null) {
+            List<Field> result = new ArrayList<>();
+            for (Class<?> current = clazz; current != null && current != Object.class; current = current.getSuperclass()) {
+                Field[] declaredFields = current.getDeclaredFields();
+                Arrays.sort(declaredFields, new Comparator<Field>() {
+                    @Override
+                    public int compare(Field lhs, Field rhs) {
+                        return lhs.getName().compareTo(rhs.getName());
+                    }
+                });
+                for (Field field : declaredFields) {
+                    int modifiers = field.getModifiers();
+                    if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers) && !field.isSynthetic()) {
+                        field.setAccessible(true);
+                        result.add(field);
+                    }
+                }
+            }
+            fields = result.toArray(new Field[result.size()]);
+            FIELDS.put(clazz, fields);
+        }
+        return fields;
+    }
+}
@@ -0,0 +1,36 @@
+package com.github.kubatatami.judonetworking.internals.cache;
+
+import android.content.ComponentCallbacks2;
+
+/**
+ * Maps ComponentCallbacks2 trim levels to the part of memory cache which is kept.
+ */
+public class TrimLevel {
+
+    private TrimLevel() {
+    }
+
+    /**
+     * @param level ComponentCallbacks2.TRIM_MEMORY_* level
+     * @return part of memory cache entries or budget which should be kept, from 0 to 1
+     */
+    public static float getRetainedFraction(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE) {
+            return 0;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            return 0.25f;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            return 0.5f;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            return 1;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            return 0.25f;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            return 0.5f;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+            return 0.75f;
+        } else {
+            return 1;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.github.kubatatami.judonetworking.internals.requests;
+
+import com.github.kubatatami.judonetworking.exceptions.CancelException;
+import com.github.kubatatami.judonetworking.exceptions.JudoException;
+import com.github.kubatatami.judonetworking.internals.stats.TimeStat;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Result of a coalesced request shared by the call which sends it and identical calls waiting for it.
+ */
+public class InFlightCall {
+
+    private final CountDownLatch latch = new CountDownLatch(1);
+    private final RequestImpl owner;
+    private final TimeStat timeStat;
+    private volatile Object result;
+    private volatile JudoException error;
+
+    public InFlightCall(RequestImpl owner, TimeStat timeStat) {
+        this.owner = owner;
+        this.timeStat = timeStat;
+    }
+
+    public RequestImpl getOwner() {
+        return owner;
+    }
+
+    public void complete(Object result, JudoException error) {
+        if (latch.getCount() > 0) {
+            this.result = result;
+            this.error = error;
+            latch.countDown();
+        }
+    }
+
+    public boolean isCompleted() {
+        return latch.getCount() == 0;
+    }
+
+    /**
+     * Waits for the result, at most the timeout of the waiting request.
+     * Progress of the shared request is reported to the waiting request too.
+     *
+     * @return true if the sending call was cancelled or didn't complete in time ({@link #isCompleted()} is false then)
+     * and the waiting call should send its own request
+     */
+    public boolean await(RequestImpl request) throws JudoException {
+        if (timeStat != null) {
+            timeStat.addProgressObserver(request);
+        }
+        try {
+            Integer timeout = request.getTimeout();
+            if (timeout != null && timeout > 0) {
+                if (!latch.await(timeout, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+            } else {
+                latch.await();
+            }
+        } catch (InterruptedException e) {
+            throw new CancelException();
+        }
+        return error instanceof CancelException;
+    }
+
+    public Object getResult() throws JudoException {
+        if (error != null) {
+            throw error;
+        }
+        return result;
+    }
+
+    public JudoException getError() {
+        return error;
+    }
+}
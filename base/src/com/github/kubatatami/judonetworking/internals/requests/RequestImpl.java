@@ -3,8 +3,12 @@ package com.github.kubatatami.judonetworking.internals.requests;
 import com.github.kubatatami.judonetworking.Endpoint;
 import com.github.kubatatami.judonetworking.Request;
 import com.github.kubatatami.judonetworking.annotations.ApiKeyRequired;
+import com.github.kubatatami.judonetworking.annotations.CacheTags;
+import com.github.kubatatami.judonetworking.annotations.Coalesce;
 import com.github.kubatatami.judonetworking.annotations.Delay;
+import com.github.kubatatami.judonetworking.annotations.DeltaSync;
 import com.github.kubatatami.judonetworking.annotations.LocalCache;
+import com.github.kubatatami.judonetworking.annotations.NegativeCache;
 import com.github.kubatatami.judonetworking.annotations.RequestMethod;
 import com.github.kubatatami.judonetworking.annotations.ServerCache;
 import com.github.kubatatami.judonetworking.annotations.SingleCall;
@@ -18,6 +22,7 @@ import com.github.kubatatami.judonetworking.internals.ProgressObserver;
 import com.github.kubatatami.judonetworking.internals.RequestProxy;
 import com.github.kubatatami.judonetworking.CacheInfo;
 import com.github.kubatatami.judonetworking.internals.cache.CacheMethod;
+import com.github.kubatatami.judonetworking.internals.cache.RequestFingerprint;
 import com.github.kubatatami.judonetworking.internals.stats.TimeStat;
 import com.github.kubatatami.judonetworking.utils.ReflectionCache;
 import com.github.kubatatami.judonetworking.logs.ErrorLogger;
@@ -48,6 +53,8 @@ public class RequestImpl implements Runnable, Comparable<RequestImpl>, ProgressO
     private boolean isApiKeyRequired;
     private String customUrl;
     private Future<?> future;
+    private Integer methodId;
+    private RequestFingerprint fingerprint;
 
 
     public RequestImpl(Integer id, EndpointImpl rpc, Method method, String name, RequestMethod ann,
@@ -69,6 +76,20 @@ public class RequestImpl implements Runnable, Comparable<RequestImpl>, ProgressO
         this.paramNames = ann.paramNames();
     }
 
+    /**
+     * @return internal copy of the request without callback and progress, used to send it again in the background
+     */
+    public RequestImpl copy() {
+        RequestImpl copy = new RequestImpl(id, rpc, method, name, ann, args != null ? args.clone() : null, returnType, timeout,
+                null, additionalControllerData);
+        copy.paramNames = paramNames;
+        copy.customUrl = customUrl;
+        copy.isApiKeyRequired = isApiKeyRequired;
+        copy.methodId = methodId;
+        copy.fingerprint = getFingerprint();
+        return copy;
+    }
+
     @Override
     public void run() {
         try {
@@ -148,7 +169,20 @@ public class RequestImpl implements Runnable, Comparable<RequestImpl>, ProgressO
 
     @Override
     public int getMethodId() {
-        return CacheMethod.getMethodId(method);
+        if (methodId == null) {
+            methodId = method != null ? CacheMethod.getMethodId(method) : name.hashCode();
+        }
+        return methodId;
+    }
+
+    /**
+     * @return Fingerprint of method and current arguments, computed once per arguments set.
+     */
+    public RequestFingerprint getFingerprint() {
+        if (fingerprint == null) {
+            fingerprint = RequestFingerprint.create(getMethodId(), args);
+        }
+        return fingerprint;
     }
 
     @Override
@@ -177,6 +211,7 @@ public class RequestImpl implements Runnable, Comparable<RequestImpl>, ProgressO
     @Override
     public void setArgs(Object[] args) {
         this.args = args;
+        this.fingerprint = null;
     }
 
     @Override
@@ -229,6 +264,81 @@ public class RequestImpl implements Runnable, Comparable<RequestImpl>, ProgressO
         }
     }
 
+    public boolean isCoalesced() {
+        if (method != null) {
+            Coalesce ann = ReflectionCache.getAnnotationInherited(method, Coalesce.class);
+            return ann != null && ann.enabled();
+        } else {
+            return false;
+        }
+    }
+
+    public boolean isDeltaSync() {
+        if (method != null) {
+            DeltaSync ann = ReflectionCache.getAnnotationInherited(method, DeltaSync.class);
+            return ann != null && ann.enabled();
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * @return @CacheTags of the method with argument placeholders replaced or null
+     */
+    public String[] getCacheTags() {
+        if (method != null) {
+            CacheTags ann = ReflectionCache.getAnnotationInherited(method, CacheTags.class);
+            if (ann == null || !ann.enabled()) {
+                return null;
+            }
+            String[] tags = new String[ann.value().length];
+            for (int i = 0; i < tags.length; i++) {
+                tags[i] = resolveTag(ann.value()[i]);
+            }
+            return tags;
+        } else {
+            return null;
+        }
+    }
+
+    protected String resolveTag(String tag) {
+        StringBuilder builder = new StringBuilder();
+        int start = 0;
+        int open;
+        while ((open = tag.indexOf('{', start)) != -1) {
+            int close = tag.indexOf('}', open);
+            if (close == -1) {
+                break;
+            }
+            builder.append(tag, start, open);
+            int index;
+            try {
+                index = Integer.parseInt(tag.substring(open + 1, close));
+            } catch (NumberFormatException e) {
+                index = -1;
+            }
+            if (args == null || index < 0 || index >= args.length) {
+                throw new IllegalArgumentException("Wrong argument index in @CacheTags(\"" + tag + "\") of " + name + ".");
+            }
+            builder.append(args[index]);
+            start = close + 1;
+        }
+        builder.append(tag, start, tag.length());
+        return builder.toString();
+    }
+
+    public NegativeCache getNegativeCache() {
+        if (method != null) {
+            NegativeCache ann = ReflectionCache.getAnnotationInherited(method, NegativeCache.class);
+            if (ann != null && !ann.enabled()) {
+                ann = null;
+            }
+            return ann;
+        } else {
+            return null;
+        }
+    }
+
     public SingleCall getSingleCall() {
         if (method != null) {
             SingleCall ann = ReflectionCache.getAnnotationInherited(method,SingleCall.class);
@@ -249,6 +359,10 @@ public class RequestImpl implements Runnable, Comparable<RequestImpl>, ProgressO
         return getLocalCache() != null;
     }
 
+    public int getLocalCacheStaleWhileRevalidate() {
+        return getLocalCache().staleWhileRevalidate();
+    }
+
     public int getLocalCacheSize() {
         return getLocalCache().size();
     }
@@ -257,6 +371,12 @@ public class RequestImpl implements Runnable, Comparable<RequestImpl>, ProgressO
         return getLocalCache().cacheLevel();
     }
 
+    public boolean isLocalCacheRevalidated() {
+        LocalCache localCache = getLocalCache();
+        return localCache != null && localCache.revalidate() && localCache.lifeTime() > 0
+                && localCache.cacheLevel() != LocalCache.CacheLevel.MEMORY_ONLY;
+    }
+
 
     public LocalCache.OnlyOnError getLocalCacheOnlyOnErrorMode() {
         LocalCache localCache = getLocalCache();
@@ -279,6 +399,20 @@ public class RequestImpl implements Runnable, Comparable<RequestImpl>, ProgressO
         return getServerCache().useOldOnError();
     }
 
+    public boolean isLocalCacheRaw() {
+        LocalCache localCache = getLocalCache();
+        return localCache != null && localCache.rawResponse() && localCache.cacheLevel() != LocalCache.CacheLevel.MEMORY_ONLY;
+    }
+
+    public boolean isServerCacheRaw() {
+        ServerCache serverCache = getServerCache();
+        return serverCache != null && serverCache.rawResponse();
+    }
+
+    public boolean isRawResponseRequired() {
+        return isLocalCacheRaw() || isServerCacheRaw();
+    }
+
     public long getWeight() {
         if (rpc.getStats().containsKey(name)) {
             return Math.max(rpc.getStats().get(name).avgTime, 1);
@@ -379,7 +513,9 @@ public class RequestImpl implements Runnable, Comparable<RequestImpl>, ProgressO
         if (running) {
             running = false;
             synchronized (rpc.getSingleCallMethods()) {
-                rpc.getSingleCallMethods().remove(CacheMethod.getMethodId(method));
+                if (rpc.getSingleCallMethods().get(getMethodId()) == this) {
+                    rpc.getSingleCallMethods().remove(getMethodId());
+                }
             }
 
             if (future != null) {
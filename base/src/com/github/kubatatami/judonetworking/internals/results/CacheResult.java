@@ -3,10 +3,16 @@ package com.github.kubatatami.judonetworking.internals.results;
 import java.io.Serializable;
 
 public class CacheResult implements Serializable {
+    private static final long serialVersionUID = -2454857507768026996L;
+
     public Object object;
     public boolean result;
     public Long time;
     public String hash;
+    public String key;
+    public long createTime;
+    public long expireTime;
+    public long staleIfErrorTime;
 
     public CacheResult() {
 
@@ -18,4 +24,11 @@ public class CacheResult implements Serializable {
         this.time = time;
         this.hash = hash;
     }
+
+    /**
+     * Entries saved before create time was stored have none, they are treated as created now.
+     */
+    public long getCreateTimeOrNow() {
+        return createTime > 0 ? createTime : System.currentTimeMillis();
+    }
 }
\ No newline at end of file
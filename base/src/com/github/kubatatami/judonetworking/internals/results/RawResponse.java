@@ -0,0 +1,34 @@
+package com.github.kubatatami.judonetworking.internals.results;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Response body exactly as received from the transport layer, stored by disk cache
+ * instead of the parsed object. It's parsed again by the protocol controller which received it.
+ */
+public class RawResponse implements Serializable {
+    public byte[] body;
+    public HashMap<String, List<String>> headers;
+    public String controller;
+
+    public RawResponse() {
+
+    }
+
+    public RawResponse(byte[] body, Map<String, List<String>> headers, String controller) {
+        this.body = body;
+        this.controller = controller;
+        this.headers = new HashMap<>();
+        if (headers != null) {
+            for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+                if (entry.getKey() != null && entry.getValue() != null) {
+                    this.headers.put(entry.getKey(), new ArrayList<>(entry.getValue()));
+                }
+            }
+        }
+    }
+}
@@ -15,9 +15,12 @@ public abstract class RequestResult implements Comparable<RequestResult> {
     public Object result;
     public JudoException error;
     public Object cacheObject;
+    public RawResponse rawResponse;
 
     public String hash;
     public Long time;
+    public long expireTime;
+    public long staleIfErrorTime;
 
     @Override
     public int compareTo(RequestResult model) {
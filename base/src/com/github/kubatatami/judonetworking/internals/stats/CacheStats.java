@@ -0,0 +1,178 @@
+package com.github.kubatatami.judonetworking.internals.stats;
+
+import com.github.kubatatami.judonetworking.annotations.LocalCache;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache counters per method id and cache level. Counting takes no locks.
+ */
+public class CacheStats {
+
+    public enum Level {
+        MEMORY, DISK_CACHE, DISK_DATA;
+
+        public static Level of(LocalCache.CacheLevel cacheLevel) {
+            switch (cacheLevel) {
+                case DISK_CACHE:
+                    return DISK_CACHE;
+                case DISK_DATA:
+                    return DISK_DATA;
+                default:
+                    return MEMORY;
+            }
+        }
+    }
+
+    private final ConcurrentHashMap<Integer, MethodCounters> methods = new ConcurrentHashMap<>();
+
+    public void recordGet(int methodId, String name, Level level, boolean hit, long loadTimeNanos) {
+        MethodCounters methodCounters = getMethodCounters(methodId);
+        if (name != null && methodCounters.name == null) {
+            methodCounters.name = name;
+        }
+        Counters counters = methodCounters.levels[level.ordinal()];
+        if (hit) {
+            counters.hits.incrementAndGet();
+        } else {
+            counters.misses.incrementAndGet();
+        }
+        counters.loadTime.addAndGet(loadTimeNanos);
+    }
+
+    public void recordEviction(int methodId, Level level) {
+        getMethodCounters(methodId).levels[level.ordinal()].evictions.incrementAndGet();
+    }
+
+    public void recordExpiration(int methodId, Level level) {
+        getMethodCounters(methodId).levels[level.ordinal()].expirations.incrementAndGet();
+    }
+
+    /**
+     * @param bytes size of a stored entry
+     */
+    public void recordBytes(int methodId, Level level, long bytes) {
+        getMethodCounters(methodId).levels[level.ordinal()].bytes.addAndGet(bytes);
+    }
+
+    /**
+     * @return current values of all counters, levels without any events are skipped
+     */
+    public List<Snapshot> snapshot() {
+        return snapshot(false);
+    }
+
+    /**
+     * @return current values of all counters, counters are set to zero
+     */
+    public List<Snapshot> snapshotAndReset() {
+        return snapshot(true);
+    }
+
+    public void reset() {
+        methods.clear();
+    }
+
+    protected List<Snapshot> snapshot(boolean reset) {
+        List<Snapshot> result = new ArrayList<>();
+        for (Map.Entry<Integer, MethodCounters> entry : methods.entrySet()) {
+            for (Level level : Level.values()) {
+                Snapshot snapshot = entry.getValue().levels[level.ordinal()].snapshot(reset);
+                if (!snapshot.isEmpty()) {
+                    snapshot.methodId = entry.getKey();
+                    snapshot.name = entry.getValue().name;
+                    snapshot.level = level;
+                    result.add(snapshot);
+                }
+            }
+        }
+        return result;
+    }
+
+    protected MethodCounters getMethodCounters(int methodId) {
+        MethodCounters methodCounters = methods.get(methodId);
+        if (methodCounters == null) {
+            MethodCounters newMethodCounters = new MethodCounters();
+            methodCounters = methods.putIfAbsent(methodId, newMethodCounters);
+            if (methodCounters == null) {
+                methodCounters = newMethodCounters;
+            }
+        }
+        return methodCounters;
+    }
+
+    protected static class MethodCounters {
+        volatile String name;
+        final Counters[] levels = new Counters[Level.values().length];
+
+        MethodCounters() {
+            for (int i = 0; i < levels.length; i++) {
+                levels[i] = new Counters();
+            }
+        }
+    }
+
+    protected static class Counters {
+        final AtomicLong hits = new AtomicLong();
+        final AtomicLong misses = new AtomicLong();
+        final AtomicLong evictions = new AtomicLong();
+        final AtomicLong expirations = new AtomicLong();
+        final AtomicLong loadTime = new AtomicLong();
+        final AtomicLong bytes = new AtomicLong();
+
+        Snapshot snapshot(boolean reset) {
+            Snapshot snapshot = new Snapshot();
+            snapshot.hits = reset ? hits.getAndSet(0) : hits.get();
+            snapshot.misses = reset ? misses.getAndSet(0) : misses.get();
+            snapshot.evictions = reset ? evictions.getAndSet(0) : evictions.get();
+            snapshot.expirations = reset ? expirations.getAndSet(0) : expirations.get();
+            snapshot.loadTime = reset ? loadTime.getAndSet(0) : loadTime.get();
+            snapshot.bytes = reset ? bytes.getAndSet(0) : bytes.get();
+            return snapshot;
+        }
+    }
+
+    public static class Snapshot implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        public int methodId;
+        /**
+         * Method name, null if the method wasn't called through a request yet.
+         */
+        public String name;
+        public Level level;
+        public long hits;
+        public long misses;
+        public long evictions;
+        public long expirations;
+        /**
+         * Total time of cache gets in nanoseconds.
+         */
+        public long loadTime;
+        /**
+         * Total size of stored entries in bytes, only for caches which know entry sizes.
+         */
+        public long bytes;
+
+        public boolean isEmpty() {
+            return hits == 0 && misses == 0 && evictions == 0 && expirations == 0 && loadTime == 0 && bytes == 0;
+        }
+
+        public float getHitRatio() {
+            long gets = hits + misses;
+            return gets == 0 ? 0 : (float) hits / gets;
+        }
+
+        @Override
+        public String toString() {
+            return (name != null ? name : String.valueOf(methodId)) + "(" + level + "): hits=" + hits + " misses=" + misses
+                    + " evictions=" + evictions + " expirations=" + expirations
+                    + " loadTime=" + (loadTime / 1000000) + "ms bytes=" + bytes;
+        }
+    }
+}
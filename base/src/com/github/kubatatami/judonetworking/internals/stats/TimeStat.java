@@ -3,8 +3,8 @@ package com.github.kubatatami.judonetworking.internals.stats;
 import com.github.kubatatami.judonetworking.internals.ProgressObserver;
 import com.github.kubatatami.judonetworking.logs.JudoLogger;
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Created with IntelliJ IDEA.
@@ -33,14 +33,14 @@ public class TimeStat{
     }
 
     public TimeStat(ProgressObserver request) {
-        this.requests = new ArrayList<>();
+        this.requests = new CopyOnWriteArrayList<>();
         requests.add(request);
         time = System.currentTimeMillis();
         startTime = time;
     }
 
     public <T extends ProgressObserver> TimeStat(List<T> requests) {
-        this.requests = new ArrayList<ProgressObserver>(requests);
+        this.requests = new CopyOnWriteArrayList<ProgressObserver>(requests);
         time = System.currentTimeMillis();
         startTime = time;
     }
@@ -156,6 +156,15 @@ public class TimeStat{
                 " all(" + getAllTime() + "ms)");
     }
 
+    /**
+     * Reports further progress also to the given observer.
+     */
+    public void addProgressObserver(ProgressObserver observer) {
+        if (requests != null) {
+            requests.add(observer);
+        }
+    }
+
     private void progressTick() {
         if (requests != null) {
             for (ProgressObserver request : requests) {
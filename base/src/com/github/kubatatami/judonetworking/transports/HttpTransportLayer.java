@@ -9,7 +9,9 @@ import java.lang.annotation.ElementType;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
+import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.Locale;
 
 /**
  * Created by Kuba on 16/11/14.
@@ -49,6 +51,74 @@ public abstract class HttpTransportLayer extends TransportLayer {
         throw new HttpException(message + "(" + code + ")", code);
     }
 
+    /**
+     * Computes freshness from max-age and stale-if-error directives of Cache-Control or from Expires.
+     * Age of the response is taken from Age or from Date in case of Expires, so clock skew doesn't matter.
+     *
+     * @return freshness or null if the response is not fresh and can't be used on error
+     */
+    protected static Freshness getFreshness(String cacheControl, String expires, String date, String age) {
+        long now = System.currentTimeMillis();
+        long maxAge = -1;
+        long staleIfError = 0;
+        if (cacheControl != null) {
+            for (String directive : cacheControl.toLowerCase(Locale.US).split(",")) {
+                directive = directive.trim();
+                if (directive.equals("no-cache") || directive.equals("no-store")) {
+                    return null;
+                } else if (directive.startsWith("max-age=")) {
+                    maxAge = parseSeconds(directive.substring("max-age=".length()));
+                } else if (directive.startsWith("stale-if-error=")) {
+                    staleIfError = parseSeconds(directive.substring("stale-if-error=".length()));
+                }
+            }
+        }
+        long expireTime;
+        if (maxAge >= 0) {
+            expireTime = now + (maxAge - Math.max(parseSeconds(age), 0)) * 1000;
+        } else if (expires != null) {
+            Long expiresTime = parseDate(expires);
+            if (expiresTime == null) {
+                return null;
+            }
+            Long dateTime = parseDate(date);
+            expireTime = now + expiresTime - (dateTime != null ? dateTime : now);
+        } else {
+            return null;
+        }
+        if (expireTime <= now && staleIfError <= 0) {
+            return null;
+        }
+        return new Freshness(expireTime, expireTime + Math.max(staleIfError, 0) * 1000);
+    }
+
+    /**
+     * @return seconds or -1 if value is missing or invalid
+     */
+    protected static long parseSeconds(String value) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value.replace("\"", "").trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    protected static Long parseDate(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            synchronized (format) {
+                return format.parse(value).getTime();
+            }
+        } catch (ParseException e) {
+            return null;
+        }
+    }
+
     public void setDigestAuthentication(final String username, final String password) {
         this.username = username;
         this.password = password;
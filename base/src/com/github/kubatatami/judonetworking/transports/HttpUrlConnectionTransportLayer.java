@@ -131,6 +131,9 @@ public class HttpUrlConnectionTransportLayer extends HttpTransportLayer {
         if (cacheInfo != null) {
             if (cacheInfo.hash != null) {
                 urlConnection.addRequestProperty("If-None-Match", cacheInfo.hash);
+                if (cacheInfo.instanceManipulation != null) {
+                    urlConnection.addRequestProperty("A-IM", cacheInfo.instanceManipulation);
+                }
             } else if (cacheInfo.time != null) {
                 urlConnection.addRequestProperty("If-Modified-Since", format.format(new Date(cacheInfo.time)));
             }
@@ -382,6 +385,12 @@ public class HttpUrlConnectionTransportLayer extends HttpTransportLayer {
             }
         }
 
+        @Override
+        public Freshness getFreshness() {
+            return HttpTransportLayer.getFreshness(connection.getHeaderField("Cache-Control"), connection.getHeaderField("Expires"),
+                    connection.getHeaderField("Date"), connection.getHeaderField("Age"));
+        }
+
         @Override
         public void close() {
             connection.disconnect();
@@ -68,6 +68,9 @@ public class OkHttpTransportLayer extends HttpTransportLayer {
         if (cacheInfo != null) {
             if (cacheInfo.hash != null) {
                 builder.addHeader("If-None-Match", cacheInfo.hash);
+                if (cacheInfo.instanceManipulation != null) {
+                    builder.addHeader("A-IM", cacheInfo.instanceManipulation);
+                }
             } else if (cacheInfo.time != null) {
                 builder.addHeader("If-Modified-Since", format.format(new Date(cacheInfo.time)));
             }
@@ -288,6 +291,12 @@ public class OkHttpTransportLayer extends HttpTransportLayer {
                         }
                     }
 
+                    @Override
+                    public Freshness getFreshness() {
+                        return HttpTransportLayer.getFreshness(response.header("Cache-Control"), response.header("Expires"),
+                                response.header("Date"), response.header("Age"));
+                    }
+
                     @Override
                     public void close() {
 
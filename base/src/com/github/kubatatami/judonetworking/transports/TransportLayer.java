@@ -46,11 +46,20 @@ public abstract class TransportLayer {
         public Map<String, List<String>> getHeaders();
 
         public boolean isNewestAvailable() throws ConnectionException;
+
+        /**
+         * @return freshness given by Cache-Control or Expires headers, null if the response has to be revalidated
+         */
+        public Freshness getFreshness();
     }
 
     public static class CacheInfo {
         public String hash;
         public Long time;
+        /**
+         * Delta encoding accepted instead of the whole response (A-IM header), sent only with hash.
+         */
+        public String instanceManipulation;
 
         public CacheInfo(String hash, Long time) {
             this.hash = hash;
@@ -58,6 +67,20 @@ public abstract class TransportLayer {
         }
     }
 
+    /**
+     * Times (ms since epoch) until which a response may be used without contacting the server
+     * and until which it may be used instead of an error (stale-if-error).
+     */
+    public static class Freshness {
+        public long expireTime;
+        public long staleIfErrorTime;
+
+        public Freshness(long expireTime, long staleIfErrorTime) {
+            this.expireTime = expireTime;
+            this.staleIfErrorTime = staleIfErrorTime;
+        }
+    }
+
     protected void longLog(String tag, String message) {
         JudoLogger.longLog(tag, message);
     }
@@ -0,0 +1,87 @@
+package com.github.kubatatami.judonetworking.caches;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CompressedCacheCodecTest {
+
+    @Test
+    public void storesSmallEntriesUncompressed() throws IOException {
+        CompressedCacheCodec codec = new CompressedCacheCodec(new SerializableCacheCodec(), 1024);
+        byte[] bytes = encode(codec, "small");
+        assertFalse(hasHeader(bytes));
+        assertEquals("small", codec.decode(new ByteArrayInputStream(bytes)));
+    }
+
+    @Test
+    public void compressesLargeEntries() throws IOException {
+        CompressedCacheCodec codec = new CompressedCacheCodec(new SerializableCacheCodec(), 1024);
+        String large = repeat("compressible ", 1000);
+        byte[] bytes = encode(codec, large);
+        assertTrue(hasHeader(bytes));
+        assertTrue(bytes.length < encode(new SerializableCacheCodec(), large).length);
+        assertEquals(large, codec.decode(new ByteArrayInputStream(bytes)));
+    }
+
+    @Test
+    public void readsEntriesWrittenWithoutCompression() throws IOException {
+        String large = repeat("compressible ", 1000);
+        byte[] bytes = encode(new SerializableCacheCodec(), large);
+        assertEquals(large, new CompressedCacheCodec(new SerializableCacheCodec(), 1024).decode(new ByteArrayInputStream(bytes)));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOversizedHeader() throws IOException {
+        decodeWithHeader(CompressedCacheCodec.MAX_SIZE + 1, 10, new byte[10]);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsNegativeSize() throws IOException {
+        decodeWithHeader(-1, 10, new byte[10]);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsTruncatedEntry() throws IOException {
+        CompressedCacheCodec codec = new CompressedCacheCodec(new SerializableCacheCodec(), 1024);
+        byte[] bytes = encode(codec, repeat("compressible ", 1000));
+        codec.decode(new ByteArrayInputStream(Arrays.copyOfRange(bytes, 0, bytes.length - 10)));
+    }
+
+    private static void decodeWithHeader(int size, int compressedSize, byte[] data) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        DataOutputStream dataStream = new DataOutputStream(outputStream);
+        dataStream.write(CompressedCacheCodec.HEADER);
+        dataStream.writeInt(size);
+        dataStream.writeInt(compressedSize);
+        dataStream.write(data);
+        new CompressedCacheCodec(new SerializableCacheCodec()).decode(new ByteArrayInputStream(outputStream.toByteArray()));
+    }
+
+    private static byte[] encode(CacheCodec codec, Object object) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        codec.encode(object, outputStream);
+        return outputStream.toByteArray();
+    }
+
+    private static boolean hasHeader(byte[] bytes) {
+        return bytes.length >= CompressedCacheCodec.HEADER.length
+                && Arrays.equals(Arrays.copyOf(bytes, CompressedCacheCodec.HEADER.length), CompressedCacheCodec.HEADER);
+    }
+
+    private static String repeat(String value, int count) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            builder.append(value);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,101 @@
+package com.github.kubatatami.judonetworking.caches;
+
+import android.content.Context;
+
+import com.github.kubatatami.judonetworking.annotations.LocalCache;
+import com.github.kubatatami.judonetworking.internals.cache.CacheMethod;
+import com.github.kubatatami.judonetworking.internals.cache.RequestFingerprint;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Stores the same JSON-like list in DefaultDiskCache with and without {@link CompressedCacheCodec}
+ * and reports bytes on disk and read latency. Only the size is asserted, read latency of a desktop
+ * disk doesn't tell how compression performs on a device.
+ */
+public class CompressionBenchmarkTest {
+
+    private static final int ITEMS = 10000;
+    private static final int READS = 20;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void compressedEntriesTakeLessSpace() throws IOException {
+        List<Item> items = createItems(new Random(42));
+        Result plain = measure(new SerializableCacheCodec(), items, "plain");
+        Result compressed = measure(new CompressedCacheCodec(new SerializableCacheCodec()), items, "compressed");
+        System.out.println("Disk cache entry of " + ITEMS + " items: plain " + plain + ", compressed " + compressed + ".");
+        assertTrue(compressed.bytes * 3 < plain.bytes);
+    }
+
+    protected Result measure(CacheCodec codec, List<Item> items, String name) throws IOException {
+        Context context = mock(Context.class);
+        when(context.getCacheDir()).thenReturn(folder.newFolder(name + "-cache"));
+        when(context.getFilesDir()).thenReturn(folder.newFolder(name + "-files"));
+        DefaultDiskCache cache = new DefaultDiskCache(context);
+        cache.setCodec(codec);
+        CacheMethod method = new CacheMethod(1, "getItems", "Api", null, 0, "http://example.com", LocalCache.CacheLevel.DISK_CACHE);
+        RequestFingerprint fingerprint = RequestFingerprint.create(1, new Object[0]);
+        cache.put(method, fingerprint, items, 0);
+        //warm up
+        assertEquals(items.size(), ((List<?>) cache.get(method, fingerprint, 0).object).size());
+        long start = System.nanoTime();
+        for (int i = 0; i < READS; i++) {
+            cache.get(method, fingerprint, 0);
+        }
+        return new Result(cache.getSize(LocalCache.CacheLevel.DISK_CACHE), (System.nanoTime() - start) / READS / 1000);
+    }
+
+    protected static List<Item> createItems(Random random) {
+        String[] words = {"network", "cache", "request", "response", "model", "batch", "server", "client"};
+        List<Item> items = new ArrayList<>(ITEMS);
+        for (int i = 0; i < ITEMS; i++) {
+            Item item = new Item();
+            item.id = i;
+            item.name = words[random.nextInt(words.length)] + " " + words[random.nextInt(words.length)];
+            item.description = "Item " + i + " of the " + words[random.nextInt(words.length)] + " list";
+            item.price = random.nextInt(10000) / 100.0;
+            item.active = random.nextBoolean();
+            items.add(item);
+        }
+        return items;
+    }
+
+    static class Result {
+        final long bytes;
+        final long readMicros;
+
+        Result(long bytes, long readMicros) {
+            this.bytes = bytes;
+            this.readMicros = readMicros;
+        }
+
+        @Override
+        public String toString() {
+            return bytes + " bytes, " + readMicros + " us per read";
+        }
+    }
+
+    static class Item implements Serializable {
+        int id;
+        String name;
+        String description;
+        double price;
+        boolean active;
+    }
+}
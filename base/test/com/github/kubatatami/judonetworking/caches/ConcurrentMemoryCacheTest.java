@@ -0,0 +1,94 @@
+package com.github.kubatatami.judonetworking.caches;
+
+import com.github.kubatatami.judonetworking.internals.cache.RequestFingerprint;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ConcurrentMemoryCacheTest {
+
+    private static final int METHOD_ID = 1;
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        ConcurrentMemoryCache cache = new ConcurrentMemoryCache(null);
+        cache.put(key(1), "1", 2);
+        cache.put(key(2), "2", 2);
+        assertTrue(cache.get(key(1), 0, 2).result);
+        cache.put(key(3), "3", 2);
+        assertTrue(cache.get(key(1), 0, 2).result);
+        assertFalse(cache.get(key(2), 0, 2).result);
+        assertTrue(cache.get(key(3), 0, 2).result);
+    }
+
+    @Test
+    public void removesExpiredEntryOnGet() {
+        ConcurrentMemoryCache cache = new ConcurrentMemoryCache(null);
+        cache.put(key(1), "1", 10, System.currentTimeMillis() - 1000);
+        assertFalse(cache.get(key(1), 500, 10).result);
+        assertNull(cache.getMethodCache(METHOD_ID).entries.get(key(1)));
+    }
+
+    @Test
+    public void orderDoesNotGrowWithRemovedEntries() {
+        ConcurrentMemoryCache cache = new ConcurrentMemoryCache(null);
+        for (int i = 0; i < 1000; i++) {
+            cache.put(key(i), i, 0);
+            cache.clearCache(key(i));
+        }
+        cache.put(key(-1), -1, 0);
+        ConcurrentMemoryCache.MethodCache methodCache = cache.getMethodCache(METHOD_ID);
+        assertEquals(1, methodCache.entries.size());
+        assertEquals(1, methodCache.order.size());
+    }
+
+    @Test
+    public void keepsSizeUnderConcurrentAccess() throws InterruptedException {
+        final ConcurrentMemoryCache cache = new ConcurrentMemoryCache(null);
+        final int size = 50;
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            final int seed = t;
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < 20000; i++) {
+                            RequestFingerprint fingerprint = key((i * 31 + seed) % 200);
+                            if (!cache.get(fingerprint, 0, size).result) {
+                                cache.put(fingerprint, i, size);
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failure.set(e);
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(failure.get());
+        ConcurrentMemoryCache.MethodCache methodCache = cache.getMethodCache(METHOD_ID);
+        synchronized (methodCache) {
+            methodCache.drainAccesses();
+            assertTrue(methodCache.entries.size() <= size);
+            assertEquals(methodCache.entries.keySet(), methodCache.order.keySet());
+        }
+    }
+
+    private static RequestFingerprint key(int value) {
+        return RequestFingerprint.create(METHOD_ID, new Object[]{value});
+    }
+}
@@ -0,0 +1,54 @@
+package com.github.kubatatami.judonetworking.caches;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FrequencySketchTest {
+
+    @Test
+    public void countsIncrements() {
+        FrequencySketch sketch = new FrequencySketch(64);
+        for (int i = 0; i < 5; i++) {
+            sketch.increment(123);
+        }
+        assertEquals(5, sketch.frequency(123));
+        assertEquals(0, sketch.frequency(456));
+    }
+
+    @Test
+    public void saturatesAtFifteen() {
+        FrequencySketch sketch = new FrequencySketch(64);
+        for (int i = 0; i < 100; i++) {
+            sketch.increment(123);
+        }
+        assertEquals(15, sketch.frequency(123));
+    }
+
+    @Test
+    public void neverUnderestimates() {
+        FrequencySketch sketch = new FrequencySketch(256);
+        for (int hash = 0; hash < 256; hash++) {
+            for (int i = 0; i < hash % 8; i++) {
+                sketch.increment(hash * 0x61c88647);
+            }
+        }
+        for (int hash = 0; hash < 256; hash++) {
+            assertTrue(sketch.frequency(hash * 0x61c88647) >= hash % 8);
+        }
+    }
+
+    @Test
+    public void halvesCountersAfterSample() {
+        FrequencySketch sketch = new FrequencySketch(16);
+        for (int i = 0; i < 8; i++) {
+            sketch.increment(123);
+        }
+        //the sample is 10 times the table length, distinct keys fill it up
+        for (int hash = 1; hash <= 10 * 16; hash++) {
+            sketch.increment(hash * 0x61c88647);
+        }
+        assertTrue(sketch.frequency(123) <= 4 + 1);
+    }
+}
@@ -0,0 +1,74 @@
+package com.github.kubatatami.judonetworking.caches;
+
+import com.github.kubatatami.judonetworking.internals.cache.RequestFingerprint;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Replays the same synthetic trace against memory caches and compares their hit ratios.
+ * The trace mixes Zipf distributed requests with scans of keys which are never requested again.
+ */
+public class HitRatioSimulationTest {
+
+    private static final int METHOD_ID = 1;
+    private static final int CACHE_SIZE = 100;
+    private static final int HOT_KEYS = 5000;
+    private static final int REQUESTS = 200000;
+    private static final int SCAN_EVERY = 5000;
+    private static final int SCAN_LENGTH = 500;
+
+    @Test
+    public void tinyLfuBeatsLruOnZipfTrace() {
+        RequestFingerprint[] trace = createTrace(new Random(42), 0);
+        double lru = hitRatio(new DefaultMemoryCache(null), trace);
+        double tinyLfu = hitRatio(new TinyLfuMemoryCache(null), trace);
+        assertTrue("TinyLFU " + tinyLfu + " vs LRU " + lru, tinyLfu > lru);
+    }
+
+    @Test
+    public void tinyLfuKeepsHotEntriesDuringScans() {
+        RequestFingerprint[] trace = createTrace(new Random(42), SCAN_LENGTH);
+        double lru = hitRatio(new DefaultMemoryCache(null), trace);
+        double tinyLfu = hitRatio(new TinyLfuMemoryCache(null), trace);
+        assertTrue("TinyLFU " + tinyLfu + " vs LRU " + lru, tinyLfu > lru * 1.1);
+    }
+
+    protected static double hitRatio(MemoryCache cache, RequestFingerprint[] trace) {
+        int hits = 0;
+        for (RequestFingerprint fingerprint : trace) {
+            if (cache.get(fingerprint, 0, CACHE_SIZE).result) {
+                hits++;
+            } else {
+                cache.put(fingerprint, fingerprint, CACHE_SIZE);
+            }
+        }
+        return (double) hits / trace.length;
+    }
+
+    protected static RequestFingerprint[] createTrace(Random random, int scanLength) {
+        RequestFingerprint[] keys = new RequestFingerprint[HOT_KEYS];
+        double[] cumulative = new double[HOT_KEYS];
+        double sum = 0;
+        for (int i = 0; i < HOT_KEYS; i++) {
+            keys[i] = RequestFingerprint.create(METHOD_ID, new Object[]{i});
+            sum += 1.0 / (i + 1);
+            cumulative[i] = sum;
+        }
+        RequestFingerprint[] trace = new RequestFingerprint[REQUESTS];
+        int scanned = 0;
+        for (int i = 0; i < REQUESTS; i++) {
+            if (scanLength > 0 && i % SCAN_EVERY < scanLength) {
+                trace[i] = RequestFingerprint.create(METHOD_ID, new Object[]{"scan", scanned++});
+            } else {
+                int index = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+                trace[i] = keys[index < 0 ? -index - 1 : index];
+            }
+        }
+        return trace;
+    }
+}
@@ -0,0 +1,151 @@
+package com.github.kubatatami.judonetworking.caches;
+
+import android.content.Context;
+
+import com.github.kubatatami.judonetworking.annotations.LocalCache;
+import com.github.kubatatami.judonetworking.internals.cache.CacheMethod;
+import com.github.kubatatami.judonetworking.internals.cache.RequestFingerprint;
+import com.github.kubatatami.judonetworking.internals.results.CacheResult;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Checks that a new cache instance replays the journal written by the previous one.
+ */
+public class JournaledDiskCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Context context;
+    private CacheMethod method;
+
+    @Before
+    public void setUp() throws IOException {
+        context = mock(Context.class);
+        when(context.getCacheDir()).thenReturn(folder.newFolder("cache"));
+        when(context.getFilesDir()).thenReturn(folder.newFolder("files"));
+        method = new CacheMethod(1, "method", "Api", null, 0, "http://example.com", LocalCache.CacheLevel.DISK_CACHE);
+    }
+
+    @Test
+    public void replaysPutsAndRemoves() {
+        JournaledDiskCache cache = new JournaledDiskCache(context);
+        cache.put(method, key(1), "1", 0);
+        cache.put(method, key(2), "2", 0);
+        cache.put(method, key(2), "2b", 0);
+        cache.put(method, key(3), "3", 0);
+        cache.clearCache(method, key(3));
+
+        JournaledDiskCache reopened = new JournaledDiskCache(context);
+        assertEquals("1", reopened.get(method, key(1), 0).object);
+        assertEquals("2b", reopened.get(method, key(2), 0).object);
+        assertFalse(reopened.get(method, key(3), 0).result);
+        assertEquals(cache.getSize(LocalCache.CacheLevel.DISK_CACHE), reopened.getSize(LocalCache.CacheLevel.DISK_CACHE));
+    }
+
+    @Test
+    public void replaysAccessOrder() {
+        JournaledDiskCache cache = new JournaledDiskCache(context);
+        cache.put(method, key(1), "1", 3);
+        cache.put(method, key(2), "2", 3);
+        cache.put(method, key(3), "3", 3);
+        assertTrue(cache.get(method, key(1), 0).result);
+        //READ records are written with the next PUT or REMOVE record
+        cache.clearCache(method, key(3));
+
+        JournaledDiskCache reopened = new JournaledDiskCache(context);
+        reopened.put(method, key(4), "4", 2);
+        assertTrue(reopened.get(method, key(1), 0).result);
+        assertFalse(reopened.get(method, key(2), 0).result);
+        assertTrue(reopened.get(method, key(4), 0).result);
+    }
+
+    @Test
+    public void skipsTornJournalLine() throws IOException {
+        JournaledDiskCache cache = new JournaledDiskCache(context);
+        cache.put(method, key(1), "1", 0);
+        append(new File(context.getCacheDir(), "cache/journal/journal"), "PUT torn");
+
+        JournaledDiskCache reopened = new JournaledDiskCache(context);
+        assertEquals("1", reopened.get(method, key(1), 0).object);
+    }
+
+    @Test
+    public void deletesUnfinishedPuts() throws IOException {
+        new JournaledDiskCache(context).put(method, key(1), "1", 0);
+        File tmpFile = new File(context.getCacheDir(), "cache/journal/entry.1.tmp");
+        assertTrue(tmpFile.createNewFile());
+
+        new JournaledDiskCache(context).get(method, key(1), 0);
+        assertFalse(tmpFile.exists());
+    }
+
+    @Test
+    public void replaysTrimToMaxSize() {
+        JournaledDiskCache cache = new JournaledDiskCache(context);
+        for (int i = 0; i < 10; i++) {
+            cache.put(method, key(i), "value" + i, 0);
+        }
+        long size = cache.getSize(LocalCache.CacheLevel.DISK_CACHE);
+        cache.setMaxSize(size / 2);
+
+        JournaledDiskCache reopened = new JournaledDiskCache(context, size / 2);
+        assertTrue(reopened.getSize(LocalCache.CacheLevel.DISK_CACHE) <= size / 2);
+        assertFalse(reopened.get(method, key(0), 0).result);
+        assertTrue(reopened.get(method, key(9), 0).result);
+    }
+
+    @Test
+    public void keepsCreateTimeOfLateWrites() {
+        JournaledDiskCache cache = new JournaledDiskCache(context);
+        long createTime = System.currentTimeMillis() - 10000;
+        cache.put(method, key(1), "1", 0, createTime);
+        CacheResult result = cache.get(method, key(1), 0);
+        assertEquals(createTime, result.createTime);
+        assertFalse(cache.get(method, key(1), 5000).result);
+
+        cache.put(method, key(2), "2", 0, createTime);
+        assertFalse(new JournaledDiskCache(context).get(method, key(2), 5000).result);
+    }
+
+    @Test
+    public void clearCacheKeepsTests() {
+        CacheMethod testMethod = new CacheMethod(2, "test", "Api", "test", 1, "http://example.com", LocalCache.CacheLevel.DISK_CACHE);
+        JournaledDiskCache cache = new JournaledDiskCache(context);
+        cache.put(method, key(1), "1", 0);
+        cache.put(testMethod, key(1), "test", 0);
+        cache.clearCache();
+
+        JournaledDiskCache reopened = new JournaledDiskCache(context);
+        assertFalse(reopened.get(method, key(1), 0).result);
+        assertEquals("test", reopened.get(testMethod, key(1), 0).object);
+    }
+
+    private static RequestFingerprint key(int value) {
+        return RequestFingerprint.create(1, new Object[]{value});
+    }
+
+    private static void append(File file, String line) throws IOException {
+        OutputStream outputStream = new FileOutputStream(file, true);
+        try {
+            outputStream.write((line + "\n").getBytes("UTF-8"));
+        } finally {
+            outputStream.close();
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.github.kubatatami.judonetworking.caches;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class SerializableCacheCodecTest {
+
+    @Test
+    public void roundTripsSerializableObjects() throws IOException {
+        List<Object> object = new ArrayList<Object>(Arrays.asList("text", 1, 2.5, new Model("name", 3)));
+        assertEquals(object, roundTrip(new SerializableCacheCodec(), object));
+    }
+
+    @Test
+    public void roundTripsNull() throws IOException {
+        assertEquals(null, roundTrip(new SerializableCacheCodec(), null));
+    }
+
+    @Test(expected = IOException.class)
+    public void failsOnGarbage() throws IOException {
+        new SerializableCacheCodec().decode(new ByteArrayInputStream(new byte[]{1, 2, 3, 4}));
+    }
+
+    static Object roundTrip(CacheCodec codec, Object object) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        codec.encode(object, outputStream);
+        return codec.decode(new ByteArrayInputStream(outputStream.toByteArray()));
+    }
+
+    static class Model implements Serializable {
+        String name;
+        int count;
+
+        Model(String name, int count) {
+            this.name = name;
+            this.count = count;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Model && ((Model) o).name.equals(name) && ((Model) o).count == count;
+        }
+
+        @Override
+        public int hashCode() {
+            return name.hashCode() * 31 + count;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.github.kubatatami.judonetworking.clonners;
+
+import org.junit.Test;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks that {@link ReflectionClonner} makes the same copies as the serialization based {@link DefaultClonner}.
+ */
+public class ReflectionClonnerTest {
+
+    @Test
+    public void copiesLikeDefaultClonner() {
+        Model model = createModel();
+        Model reflectionCopy = new ReflectionClonner().clone(model);
+        Model defaultCopy = new DefaultClonner().clone(model);
+        assertEquals(defaultCopy, reflectionCopy);
+        assertEquals(model, reflectionCopy);
+    }
+
+    @Test
+    public void makesDeepCopies() {
+        Model model = createModel();
+        Model copy = new ReflectionClonner().clone(model);
+        assertNotSame(model, copy);
+        assertNotSame(model.children, copy.children);
+        assertNotSame(model.children.get(0), copy.children.get(0));
+        assertNotSame(model.values, copy.values);
+        assertNotSame(model.data, copy.data);
+        assertSame(model.name, copy.name);
+        copy.children.get(0).name = "changed";
+        copy.data[0] = 100;
+        assertEquals("child", model.children.get(0).name);
+        assertEquals(1, model.data[0]);
+    }
+
+    @Test
+    public void preservesSharedReferencesAndCycles() {
+        Model model = createModel();
+        model.parent = model;
+        model.children.add(model.children.get(0));
+        Model copy = new ReflectionClonner().clone(model);
+        assertSame(copy, copy.parent);
+        assertSame(copy.children.get(0), copy.children.get(1));
+    }
+
+    @Test
+    public void keepsTreeMapComparator() {
+        TreeMap<String, Integer> map = new TreeMap<>(Collections.<String>reverseOrder());
+        map.put("a", 1);
+        map.put("b", 2);
+        TreeMap<String, Integer> copy = new ReflectionClonner().clone(map);
+        assertEquals(Arrays.asList("b", "a"), new ArrayList<>(copy.keySet()));
+    }
+
+    @Test
+    public void usesFallbackForClassesWithoutDefaultConstructor() {
+        List<String> list = Arrays.asList("a", "b");
+        List<String> copy = new ReflectionClonner().clone(list);
+        assertNotSame(list, copy);
+        assertEquals(list, copy);
+    }
+
+    @Test
+    public void copiesArrays() {
+        Model[] array = {createModel(), null};
+        Model[] copy = new ReflectionClonner().clone(array);
+        assertNotSame(array, copy);
+        assertNotSame(array[0], copy[0]);
+        assertArrayEquals(array, copy);
+    }
+
+    private static Model createModel() {
+        Model model = new Model();
+        model.name = "model";
+        model.count = 3;
+        model.state = State.ACTIVE;
+        model.data = new int[]{1, 2, 3};
+        model.values = new HashMap<>();
+        model.values.put("key", 1L);
+        Model child = new Model();
+        child.name = "child";
+        model.children = new ArrayList<>();
+        model.children.add(child);
+        return model;
+    }
+
+    enum State {
+        ACTIVE, INACTIVE
+    }
+
+    static class Model implements Serializable {
+        String name;
+        int count;
+        State state;
+        int[] data;
+        Map<String, Long> values;
+        List<Model> children;
+        Model parent;
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Model)) {
+                return false;
+            }
+            Model that = (Model) o;
+            return count == that.count && state == that.state && equal(name, that.name)
+                    && Arrays.equals(data, that.data) && equal(values, that.values) && equal(children, that.children);
+        }
+
+        @Override
+        public int hashCode() {
+            return name != null ? name.hashCode() : 0;
+        }
+
+        private static boolean equal(Object a, Object b) {
+            return a == null ? b == null : a.equals(b);
+        }
+    }
+}
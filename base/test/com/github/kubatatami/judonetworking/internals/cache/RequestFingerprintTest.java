@@ -0,0 +1,109 @@
+package com.github.kubatatami.judonetworking.internals.cache;
+
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+
+public class RequestFingerprintTest {
+
+    @Test
+    public void equalArgumentsGiveEqualFingerprints() {
+        RequestFingerprint first = RequestFingerprint.create(1, new Object[]{"a", 1, Arrays.asList(1L, 2L), new Model("name", 3)});
+        RequestFingerprint second = RequestFingerprint.create(1, new Object[]{"a", 1, Arrays.asList(1L, 2L), new Model("name", 3)});
+        assertEquals(first, second);
+        assertEquals(first.hashCode(), second.hashCode());
+        assertEquals(first.toHex(), second.toHex());
+    }
+
+    @Test
+    public void differentMethodsGiveDifferentFingerprints() {
+        assertNotEquals(RequestFingerprint.create(1, new Object[]{"a"}), RequestFingerprint.create(2, new Object[]{"a"}));
+    }
+
+    @Test
+    public void typesAreDistinguished() {
+        assertNotEquals(RequestFingerprint.create(1, new Object[]{1}), RequestFingerprint.create(1, new Object[]{1L}));
+        assertNotEquals(RequestFingerprint.create(1, new Object[]{1}), RequestFingerprint.create(1, new Object[]{"1"}));
+        assertNotEquals(RequestFingerprint.create(1, new Object[]{null}), RequestFingerprint.create(1, new Object[]{"N"}));
+        assertNotEquals(RequestFingerprint.create(1, null), RequestFingerprint.create(1, new Object[0]));
+    }
+
+    @Test
+    public void argumentBoundariesAreDistinguished() {
+        assertNotEquals(RequestFingerprint.create(1, new Object[]{"ab", "c"}), RequestFingerprint.create(1, new Object[]{"a", "bc"}));
+        assertNotEquals(RequestFingerprint.create(1, new Object[]{Arrays.asList("a", "b")}),
+                RequestFingerprint.create(1, new Object[]{Arrays.asList("a"), "b"}));
+    }
+
+    @Test
+    public void modelsAreEncodedByFields() {
+        Model model = new Model("name", 3);
+        RequestFingerprint fingerprint = RequestFingerprint.create(1, new Object[]{model});
+        model.ignored = "changed";
+        assertEquals(fingerprint, RequestFingerprint.create(1, new Object[]{model}));
+        model.count = 4;
+        assertNotEquals(fingerprint, RequestFingerprint.create(1, new Object[]{model}));
+    }
+
+    @Test
+    public void cyclesAreEncodedAsReferences() {
+        Node node = new Node();
+        node.next = node;
+        RequestFingerprint fingerprint = RequestFingerprint.create(1, new Object[]{node});
+        assertEquals(fingerprint, RequestFingerprint.create(1, new Object[]{node}));
+    }
+
+    @Test
+    public void collidingHashesDontMakeFingerprintsEqual() throws Exception {
+        RequestFingerprint fingerprint = RequestFingerprint.fromKey(1, "key");
+        RequestFingerprint collision = RequestFingerprint.fromKey(1, "other");
+        for (String name : new String[]{"mostSigBits", "leastSigBits"}) {
+            Field field = RequestFingerprint.class.getDeclaredField(name);
+            field.setAccessible(true);
+            field.setLong(collision, field.getLong(fingerprint));
+        }
+        assertEquals(fingerprint.hashCode(), collision.hashCode());
+        assertFalse(fingerprint.equals(collision));
+    }
+
+    @Test
+    public void keyRecreatesFingerprint() {
+        RequestFingerprint fingerprint = RequestFingerprint.create(1, new Object[]{"a", Collections.singletonMap("k", 1)});
+        RequestFingerprint recreated = RequestFingerprint.fromKey(1, fingerprint.getKey());
+        assertEquals(fingerprint, recreated);
+        assertEquals(fingerprint.toHex(), recreated.toHex());
+    }
+
+    @Test
+    public void hexIsFixedLength() {
+        for (int i = 0; i < 100; i++) {
+            assertEquals(32, RequestFingerprint.create(i, new Object[]{i}).toHex().length());
+        }
+    }
+
+    static class Model {
+        String name;
+        int count;
+        transient String ignored;
+
+        Model(String name, int count) {
+            this.name = name;
+            this.count = count;
+        }
+
+        @Override
+        public String toString() {
+            return String.valueOf(System.nanoTime());
+        }
+    }
+
+    static class Node {
+        Node next;
+    }
+}
@@ -0,0 +1,160 @@
+package com.github.kubatatami.judonetworking.caches;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.JsonTypeInfo;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.cfg.MapperConfig;
+import com.fasterxml.jackson.databind.jsontype.NamedType;
+import com.fasterxml.jackson.databind.jsontype.TypeIdResolver;
+import com.fasterxml.jackson.databind.jsontype.impl.ClassNameIdResolver;
+import com.fasterxml.jackson.databind.type.TypeFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Compact binary {@link CacheCodec} backed by Jackson Smile format.
+ * Objects are written field by field with their class names,
+ * so models don't have to implement {@link java.io.Serializable}.
+ * <p/>
+ * Only classes of java.lang, java.util, java.math, this library and the packages passed
+ * to the constructor are instantiated when a cache file is read, other class names fail the read,
+ * so a tampered cache file can't create arbitrary objects.
+ */
+public class SmileCacheCodec implements CacheCodec {
+
+    protected static final Set<String> JDK_PACKAGES = new HashSet<>(Arrays.asList("java.lang", "java.util", "java.math"));
+    protected static final String LIBRARY_PACKAGE = "com.github.kubatatami.judonetworking.";
+
+    protected ObjectMapper mapper;
+    protected final String[] allowedPackages;
+
+    public SmileCacheCodec() {
+        this(new String[0]);
+    }
+
+    /**
+     * @param allowedPackages packages of cached models, e.g. "com.example.model"
+     */
+    public SmileCacheCodec(String... allowedPackages) {
+        this.allowedPackages = new String[allowedPackages.length];
+        for (int i = 0; i < allowedPackages.length; i++) {
+            this.allowedPackages[i] = allowedPackages[i].endsWith(".") ? allowedPackages[i] : allowedPackages[i] + ".";
+        }
+        SmileFactory factory = new SmileFactory();
+        factory.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        factory.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+        mapper = new ObjectMapper(factory);
+        mapper.setVisibility(PropertyAccessor.ALL, JsonAutoDetect.Visibility.NONE);
+        mapper.setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY);
+        mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        mapper.configure(SerializationFeature.FAIL_ON_EMPTY_BEANS, false);
+        mapper.setDefaultTyping(new AllowedTypeResolverBuilder()
+                .init(JsonTypeInfo.Id.CLASS, null)
+                .inclusion(JsonTypeInfo.As.WRAPPER_ARRAY));
+    }
+
+    /**
+     * Type ids read by the given mapper aren't restricted.
+     */
+    public SmileCacheCodec(ObjectMapper mapper) {
+        this.mapper = mapper;
+        this.allowedPackages = new String[0];
+    }
+
+    @Override
+    public void encode(Object object, OutputStream outputStream) throws IOException {
+        mapper.writeValue(outputStream, object);
+    }
+
+    @Override
+    public Object decode(InputStream inputStream) throws IOException {
+        try {
+            return mapper.readValue(inputStream, Object.class);
+        } catch (IllegalArgumentException e) {
+            IOException exception = new IOException(e.getMessage());
+            exception.initCause(e);
+            throw exception;
+        }
+    }
+
+    /**
+     * @param id class name or canonical type name with generic parameters
+     */
+    protected boolean isAllowed(String id) {
+        for (String className : id.split("[<>,\\[\\];\\s]+")) {
+            if (className.length() == 0) {
+                continue;
+            }
+            if (id.startsWith("[") && className.charAt(0) == 'L') {
+                //element type of an object array: [Lcom.example.Model;
+                className = className.substring(1);
+            }
+            if (!isAllowedClass(className)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    protected boolean isAllowedClass(String className) {
+        int lastDot = className.lastIndexOf('.');
+        if (lastDot < 0) {
+            //array codes like [I
+            return className.length() == 1;
+        }
+        if (JDK_PACKAGES.contains(className.substring(0, lastDot)) || className.startsWith(LIBRARY_PACKAGE)) {
+            return true;
+        }
+        for (String allowedPackage : allowedPackages) {
+            if (className.startsWith(allowedPackage)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    protected class AllowedTypeResolverBuilder extends ObjectMapper.DefaultTypeResolverBuilder {
+
+        public AllowedTypeResolverBuilder() {
+            super(ObjectMapper.DefaultTyping.NON_FINAL);
+        }
+
+        @Override
+        protected TypeIdResolver idResolver(MapperConfig<?> config, JavaType baseType, Collection<NamedType> subtypes, boolean forSer, boolean forDeser) {
+            return new AllowedClassNameIdResolver(baseType, config.getTypeFactory());
+        }
+    }
+
+    protected class AllowedClassNameIdResolver extends ClassNameIdResolver {
+
+        public AllowedClassNameIdResolver(JavaType baseType, TypeFactory typeFactory) {
+            super(baseType, typeFactory);
+        }
+
+        @Override
+        protected JavaType _typeFromId(String id, TypeFactory typeFactory) {
+            if (!isAllowed(id)) {
+                throw new IllegalArgumentException("Class " + id + " isn't allowed in cache, add its package to SmileCacheCodec.");
+            }
+            return super._typeFromId(id, typeFactory);
+        }
+    }
+
+    public ObjectMapper getMapper() {
+        return mapper;
+    }
+
+}
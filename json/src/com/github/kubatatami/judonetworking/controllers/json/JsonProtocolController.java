@@ -5,16 +5,34 @@ import com.fasterxml.jackson.annotation.JsonAutoDetect;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.PropertyAccessor;
 import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
+import com.github.kubatatami.judonetworking.Request;
+import com.github.kubatatami.judonetworking.annotations.DeltaSync;
 import com.github.kubatatami.judonetworking.controllers.ProtocolController;
+import com.github.kubatatami.judonetworking.exceptions.ConnectionException;
 import com.github.kubatatami.judonetworking.exceptions.HttpException;
 import com.github.kubatatami.judonetworking.exceptions.JudoException;
+import com.github.kubatatami.judonetworking.exceptions.ParseException;
 import com.github.kubatatami.judonetworking.exceptions.ProtocolException;
+import com.github.kubatatami.judonetworking.internals.results.ErrorResult;
+import com.github.kubatatami.judonetworking.internals.results.RequestResult;
+import com.github.kubatatami.judonetworking.internals.results.RequestSuccessResult;
+import com.github.kubatatami.judonetworking.utils.ReflectionCache;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 
 /**
@@ -58,10 +76,98 @@ public abstract class JsonProtocolController extends ProtocolController {
         public int code;
     }
 
+    /**
+     * Diff envelope of a {@link DeltaSync} response. Inserts and updates are whole items, deletes are keys.
+     */
+    public static class JsonDeltaModel implements Serializable {
+        public JsonNode inserts;
+        public JsonNode updates;
+        public JsonNode deletes;
+    }
+
     public ObjectMapper getMapper() {
         return mapper;
     }
 
+    @Override
+    public boolean isDeltaSyncSupported() {
+        return true;
+    }
+
+    /**
+     * Removes deleted items from the cached list, replaces updated ones in place and appends inserted ones.
+     * The cached list isn't modified, a new one is returned.
+     */
+    @Override
+    public RequestResult parseDeltaResponse(Request request, InputStream stream, Map<String, List<String>> headers, Object cachedResult) {
+        try {
+            if (!(cachedResult instanceof List)) {
+                throw new ParseException("DeltaSync of " + request.getName() + " requires a list result.");
+            }
+            String keyField = ReflectionCache.getAnnotationInherited(request.getMethod(), DeltaSync.class).keyField();
+            JsonDeltaModel delta;
+            try {
+                InputStreamReader inputStreamReader = new InputStreamReader(stream, "UTF-8");
+                delta = mapper.readValue(inputStreamReader, JsonDeltaModel.class);
+                inputStreamReader.close();
+            } catch (JsonProcessingException ex) {
+                throw new ParseException("Wrong delta response. Did you select the correct protocol controller?", ex);
+            } catch (IOException ex) {
+                throw new ConnectionException(ex);
+            }
+            Map<String, Object> items = new LinkedHashMap<>();
+            for (Object item : (List<?>) cachedResult) {
+                if (item != null) {
+                    items.put(getItemKey(item, keyField), item);
+                }
+            }
+            if (delta.deletes != null) {
+                for (JsonNode key : delta.deletes) {
+                    items.remove(key.asText());
+                }
+            }
+            JavaType itemType = mapper.getTypeFactory().constructType(request.getReturnType()).getContentType();
+            putDeltaItems(items, delta.updates, itemType, keyField);
+            putDeltaItems(items, delta.inserts, itemType, keyField);
+            return new RequestSuccessResult(request.getId(), new ArrayList<>(items.values()));
+        } catch (JudoException e) {
+            return new ErrorResult(request.getId(), e);
+        }
+    }
+
+    protected void putDeltaItems(Map<String, Object> items, JsonNode nodes, JavaType itemType, String keyField) throws JudoException {
+        if (nodes == null) {
+            return;
+        }
+        for (JsonNode node : nodes) {
+            JsonNode key = node.get(keyField);
+            if (key == null) {
+                throw new ParseException("Delta item without " + keyField + " field.");
+            }
+            try {
+                items.put(key.asText(), mapper.convertValue(node, itemType));
+            } catch (IllegalArgumentException ex) {
+                throw new ParseException("Wrong delta item.", ex);
+            }
+        }
+    }
+
+    protected static String getItemKey(Object item, String keyField) throws JudoException {
+        for (Class<?> clazz = item.getClass(); clazz != null; clazz = clazz.getSuperclass()) {
+            for (Field field : ReflectionCache.getDeclaredFields(clazz)) {
+                if (field.getName().equals(keyField)) {
+                    try {
+                        field.setAccessible(true);
+                        return String.valueOf(field.get(item));
+                    } catch (IllegalAccessException ex) {
+                        throw new ParseException(ex);
+                    }
+                }
+            }
+        }
+        throw new ParseException(item.getClass().getSimpleName() + " has no " + keyField + " field.");
+    }
+
     @Override
     public void parseError(int code, String resp) throws JudoException {
         if (code == 405) {
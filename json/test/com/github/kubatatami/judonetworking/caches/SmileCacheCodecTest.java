@@ -0,0 +1,70 @@
+package com.github.kubatatami.judonetworking.caches;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class SmileCacheCodecTest {
+
+    @Test
+    public void roundTripsModels() throws IOException {
+        Model model = new Model();
+        model.name = "name";
+        model.count = 3;
+        model.tags = new ArrayList<>();
+        model.tags.add("a");
+        model.tags.add("b");
+        model.values = new HashMap<>();
+        model.values.put("key", 1L);
+        Model copy = (Model) roundTrip(new SmileCacheCodec(), model);
+        assertEquals(model.name, copy.name);
+        assertEquals(model.count, copy.count);
+        assertEquals(model.tags, copy.tags);
+        assertEquals(model.values, copy.values);
+    }
+
+    @Test
+    public void roundTripsModelsOfAllowedPackages() throws IOException {
+        List<Object> list = new ArrayList<>();
+        list.add(new File("/name"));
+        assertEquals(list, roundTrip(new SmileCacheCodec("java.io"), list));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsClassesOutsideAllowedPackages() throws IOException {
+        List<Object> list = new ArrayList<>();
+        list.add(new File("/name"));
+        roundTrip(new SmileCacheCodec(), list);
+    }
+
+    @Test
+    public void compressesSmileEntries() throws IOException {
+        List<String> list = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            list.add("item");
+        }
+        assertEquals(list, roundTrip(new CompressedCacheCodec(new SmileCacheCodec(), 1024), list));
+    }
+
+    private static Object roundTrip(CacheCodec codec, Object object) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        codec.encode(object, outputStream);
+        return codec.decode(new ByteArrayInputStream(outputStream.toByteArray()));
+    }
+
+    static class Model {
+        String name;
+        int count;
+        List<String> tags;
+        Map<String, Long> values;
+    }
+}
@@ -0,0 +1,223 @@
+package com.github.kubatatami.judonetworking.controllers.json;
+
+import android.content.Context;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.github.kubatatami.judonetworking.Request;
+import com.github.kubatatami.judonetworking.annotations.RequestMethod;
+import com.github.kubatatami.judonetworking.annotations.ServerCache;
+import com.github.kubatatami.judonetworking.controllers.json.rpc.JsonRpc2Controller;
+import com.github.kubatatami.judonetworking.exceptions.ConnectionException;
+import com.github.kubatatami.judonetworking.exceptions.JudoException;
+import com.github.kubatatami.judonetworking.internals.EndpointImpl;
+import com.github.kubatatami.judonetworking.internals.ProgressObserver;
+import com.github.kubatatami.judonetworking.internals.requests.RequestImpl;
+import com.github.kubatatami.judonetworking.internals.results.ErrorResult;
+import com.github.kubatatami.judonetworking.internals.results.RequestResult;
+import com.github.kubatatami.judonetworking.internals.results.RequestSuccessResult;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Sends @ServerCache batches to a stand-in server. Results are stored in ServerCache
+ * the way RequestProxy stores them after a batch, because batch callbacks need a Looper.
+ * JsonRpc2Controller reads batch responses with android.util.SparseArray, which doesn't work
+ * outside of Android, so {@link StandInBatchController} parses them with a map.
+ */
+public class BatchRevalidationTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private StandInTransportLayer server;
+    private EndpointImpl endpoint;
+    private int id;
+
+    @Before
+    public void setUp() throws IOException {
+        Context context = mock(Context.class);
+        when(context.getCacheDir()).thenReturn(folder.newFolder("cache"));
+        when(context.getFilesDir()).thenReturn(folder.newFolder("files"));
+        server = new StandInTransportLayer();
+        endpoint = new EndpointImpl(context, new StandInBatchController(), server, "http://example.com");
+        endpoint.setCacheEnabled(true);
+    }
+
+    @Test
+    public void servesNotModifiedBatchFromCache() throws Exception {
+        List<RequestImpl> requests = requests("getName", 1, 2);
+        server.enqueue(new StandInTransportLayer.Response(200, batch(requests, "\"a\"", "\"b\""), "v1", 1000L));
+        assertResults(callBatch(requests), "a", "b");
+        assertNull(server.getLastRequest().hash);
+
+        server.enqueue(StandInTransportLayer.Response.notModified());
+        assertResults(callBatch(requests("getName", 1, 2)), "a", "b");
+        assertEquals("v1", server.getLastRequest().hash);
+        assertEquals(Long.valueOf(1000L), server.getLastRequest().time);
+        assertEquals(2, server.getRequests().size());
+    }
+
+    @Test
+    public void sendsOldestDateWhenEntriesHaveDifferentETags() throws Exception {
+        List<RequestImpl> first = requests("getName", 1);
+        server.enqueue(new StandInTransportLayer.Response(200, batch(first, "\"a\""), "v1", 1000L));
+        callBatch(first);
+        List<RequestImpl> second = requests("getName", 2);
+        server.enqueue(new StandInTransportLayer.Response(200, batch(second, "\"b\""), "v2", 2000L));
+        callBatch(second);
+
+        server.enqueue(StandInTransportLayer.Response.notModified());
+        assertResults(callBatch(requests("getName", 1, 2)), "a", "b");
+        assertNull(server.getLastRequest().hash);
+        assertEquals(Long.valueOf(1000L), server.getLastRequest().time);
+    }
+
+    @Test
+    public void sendsUnconditionalBatchWhenEntryIsMissing() throws Exception {
+        List<RequestImpl> first = requests("getName", 1);
+        server.enqueue(new StandInTransportLayer.Response(200, batch(first, "\"a\""), "v1", 1000L));
+        callBatch(first);
+
+        List<RequestImpl> requests = requests("getName", 1, 2);
+        server.enqueue(new StandInTransportLayer.Response(200, batch(requests, "\"a2\"", "\"b\""), "v2", 2000L));
+        assertResults(callBatch(requests), "a2", "b");
+        assertNull(server.getLastRequest().hash);
+        assertNull(server.getLastRequest().time);
+    }
+
+    @Test
+    public void usesOldResultOnItemError() throws Exception {
+        List<RequestImpl> requests = requests("getOldOnError", 1, 2);
+        server.enqueue(new StandInTransportLayer.Response(200, batch(requests, "\"a\"", "\"b\""), "v1", 1000L));
+        callBatch(requests);
+
+        requests = requests("getOldOnError", 1, 2);
+        server.enqueue(new StandInTransportLayer.Response(200, "[" + item(requests.get(0), "\"a2\"")
+                + ",{\"jsonrpc\":\"2.0\",\"id\":" + requests.get(1).getId() + ",\"error\":{\"code\":1,\"message\":\"failed\"}}]", "v2", 2000L));
+        assertResults(callBatch(requests), "a2", "b");
+    }
+
+    private List<RequestResult> callBatch(List<RequestImpl> requests) {
+        List<RequestResult> results = endpoint.getRequestConnector().callBatch(requests, new NoProgressObserver(), 0);
+        for (int i = 0; i < requests.size(); i++) {
+            if (results.get(i).error == null) {
+                endpoint.getRequestConnector().putServerCache(requests.get(i), results.get(i), results.get(i).result);
+            }
+        }
+        return results;
+    }
+
+    private List<RequestImpl> requests(String methodName, int... args) throws NoSuchMethodException {
+        Method method = NamesApi.class.getMethod(methodName, int.class);
+        List<RequestImpl> requests = new ArrayList<>();
+        for (int arg : args) {
+            requests.add(new RequestImpl(++id, endpoint, method, methodName, method.getAnnotation(RequestMethod.class),
+                    new Object[]{arg}, String.class, 0, null, endpoint.getProtocolController().getAdditionalRequestData()));
+        }
+        return requests;
+    }
+
+    private static String batch(List<RequestImpl> requests, String... results) {
+        StringBuilder builder = new StringBuilder("[");
+        for (int i = 0; i < requests.size(); i++) {
+            builder.append(i > 0 ? "," : "").append(item(requests.get(i), results[i]));
+        }
+        return builder.append("]").toString();
+    }
+
+    private static String item(RequestImpl request, String result) {
+        return "{\"jsonrpc\":\"2.0\",\"id\":" + request.getId() + ",\"result\":" + result + "}";
+    }
+
+    private static void assertResults(List<RequestResult> results, Object... expected) {
+        assertEquals(expected.length, results.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertNull(results.get(i).error);
+            assertEquals(expected[i], results.get(i).result);
+        }
+    }
+
+    public interface NamesApi {
+
+        @RequestMethod
+        @ServerCache
+        String getName(int id);
+
+        @RequestMethod
+        @ServerCache(useOldOnError = true)
+        String getOldOnError(int id);
+    }
+
+    static class StandInBatchController extends JsonRpc2Controller {
+
+        StandInBatchController() {
+            super(true);
+        }
+
+        @Override
+        public List<RequestResult> parseResponses(List<Request> requests, InputStream stream, Map<String, List<String>> headers) throws JudoException {
+            Map<Integer, Request> requestMap = new HashMap<>();
+            for (Request request : requests) {
+                requestMap.put(request.getId(), request);
+            }
+            List<RequestResult> results = new ArrayList<>();
+            try {
+                for (JsonNode node : mapper.readTree(stream)) {
+                    Request request = requestMap.get(node.get("id").asInt());
+                    if (node.has("error")) {
+                        results.add(new ErrorResult(request.getId(), new JudoException(node.get("error").get("message").asText())));
+                    } else {
+                        results.add(new RequestSuccessResult(request.getId(),
+                                mapper.convertValue(node.get("result"), mapper.getTypeFactory().constructType(request.getReturnType()))));
+                    }
+                }
+            } catch (IOException e) {
+                throw new ConnectionException(e);
+            }
+            return results;
+        }
+    }
+
+    static class NoProgressObserver implements ProgressObserver {
+
+        private int maxProgress;
+
+        @Override
+        public void clearProgress() {
+        }
+
+        @Override
+        public void progressTick() {
+        }
+
+        @Override
+        public void progressTick(float progress) {
+        }
+
+        @Override
+        public void setMaxProgress(int max) {
+            maxProgress = max;
+        }
+
+        @Override
+        public int getMaxProgress() {
+            return maxProgress;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.github.kubatatami.judonetworking.controllers.json;
+
+import android.content.Context;
+
+import com.github.kubatatami.judonetworking.annotations.DeltaSync;
+import com.github.kubatatami.judonetworking.annotations.RequestMethod;
+import com.github.kubatatami.judonetworking.annotations.ServerCache;
+import com.github.kubatatami.judonetworking.controllers.json.rpc.JsonRpc2Controller;
+import com.github.kubatatami.judonetworking.internals.EndpointImpl;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Runs {@link DeltaSync} requests against a stand-in server.
+ */
+public class DeltaSyncTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private StandInTransportLayer server;
+    private ItemsApi api;
+
+    @Before
+    public void setUp() throws IOException {
+        Context context = mock(Context.class);
+        when(context.getCacheDir()).thenReturn(folder.newFolder("cache"));
+        when(context.getFilesDir()).thenReturn(folder.newFolder("files"));
+        server = new StandInTransportLayer();
+        EndpointImpl endpoint = new EndpointImpl(context, new JsonRpc2Controller(), server, "http://example.com");
+        endpoint.setCacheEnabled(true);
+        api = endpoint.getService(ItemsApi.class);
+    }
+
+    @Test
+    public void appliesChangesToCachedList() {
+        server.enqueue(StandInTransportLayer.Response.ok(result("[{\"id\":1,\"name\":\"a\"},{\"id\":2,\"name\":\"b\"}]"), "v1"));
+        assertItems(api.getItems(), "1:a", "2:b");
+        assertNull(server.getLastRequest().hash);
+
+        server.enqueue(StandInTransportLayer.Response.ok("{\"inserts\":[{\"id\":3,\"name\":\"c\"}],"
+                + "\"updates\":[{\"id\":1,\"name\":\"a2\"}],\"deletes\":[2]}", "v2")
+                .header("IM", DeltaSync.INSTANCE_MANIPULATION));
+        assertItems(api.getItems(), "1:a2", "3:c");
+        assertEquals("v1", server.getLastRequest().hash);
+        assertEquals(DeltaSync.INSTANCE_MANIPULATION, server.getLastRequest().instanceManipulation);
+
+        server.enqueue(StandInTransportLayer.Response.notModified());
+        assertItems(api.getItems(), "1:a2", "3:c");
+        assertEquals("v2", server.getLastRequest().hash);
+    }
+
+    @Test
+    public void usesFullResponseOfServerWithoutDeltaSupport() {
+        server.enqueue(StandInTransportLayer.Response.ok(result("[{\"id\":1,\"name\":\"a\"}]"), "v1"));
+        api.getItems();
+        server.enqueue(StandInTransportLayer.Response.ok(result("[{\"id\":2,\"name\":\"b\"}]"), "v2"));
+        assertItems(api.getItems(), "2:b");
+        assertEquals(DeltaSync.INSTANCE_MANIPULATION, server.getLastRequest().instanceManipulation);
+    }
+
+    private static String result(String result) {
+        return "{\"jsonrpc\":\"2.0\",\"id\":1,\"result\":" + result + "}";
+    }
+
+    private static void assertItems(List<Item> items, String... expected) {
+        assertEquals(expected.length, items.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], items.get(i).id + ":" + items.get(i).name);
+        }
+    }
+
+    public interface ItemsApi {
+
+        @RequestMethod
+        @ServerCache
+        @DeltaSync
+        List<Item> getItems();
+    }
+
+    public static class Item implements Serializable {
+        public int id;
+        public String name;
+    }
+}
@@ -0,0 +1,163 @@
+package com.github.kubatatami.judonetworking.controllers.json;
+
+import com.github.kubatatami.judonetworking.controllers.ProtocolController;
+import com.github.kubatatami.judonetworking.exceptions.ConnectionException;
+import com.github.kubatatami.judonetworking.exceptions.JudoException;
+import com.github.kubatatami.judonetworking.internals.stats.TimeStat;
+import com.github.kubatatami.judonetworking.transports.TransportLayer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Local stand-in for a server. Responses are queued by the test and every sent request is recorded.
+ */
+public class StandInTransportLayer extends TransportLayer {
+
+    private final LinkedList<Response> responses = new LinkedList<>();
+    private final List<SentRequest> requests = new ArrayList<>();
+
+    public synchronized void enqueue(Response response) {
+        responses.add(response);
+    }
+
+    public synchronized List<SentRequest> getRequests() {
+        return new ArrayList<>(requests);
+    }
+
+    public synchronized SentRequest getLastRequest() {
+        return requests.get(requests.size() - 1);
+    }
+
+    @Override
+    public synchronized Connection send(String requestName, ProtocolController protocolController, ProtocolController.RequestInfo requestInfo,
+                                        int timeout, TimeStat timeStat, int debugFlags, Method method, CacheInfo cacheInfo) throws JudoException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try {
+            if (requestInfo.entity != null) {
+                requestInfo.entity.writeTo(body);
+            }
+            requests.add(new SentRequest(requestName, body.toString("UTF-8"), cacheInfo));
+        } catch (IOException e) {
+            throw new ConnectionException(e);
+        }
+        if (responses.isEmpty()) {
+            throw new ConnectionException("No response queued for " + requestName);
+        }
+        return responses.removeFirst();
+    }
+
+    @Override
+    public void setMaxConnections(int max) {
+    }
+
+    @Override
+    public void setConnectTimeout(int connectTimeout) {
+    }
+
+    @Override
+    public void setMethodTimeout(int methodTimeout) {
+    }
+
+    @Override
+    public int getMethodTimeout() {
+        return 0;
+    }
+
+    public static class SentRequest {
+        public final String name;
+        public final String body;
+        public final String hash;
+        public final Long time;
+        public final String instanceManipulation;
+
+        SentRequest(String name, String body, CacheInfo cacheInfo) {
+            this.name = name;
+            this.body = body;
+            this.hash = cacheInfo != null ? cacheInfo.hash : null;
+            this.time = cacheInfo != null ? cacheInfo.time : null;
+            this.instanceManipulation = cacheInfo != null ? cacheInfo.instanceManipulation : null;
+        }
+    }
+
+    public static class Response implements Connection {
+        private final int code;
+        private final byte[] body;
+        private final String hash;
+        private final Long date;
+        private final Map<String, List<String>> headers = new HashMap<>();
+
+        public Response(int code, String body, String hash, Long date) {
+            this.code = code;
+            this.hash = hash;
+            this.date = date;
+            try {
+                this.body = body != null ? body.getBytes("UTF-8") : new byte[0];
+            } catch (UnsupportedEncodingException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        public static Response ok(String body, String hash) {
+            return new Response(200, body, hash, null);
+        }
+
+        public static Response notModified() {
+            return new Response(304, null, null, null);
+        }
+
+        public Response header(String name, String value) {
+            headers.put(name, Collections.singletonList(value));
+            return this;
+        }
+
+        @Override
+        public InputStream getStream() throws ConnectionException {
+            return new ByteArrayInputStream(body);
+        }
+
+        @Override
+        public int getContentLength() {
+            return body.length;
+        }
+
+        @Override
+        public String getHash() {
+            return hash;
+        }
+
+        @Override
+        public Long getDate() {
+            return date;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public Map<String, List<String>> getHeaders() {
+            return headers;
+        }
+
+        @Override
+        public boolean isNewestAvailable() throws ConnectionException {
+            return code != 304;
+        }
+
+        @Override
+        public Freshness getFreshness() {
+            return null;
+        }
+    }
+}